@@ -99,6 +99,20 @@ public abstract class AbstractController extends VizObject implements IVizUpdate
 		return null;
 	}
 	
+	/**
+	 * Finds where a ray, given in the coordinates of the view's parent, first
+	 * hits the view's geometry.
+	 * 
+	 * @param origin The ray's origin.
+	 * @param direction The ray's direction, which need not be normalized.
+	 * @param distance If not null and the ray hits, its first element is set
+	 *            to the distance to the hit.
+	 * @return The number of the triangle hit, or -1 if the ray misses.
+	 */
+	public int pick(double[] origin, double[] direction, double[] distance){
+		return view.pick(origin, direction, distance);
+	}
+	
 	/**
 	 * Getter for the View's transformation
 	 * 
@@ -0,0 +1,498 @@
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javafx.application.Platform;
+import javafx.geometry.Point3D;
+import javafx.scene.Node;
+import javafx.scene.PerspectiveCamera;
+import javafx.scene.transform.Affine;
+import javafx.scene.transform.Transform;
+
+/**
+ * A base class for views rendered in JavaFX. Each view's scene nodes are held
+ * under a single Xform, which is the view's representation. The view's
+ * Transformation is applied to that Xform alone, so moving, rotating or
+ * scaling a component costs the same no matter how many nodes it is drawn
+ * with.
+ * 
+ * A view may hold its component at several levels of detail, from the finest
+ * at level 0 to the coarsest, of which only one is visible at a time. Once per
+ * pulse, updateLevelOfDetail() estimates how many pixels tall the component
+ * appears from the camera, and shows the level suited to that size. Each
+ * level is meant for half the on screen size of the one before it. To stop
+ * levels popping back and forth when the size hovers near a boundary, the
+ * size must pass a boundary by a margin before the level changes.
+ * 
+ * When the component changes, requestUpdate() may be called from any thread.
+ * Requests are coalesced, and the view brings its nodes up to date once, on
+ * the JavaFX application thread, before the next pulse is rendered.
+ * 
+ * Views should be pulsed once per frame, which first lets them pick up any
+ * new data, such as a frame of positions published by a simulation, then
+ * chooses their level of detail.
+ * 
+ * @author Robert Smith
+ *
+ */
+public abstract class AbstractJavaFXView extends AbstractView {
+
+	/**
+	 * The parent of all of this view's scene nodes.
+	 */
+	protected final Xform node;
+
+	/**
+	 * The shear applied to the view's nodes before the Xform's own scale.
+	 */
+	private final Affine skew;
+
+	/**
+	 * The on screen height, in pixels, below which the finest level is no
+	 * longer needed.
+	 */
+	private static final double FULL_DETAIL_PIXELS = 400;
+
+	/**
+	 * How far past a boundary between levels, as a fraction of a level, the
+	 * size must move before the level changes.
+	 */
+	private static final double HYSTERESIS = .25;
+
+	/**
+	 * The view's levels of detail, finest first.
+	 */
+	private final ArrayList<Node> levels;
+
+	/**
+	 * The index of the visible level.
+	 */
+	private int currentLevel;
+
+	/**
+	 * The coarsest level which may be shown.
+	 */
+	private int coarsestLevel;
+
+	/**
+	 * A sphere around the view's untransformed geometry, as its center's
+	 * coordinates followed by its radius.
+	 */
+	private final double[] boundingSphere;
+
+	/**
+	 * The number of times the bounding sphere has been set, so that anything
+	 * caching it can tell when it changed.
+	 */
+	private int boundsVersion;
+
+	/**
+	 * Whether an update of the view's nodes is waiting to run.
+	 */
+	private final AtomicBoolean updatePending;
+
+	/**
+	 * The default constructor.
+	 * 
+	 * @param name
+	 *            The view's name.
+	 */
+	public AbstractJavaFXView(String name) {
+		super(name);
+		node = new Xform();
+		skew = new Affine();
+		node.getTransforms().add(skew);
+		transform = new Transformation();
+		previousTransform = null;
+		levels = new ArrayList<Node>();
+		currentLevel = 0;
+		coarsestLevel = Integer.MAX_VALUE;
+		boundingSphere = new double[4];
+		updatePending = new AtomicBoolean(false);
+	}
+
+	/**
+	 * Returns the Xform holding the view's scene nodes, which is what the view
+	 * adds to the scene.
+	 */
+	@Override
+	public Object getRepresentation() {
+		return node;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see AbstractView#setTransform(Transformation)
+	 */
+	@Override
+	public void setTransform(Transformation transform) {
+		applyTransform(transform);
+		super.setTransform(transform);
+	}
+
+	/**
+	 * Moves the ray into the view's own coordinates with the inverse of its
+	 * transformation, then picks the untransformed geometry. As the
+	 * transformation is affine, distances along the ray are unchanged.
+	 */
+	@Override
+	public int pick(double[] origin, double[] direction, double[] distance) {
+		double[] inverse = transform.getInverseMatrixArray();
+		double[] localOrigin = new double[3];
+		double[] localDirection = new double[3];
+		for (int i = 0; i < 3; i++) {
+			localOrigin[i] = inverse[i * 4] * origin[0] + inverse[i * 4 + 1]
+					* origin[1] + inverse[i * 4 + 2] * origin[2]
+					+ inverse[i * 4 + 3];
+			localDirection[i] = inverse[i * 4] * direction[0]
+					+ inverse[i * 4 + 1] * direction[1] + inverse[i * 4 + 2]
+					* direction[2];
+		}
+		return pickLocal(localOrigin, localDirection, distance);
+	}
+
+	/**
+	 * Picks the view's geometry with a ray given in the view's own,
+	 * untransformed coordinates. Views which cannot be picked keep this
+	 * implementation, which always misses.
+	 * 
+	 * @param origin
+	 *            The ray's origin.
+	 * @param direction
+	 *            The ray's direction.
+	 * @param distance
+	 *            If not null and the ray hits, set to the distance to the hit.
+	 * @return The number of the triangle hit, or -1 if the ray misses.
+	 */
+	protected int pickLocal(double[] origin, double[] direction,
+			double[] distance) {
+		return -1;
+	}
+
+	/**
+	 * Asks for the view's nodes to be brought up to date with its component.
+	 * This may be called from any thread. Only one update is queued on the
+	 * JavaFX application thread at a time, and it covers every request made
+	 * before it starts.
+	 */
+	public void requestUpdate() {
+		if (updatePending.compareAndSet(false, true)) {
+			Platform.runLater(new Runnable() {
+				@Override
+				public void run() {
+					updatePending.set(false);
+					updateNodes();
+				}
+			});
+		}
+	}
+
+	/**
+	 * Brings the view's nodes up to date with its component. This is called
+	 * on the JavaFX application thread after requestUpdate(). The default
+	 * implementation does nothing.
+	 */
+	protected void updateNodes() {
+		return;
+	}
+
+	/**
+	 * Brings the view up to date for the next frame. This should be called
+	 * from the JavaFX application thread once per pulse.
+	 * 
+	 * @param camera
+	 *            The camera the scene is viewed through.
+	 * @param viewportWidth
+	 *            The width of the view port, in pixels.
+	 * @param viewportHeight
+	 *            The height of the view port, in pixels.
+	 */
+	public void pulse(PerspectiveCamera camera, double viewportWidth,
+			double viewportHeight) {
+		updateFrame();
+		updateLevelOfDetail(camera, viewportWidth, viewportHeight);
+	}
+
+	/**
+	 * Picks up any data published for the view since the last pulse. The
+	 * default implementation does nothing.
+	 */
+	protected void updateFrame() {
+		return;
+	}
+
+	/**
+	 * Adds a level of detail, coarser than those already added, under the
+	 * view's Xform. Only the current level is visible.
+	 * 
+	 * @param level
+	 *            The node holding the level's geometry.
+	 */
+	protected void addLevel(Node level) {
+		level.setVisible(levels.size() == currentLevel);
+		levels.add(level);
+		node.getChildren().add(level);
+	}
+
+	/**
+	 * Gets one of the view's levels of detail.
+	 * 
+	 * @param level
+	 *            The level's index, where 0 is the finest.
+	 * @return The node holding the level's geometry.
+	 */
+	protected Node getLevel(int level) {
+		return levels.get(level);
+	}
+
+	/**
+	 * Removes the levels of detail from the given level on, such as when they
+	 * no longer match the component. If one of them was showing, the finest
+	 * remaining level is shown instead.
+	 * 
+	 * @param first
+	 *            The first level to remove, which must be at least 1.
+	 */
+	protected void removeLevels(int first) {
+		while (levels.size() > first) {
+			node.getChildren().remove(levels.remove(levels.size() - 1));
+		}
+		if (currentLevel >= first) {
+			currentLevel = first - 1;
+			levels.get(currentLevel).setVisible(true);
+		}
+	}
+
+	/**
+	 * Gets the number of levels of detail the view holds.
+	 * 
+	 * @return The level count.
+	 */
+	public int getLevelCount() {
+		return levels.size();
+	}
+
+	/**
+	 * Gets the level of detail being shown.
+	 * 
+	 * @return The current level, where 0 is the finest.
+	 */
+	public int getCurrentLevel() {
+		return currentLevel;
+	}
+
+	/**
+	 * Limits how coarse a level of detail may be shown, such as while the
+	 * coarser levels lack something only the finer ones draw. The limit takes
+	 * effect on the next pulse.
+	 * 
+	 * @param level
+	 *            The coarsest level to allow, or Integer.MAX_VALUE to allow
+	 *            every level.
+	 */
+	protected void setCoarsestLevel(int level) {
+		coarsestLevel = Math.max(0, level);
+	}
+
+	/**
+	 * Sets the sphere used to judge how large the view appears on screen.
+	 * 
+	 * @param x
+	 *            The x coordinate of the sphere's center.
+	 * @param y
+	 *            The y coordinate of the sphere's center.
+	 * @param z
+	 *            The z coordinate of the sphere's center.
+	 * @param radius
+	 *            The sphere's radius.
+	 */
+	protected void setBoundingSphere(double x, double y, double z,
+			double radius) {
+		boundingSphere[0] = x;
+		boundingSphere[1] = y;
+		boundingSphere[2] = z;
+		boundingSphere[3] = radius;
+		boundsVersion++;
+	}
+
+	/**
+	 * Gets a number which changes whenever the view's bounding sphere is set
+	 * or grown. It must be read from the JavaFX application thread.
+	 * 
+	 * @return The bounding sphere's version.
+	 */
+	public int getBoundsVersion() {
+		return boundsVersion;
+	}
+
+	/**
+	 * Sets the bounding sphere to enclose a set of points, centered on their
+	 * bounding box.
+	 * 
+	 * @param positions
+	 *            The points, as consecutive (x, y, z) triples.
+	 * @param padding
+	 *            An amount to add to the radius, such as for the thickness of
+	 *            tubes drawn through the points.
+	 */
+	protected void setBoundingSphere(float[] positions, double padding) {
+		if (positions.length == 0) {
+			setBoundingSphere(0, 0, 0, padding);
+			return;
+		}
+		float[] low = { positions[0], positions[1], positions[2] };
+		float[] high = { positions[0], positions[1], positions[2] };
+		for (int i = 0; i < positions.length; i++) {
+			low[i % 3] = Math.min(low[i % 3], positions[i]);
+			high[i % 3] = Math.max(high[i % 3], positions[i]);
+		}
+		double x = (low[0] + high[0]) / 2.0;
+		double y = (low[1] + high[1]) / 2.0;
+		double z = (low[2] + high[2]) / 2.0;
+		double radius = 0;
+		for (int i = 0; i < positions.length; i += 3) {
+			double dx = positions[i] - x;
+			double dy = positions[i + 1] - y;
+			double dz = positions[i + 2] - z;
+			radius = Math.max(radius, dx * dx + dy * dy + dz * dz);
+		}
+		setBoundingSphere(x, y, z, Math.sqrt(radius) + padding);
+	}
+
+	/**
+	 * Grows the bounding sphere just enough to enclose a point, such as a
+	 * vertex which has moved. The sphere is never shrunk.
+	 * 
+	 * @param x
+	 *            The point's x coordinate.
+	 * @param y
+	 *            The point's y coordinate.
+	 * @param z
+	 *            The point's z coordinate.
+	 */
+	protected void growBoundingSphere(double x, double y, double z) {
+		double dx = x - boundingSphere[0];
+		double dy = y - boundingSphere[1];
+		double dz = z - boundingSphere[2];
+		double distance = Math.sqrt(dx * dx + dy * dy + dz * dz);
+		double radius = boundingSphere[3];
+		if (distance <= radius) {
+			return;
+		}
+
+		// Move the center towards the point so the new sphere just touches
+		// both it and the far side of the old sphere
+		double grown = (radius + distance) / 2;
+		double shift = (grown - radius) / distance;
+		setBoundingSphere(boundingSphere[0] + dx * shift, boundingSphere[1]
+				+ dy * shift, boundingSphere[2] + dz * shift, grown);
+	}
+
+	/**
+	 * Gets a sphere around the view's geometry in scene coordinates, taking
+	 * in the view's own transformation and those of its parents. Non-uniform
+	 * scaling is covered by scaling the radius by the largest stretch along
+	 * any axis.
+	 * 
+	 * @return The sphere's center's coordinates, followed by its radius.
+	 */
+	public double[] getSceneBoundingSphere() {
+		Transform toScene = node.getLocalToSceneTransform();
+		Point3D center = toScene.transform(boundingSphere[0],
+				boundingSphere[1], boundingSphere[2]);
+		double scale = Math.max(toScene.deltaTransform(1, 0, 0).magnitude(),
+				Math.max(toScene.deltaTransform(0, 1, 0).magnitude(), toScene
+						.deltaTransform(0, 0, 1).magnitude()));
+		return new double[] { center.getX(), center.getY(), center.getZ(),
+				boundingSphere[3] * scale };
+	}
+
+	/**
+	 * Shows the level of detail suited to how large the view appears from a
+	 * camera. This is called by pulse().
+	 * 
+	 * @param camera
+	 *            The camera the scene is viewed through.
+	 * @param viewportWidth
+	 *            The width of the view port, in pixels.
+	 * @param viewportHeight
+	 *            The height of the view port, in pixels.
+	 */
+	public void updateLevelOfDetail(PerspectiveCamera camera,
+			double viewportWidth, double viewportHeight) {
+		prepareLevels();
+		if (levels.size() < 2) {
+			return;
+		}
+
+		// Find the distance from the camera to the bounding sphere
+		double[] sphere = getSceneBoundingSphere();
+		double radius = sphere[3];
+		double distance = camera.localToScene(0, 0, 0).distance(sphere[0],
+				sphere[1], sphere[2]);
+
+		// Project the sphere's diameter onto the screen
+		double tangent = Math.tan(Math.toRadians(camera.getFieldOfView() / 2));
+		if (!camera.isVerticalFieldOfView()) {
+			tangent *= viewportHeight / viewportWidth;
+		}
+		double pixels = (distance > radius) ? radius / (distance * tangent)
+				* viewportHeight : Double.POSITIVE_INFINITY;
+
+		// Each level halves the size it is meant for. Only change levels
+		// once the size is clearly past the boundary.
+		double ideal = Math.log(FULL_DETAIL_PIXELS / pixels) / Math.log(2);
+		int target = (int) Math.max(0,
+				Math.min(levels.size() - 1, Math.floor(ideal)));
+		if (target > currentLevel && ideal < currentLevel + 1 + HYSTERESIS) {
+			target = currentLevel;
+		} else if (target < currentLevel && ideal > currentLevel - HYSTERESIS) {
+			target = currentLevel;
+		}
+		target = Math.min(target, coarsestLevel);
+		if (target != currentLevel) {
+			levels.get(currentLevel).setVisible(false);
+			levels.get(target).setVisible(true);
+			currentLevel = target;
+		}
+	}
+
+	/**
+	 * Called at the start of each level of detail update, so that views can
+	 * add levels which have become available, such as those simplified in the
+	 * background. The default implementation does nothing.
+	 */
+	protected void prepareLevels() {
+		return;
+	}
+
+	/**
+	 * Sets the view's Xform to match a Transformation. The Xform translates,
+	 * then rotates about z, y and x, then scales, then skews, which is the
+	 * order the Transformation specifies.
+	 * 
+	 * @param transform
+	 *            The transformation to apply.
+	 */
+	protected void applyTransform(Transformation transform) {
+		double[] translation = transform.getTranslation();
+		node.setTranslate(translation[0], translation[1], translation[2]);
+
+		// The Transformation holds radians, while Rotate expects degrees
+		double[] rotation = transform.getRotation();
+		node.setRotate(Math.toDegrees(rotation[0]),
+				Math.toDegrees(rotation[1]), Math.toDegrees(rotation[2]));
+
+		// Combine the uniform size with the per axis scale
+		double size = transform.getSize();
+		double[] scale = transform.getScale();
+		node.setSx(scale[0] * size);
+		node.setSy(scale[1] * size);
+		node.setSz(scale[2] * size);
+
+		// Shear each axis by the next one, as in the Transformation's matrix
+		double[] shear = transform.getSkew();
+		skew.setMxy(shear[0]);
+		skew.setMyz(shear[1]);
+		skew.setMzx(shear[2]);
+	}
+}
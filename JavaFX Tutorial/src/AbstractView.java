@@ -57,6 +57,24 @@ public abstract class AbstractView extends VizObject implements IVizUpdateable {
 		return null;
 	}
 	
+	/**
+	 * Finds where a ray, given in the coordinates of the view's parent, first
+	 * hits the view's geometry.
+	 * 
+	 * @param origin
+	 *            The ray's origin.
+	 * @param direction
+	 *            The ray's direction, which need not be normalized.
+	 * @param distance
+	 *            If not null and the ray hits, its first element is set to the
+	 *            distance to the hit, in multiples of the direction's length.
+	 * @return The number of the triangle hit, or -1 if the ray misses the
+	 *         view or the view cannot be picked.
+	 */
+	public int pick(double[] origin, double[] direction, double[] distance) {
+		return -1;
+	}
+
 	/**
 	 * Getter for the View's transformation
 	 * 
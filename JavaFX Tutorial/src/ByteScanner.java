@@ -0,0 +1,346 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Scans the text of a mesh file straight out of a ByteBuffer, usually a
+ * mapped part of the file, for the importers. Numbers are parsed from the
+ * bytes in place, so reading a token allocates nothing.
+ * 
+ * Floats are parsed by collecting up to 18 significant digits into a long and
+ * scaling it by an exact power of ten, which gives the same result as
+ * Float.parseFloat() for all but the rarest inputs, and is then within one
+ * unit of the last place. Anything the fast path does not handle, such as
+ * "NaN" or hexadecimal notation, falls back on Float.parseFloat().
+ * 
+ * @author Robert Smith
+ *
+ */
+public class ByteScanner {
+
+	/**
+	 * The powers of ten which doubles hold exactly.
+	 */
+	private static final double[] POWERS_OF_TEN = { 1e0, 1e1, 1e2, 1e3, 1e4,
+			1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16,
+			1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+
+	/**
+	 * The most significant digits collected into the mantissa.
+	 */
+	private static final int MAX_DIGITS = 18;
+
+	/**
+	 * The text being scanned.
+	 */
+	private final ByteBuffer buffer;
+
+	/**
+	 * The index of the next byte to scan.
+	 */
+	private int position;
+
+	/**
+	 * The index just past the last byte to scan.
+	 */
+	private final int limit;
+
+	/**
+	 * The position in the file of the buffer's first byte, used in error
+	 * messages.
+	 */
+	private final long fileOffset;
+
+	/**
+	 * The default constructor.
+	 * 
+	 * @param buffer
+	 *            The text to scan, from its position to its limit.
+	 * @param fileOffset
+	 *            The position in the file of the buffer's first byte.
+	 */
+	public ByteScanner(ByteBuffer buffer, long fileOffset) {
+		this.buffer = buffer;
+		position = buffer.position();
+		limit = buffer.limit();
+		this.fileOffset = fileOffset;
+	}
+
+	/**
+	 * Checks whether any text is left.
+	 * 
+	 * @return True if there are bytes left to scan.
+	 */
+	public boolean hasRemaining() {
+		return position < limit;
+	}
+
+	/**
+	 * Gets a byte ahead of the scanner without moving past it.
+	 * 
+	 * @param ahead
+	 *            How far ahead of the scanner the byte is.
+	 * @return The byte, or -1 if it is past the end of the text.
+	 */
+	public int peek(int ahead) {
+		int index = position + ahead;
+		return (index < limit) ? buffer.get(index) & 0xff : -1;
+	}
+
+	/**
+	 * Moves past some bytes.
+	 * 
+	 * @param count
+	 *            The number of bytes to skip.
+	 */
+	public void skip(int count) {
+		position = Math.min(limit, position + count);
+	}
+
+	/**
+	 * Moves past any spaces and tabs, stopping at the end of the line.
+	 */
+	public void skipSpaces() {
+		while (position < limit) {
+			byte value = buffer.get(position);
+			if (value != ' ' && value != '\t') {
+				return;
+			}
+			position++;
+		}
+	}
+
+	/**
+	 * Moves past the rest of the current token, up to the next whitespace.
+	 */
+	public void skipToken() {
+		while (position < limit && !isWhitespace(buffer.get(position))) {
+			position++;
+		}
+	}
+
+	/**
+	 * Moves to the start of the next line.
+	 */
+	public void nextLine() {
+		while (position < limit && buffer.get(position++) != '\n') {
+		}
+	}
+
+	/**
+	 * Checks whether the scanner is at the end of a line, ignoring any spaces
+	 * before it.
+	 * 
+	 * @return True if nothing but spaces is left on the line.
+	 */
+	public boolean atLineEnd() {
+		skipSpaces();
+		if (position >= limit) {
+			return true;
+		}
+		byte value = buffer.get(position);
+		return value == '\n' || value == '\r';
+	}
+
+	/**
+	 * Moves past a word if it comes next, followed by whitespace or the end
+	 * of the text.
+	 * 
+	 * @param word
+	 *            The word, in ASCII.
+	 * @return True if the word was found and skipped, false if the scanner
+	 *         has not moved.
+	 */
+	public boolean skipWord(String word) {
+		int length = word.length();
+		if (position + length > limit) {
+			return false;
+		}
+		for (int i = 0; i < length; i++) {
+			if (buffer.get(position + i) != word.charAt(i)) {
+				return false;
+			}
+		}
+		if (position + length < limit
+				&& !isWhitespace(buffer.get(position + length))) {
+			return false;
+		}
+		position += length;
+		return true;
+	}
+
+	/**
+	 * Reads a decimal integer, stopping at the first byte which is not a
+	 * digit, such as the slash in an OBJ face's "v/vt/vn".
+	 * 
+	 * @return The integer.
+	 * @throws IOException
+	 *             If there is no integer next, or it does not fit in a long.
+	 */
+	public long nextLong() throws IOException {
+		skipSpaces();
+		int start = position;
+		boolean negative = false;
+		if (position < limit
+				&& (buffer.get(position) == '-' || buffer.get(position) == '+')) {
+			negative = buffer.get(position++) == '-';
+		}
+		long value = 0;
+		int digitStart = position;
+		while (position < limit) {
+			int digit = buffer.get(position) - '0';
+			if (digit < 0 || digit > 9) {
+				break;
+			}
+			if (value > (Long.MAX_VALUE - digit) / 10) {
+				throw error(start, "an integer in range");
+			}
+			value = value * 10 + digit;
+			position++;
+		}
+		if (position == digitStart) {
+			throw error(start, "an integer");
+		}
+		return negative ? -value : value;
+	}
+
+	/**
+	 * Reads an integer which must fit in an int.
+	 * 
+	 * @return The integer.
+	 * @throws IOException
+	 *             If there is no integer next, or it does not fit in an int.
+	 */
+	public int nextInt() throws IOException {
+		int start = position;
+		long value = nextLong();
+		if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+			throw error(start, "an integer in range");
+		}
+		return (int) value;
+	}
+
+	/**
+	 * Reads a decimal floating point number, which must be followed by
+	 * whitespace or the end of the text.
+	 * 
+	 * @return The number.
+	 * @throws IOException
+	 *             If there is no number next.
+	 */
+	public float nextFloat() throws IOException {
+		skipSpaces();
+		int start = position;
+		boolean negative = false;
+		if (position < limit
+				&& (buffer.get(position) == '-' || buffer.get(position) == '+')) {
+			negative = buffer.get(position++) == '-';
+		}
+
+		// Collect the significant digits, counting those dropped or after the
+		// decimal point in the exponent
+		long mantissa = 0;
+		int digits = 0;
+		int exponent = 0;
+		boolean seenDigit = false;
+		boolean seenPoint = false;
+		while (position < limit) {
+			byte value = buffer.get(position);
+			if (value >= '0' && value <= '9') {
+				seenDigit = true;
+				if (digits < MAX_DIGITS) {
+					if (mantissa != 0 || value != '0') {
+						digits++;
+					}
+					mantissa = mantissa * 10 + (value - '0');
+					if (seenPoint) {
+						exponent--;
+					}
+				} else if (!seenPoint) {
+					exponent++;
+				}
+			} else if (value == '.' && !seenPoint) {
+				seenPoint = true;
+			} else {
+				break;
+			}
+			position++;
+		}
+
+		// Read the exponent
+		if (seenDigit && position < limit
+				&& (buffer.get(position) | 0x20) == 'e') {
+			position++;
+			boolean negativeExponent = false;
+			if (position < limit
+					&& (buffer.get(position) == '-' || buffer.get(position) == '+')) {
+				negativeExponent = buffer.get(position++) == '-';
+			}
+			int exponentStart = position;
+			int value = 0;
+			while (position < limit) {
+				int digit = buffer.get(position) - '0';
+				if (digit < 0 || digit > 9) {
+					break;
+				}
+				value = Math.min(100000, value * 10 + digit);
+				position++;
+			}
+			if (position == exponentStart) {
+				return slowFloat(start);
+			}
+			exponent += negativeExponent ? -value : value;
+		}
+		if (!seenDigit
+				|| (position < limit && !isWhitespace(buffer.get(position)))) {
+			return slowFloat(start);
+		}
+
+		// Scale by an exact power of ten where possible
+		double result = mantissa;
+		if (mantissa == 0) {
+			result = 0;
+		} else if (exponent < 0 && exponent >= -22) {
+			result /= POWERS_OF_TEN[-exponent];
+		} else if (exponent > 0 && exponent <= 22) {
+			result *= POWERS_OF_TEN[exponent];
+		} else if (exponent != 0) {
+			return slowFloat(start);
+		}
+		return (float) (negative ? -result : result);
+	}
+
+	/**
+	 * Parses the token at a position with Float.parseFloat(), for the forms
+	 * the fast path does not handle.
+	 */
+	private float slowFloat(int start) throws IOException {
+		position = start;
+		skipToken();
+		byte[] token = new byte[position - start];
+		for (int i = 0; i < token.length; i++) {
+			token[i] = buffer.get(start + i);
+		}
+		try {
+			return Float.parseFloat(new String(token, StandardCharsets.US_ASCII));
+		} catch (NumberFormatException e) {
+			throw error(start, "a number");
+		}
+	}
+
+	/**
+	 * Creates an exception for a malformed token.
+	 */
+	private IOException error(int start, String expected) {
+		return new IOException("ByteScanner error: Expected " + expected
+				+ " at byte " + (fileOffset + start) + " of the file.");
+	}
+
+	/**
+	 * Checks whether a byte is ASCII whitespace.
+	 */
+	private static boolean isWhitespace(byte value) {
+		return value == ' ' || value == '\t' || value == '\n' || value == '\r'
+				|| value == '\f';
+	}
+}
@@ -0,0 +1,95 @@
+import javafx.scene.image.Image;
+import javafx.scene.image.PixelWriter;
+import javafx.scene.image.WritableImage;
+import javafx.scene.paint.Color;
+
+/**
+ * A colormap for drawing scalar fields, made of evenly spaced colors which
+ * are blended linearly between. It can be baked into a texture one pixel
+ * tall, so that a mesh is colored by giving each vertex a texture coordinate
+ * along it, and a changed field only needs new texture coordinates.
+ * 
+ * @author Robert Smith
+ *
+ */
+public class Colormap {
+
+	/**
+	 * The width, in pixels, of the textures made by createImage().
+	 */
+	public static final int DEFAULT_WIDTH = 256;
+
+	/**
+	 * The colors, from the low end of the map to the high end.
+	 */
+	private final Color[] stops;
+
+	/**
+	 * The default constructor.
+	 * 
+	 * @param stops
+	 *            The colors, from the low end of the map to the high end. At
+	 *            least two are required.
+	 */
+	public Colormap(Color... stops) {
+		if (stops == null || stops.length < 2) {
+			throw new IllegalArgumentException(
+					"Colormap error: At least two colors are required.");
+		}
+		this.stops = stops.clone();
+	}
+
+	/**
+	 * Creates a colormap running from blue through cyan, green and yellow to
+	 * red.
+	 * 
+	 * @return The rainbow colormap.
+	 */
+	public static Colormap rainbow() {
+		return new Colormap(Color.BLUE, Color.CYAN, Color.LIME, Color.YELLOW,
+				Color.RED);
+	}
+
+	/**
+	 * Creates a diverging colormap running from blue through light grey to
+	 * red, which suits fields with a meaningful middle value.
+	 * 
+	 * @return The cool to warm colormap.
+	 */
+	public static Colormap coolWarm() {
+		return new Colormap(Color.rgb(59, 76, 192), Color.rgb(221, 221, 221),
+				Color.rgb(180, 4, 38));
+	}
+
+	/**
+	 * Gets the color at a point along the map.
+	 * 
+	 * @param position
+	 *            The point, from 0 at the low end to 1 at the high end. Values
+	 *            outside that range are clamped.
+	 * @return The color at that point.
+	 */
+	public Color getColor(double position) {
+		double scaled = Math.max(0, Math.min(1, position)) * (stops.length - 1);
+		int stop = Math.min((int) scaled, stops.length - 2);
+		return stops[stop].interpolate(stops[stop + 1], scaled - stop);
+	}
+
+	/**
+	 * Bakes the colormap into a texture one pixel tall. Each pixel holds the
+	 * color at its center, so a texture coordinate u of (i + .5) / width
+	 * samples pixel i exactly.
+	 * 
+	 * @param width
+	 *            The width of the texture, in pixels.
+	 * @return The texture.
+	 */
+	public Image createImage(int width) {
+		WritableImage image = new WritableImage(width, 1);
+		PixelWriter writer = image.getPixelWriter();
+		for (int x = 0; x < width; x++) {
+			writer.setColor(x, 0, getColor((x + .5) / width));
+		}
+		return image;
+	}
+}
@@ -0,0 +1,529 @@
+import java.util.ArrayList;
+
+import javafx.beans.InvalidationListener;
+import javafx.beans.Observable;
+import javafx.scene.PerspectiveCamera;
+import javafx.scene.transform.NonInvertibleTransformException;
+import javafx.scene.transform.Transform;
+
+/**
+ * Hides the JavaFX views which lie entirely outside a PerspectiveCamera's
+ * view frustum, so that their geometry is not sent to the renderer. Culled
+ * views stay in the scene graph with their Xform made invisible.
+ * 
+ * Each view is bounded by a sphere in scene coordinates, and the spheres are
+ * held in a bounding volume hierarchy so that whole groups of views can be
+ * accepted or rejected with a single test. Both are cached. The spheres and
+ * hierarchy are only rebuilt when a view's transformation changes or its
+ * bounding sphere is set or grown, such as when its vertices move, and the
+ * frustum is only tested when the camera's chain of transformations, its
+ * clipping planes, its field of view or the view port change, so a still
+ * scene costs nothing per pulse.
+ * 
+ * The culler is meant to be updated from the JavaFX application thread once
+ * per pulse, after any views have been moved.
+ * 
+ * @author Robert Smith
+ *
+ */
+public class FrustumCuller {
+
+	/**
+	 * The largest number of views a leaf of the hierarchy may hold.
+	 */
+	private static final int MAX_LEAF_SIZE = 4;
+
+	/**
+	 * The camera whose frustum is tested.
+	 */
+	private final PerspectiveCamera camera;
+
+	/**
+	 * The views being culled.
+	 */
+	private final ArrayList<AbstractJavaFXView> views;
+
+	/**
+	 * Marks the views' bounds as out of date when any of them moves.
+	 */
+	private final InvalidationListener boundsListener;
+
+	/**
+	 * Marks the visibility as out of date when the camera changes.
+	 */
+	private final InvalidationListener cameraListener;
+
+	/**
+	 * Whether the bounds and hierarchy must be rebuilt.
+	 */
+	private boolean boundsDirty;
+
+	/**
+	 * Whether the views must be tested against the frustum again.
+	 */
+	private boolean frustumDirty;
+
+	/**
+	 * The view port size the frustum was last tested with.
+	 */
+	private double width;
+	private double height;
+
+	/**
+	 * Each view's bounding sphere in the scene, as (x, y, z, radius).
+	 */
+	private double[] spheres;
+
+	/**
+	 * Each view's bounds version when its sphere was gathered.
+	 */
+	private int[] boundsVersions;
+
+	/**
+	 * The views' indices, in the order in which the leaves refer to them.
+	 */
+	private int[] order;
+
+	/**
+	 * The bounds of each node, as (minX, minY, minZ, maxX, maxY, maxZ).
+	 */
+	private double[] nodeBounds;
+
+	/**
+	 * For an interior node, the index of its first child. For a leaf, the
+	 * index in order of its first view.
+	 */
+	private int[] nodeStart;
+
+	/**
+	 * The number of views in each leaf, or 0 for interior nodes.
+	 */
+	private int[] nodeCount;
+
+	/**
+	 * The number of nodes in the hierarchy.
+	 */
+	private int nodes;
+
+	/**
+	 * The frustum's six planes in scene coordinates, each as a unit normal
+	 * pointing out of the frustum followed by an offset, so that a point p is
+	 * inside a plane when normal . p + offset <= 0.
+	 */
+	private final double[] planes;
+
+	/**
+	 * The number of views visible after the last test.
+	 */
+	private int visibleCount;
+
+	/**
+	 * The default constructor.
+	 * 
+	 * @param camera
+	 *            The camera the scene is viewed through.
+	 */
+	public FrustumCuller(PerspectiveCamera camera) {
+		this.camera = camera;
+		views = new ArrayList<AbstractJavaFXView>();
+		planes = new double[24];
+		boundsDirty = true;
+		frustumDirty = true;
+
+		boundsListener = new InvalidationListener() {
+			@Override
+			public void invalidated(Observable observable) {
+				boundsDirty = true;
+			}
+		};
+		cameraListener = new InvalidationListener() {
+			@Override
+			public void invalidated(Observable observable) {
+				frustumDirty = true;
+			}
+		};
+
+		// The camera's local to scene transform is invalidated whenever any
+		// Xform above it changes
+		camera.localToSceneTransformProperty().addListener(cameraListener);
+		camera.fieldOfViewProperty().addListener(cameraListener);
+		camera.verticalFieldOfViewProperty().addListener(cameraListener);
+		camera.nearClipProperty().addListener(cameraListener);
+		camera.farClipProperty().addListener(cameraListener);
+	}
+
+	/**
+	 * Starts culling a view.
+	 * 
+	 * @param view
+	 *            The view to cull.
+	 */
+	public void add(AbstractJavaFXView view) {
+		if (indexOf(view) < 0) {
+			views.add(view);
+			view.node.localToSceneTransformProperty().addListener(
+					boundsListener);
+			boundsDirty = true;
+		}
+	}
+
+	/**
+	 * Stops culling a view, making it visible again.
+	 * 
+	 * @param view
+	 *            The view to stop culling.
+	 */
+	public void remove(AbstractJavaFXView view) {
+		int index = indexOf(view);
+		if (index >= 0) {
+			views.remove(index);
+			view.node.localToSceneTransformProperty().removeListener(
+					boundsListener);
+			view.node.setVisible(true);
+			boundsDirty = true;
+		}
+	}
+
+	/**
+	 * Finds a view in the list. Views are compared by identity, as views of
+	 * equal components are equal but still need culling separately.
+	 */
+	private int indexOf(AbstractJavaFXView view) {
+		for (int i = 0; i < views.size(); i++) {
+			if (views.get(i) == view) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Gets the number of views which were inside the frustum when it was
+	 * last tested.
+	 * 
+	 * @return The visible view count.
+	 */
+	public int getVisibleCount() {
+		return visibleCount;
+	}
+
+	/**
+	 * Shows the views inside the camera's frustum and hides the rest, if
+	 * anything has changed since the last update.
+	 * 
+	 * @param viewportWidth
+	 *            The width of the view port, in pixels.
+	 * @param viewportHeight
+	 *            The height of the view port, in pixels.
+	 * @return True if the views were tested again, false if nothing had
+	 *         changed.
+	 */
+	public boolean update(double viewportWidth, double viewportHeight) {
+		if (viewportWidth != width || viewportHeight != height) {
+			width = viewportWidth;
+			height = viewportHeight;
+			frustumDirty = true;
+		}
+		if (!boundsDirty) {
+			boundsDirty = boundsChanged();
+		}
+		if (!boundsDirty && !frustumDirty || width <= 0 || height <= 0) {
+			return false;
+		}
+		if (boundsDirty) {
+			buildHierarchy();
+			boundsDirty = false;
+		}
+
+		// Reading the camera's transform also lets its listener fire again
+		if (!updatePlanes()) {
+			return false;
+		}
+		frustumDirty = false;
+
+		visibleCount = 0;
+		if (nodes > 0) {
+			cull(0, 0x3f);
+		}
+		return true;
+	}
+
+	/**
+	 * Checks whether any view's bounding sphere has changed since it was
+	 * gathered.
+	 */
+	private boolean boundsChanged() {
+		for (int i = 0; i < views.size(); i++) {
+			if (views.get(i).getBoundsVersion() != boundsVersions[i]) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Finds the frustum's planes in scene coordinates.
+	 * 
+	 * @return False if the camera's transformation cannot be inverted, in
+	 *         which case nothing can be seen through it.
+	 */
+	private boolean updatePlanes() {
+		Transform toCamera;
+		try {
+			toCamera = camera.getLocalToSceneTransform().createInverse();
+		} catch (NonInvertibleTransformException e) {
+			return false;
+		}
+
+		// The camera looks down its z axis with y pointing down the screen
+		double tangentY = Math.tan(Math.toRadians(camera.getFieldOfView() / 2));
+		double tangentX = tangentY;
+		if (camera.isVerticalFieldOfView()) {
+			tangentX *= width / height;
+		} else {
+			tangentY *= height / width;
+		}
+
+		// Planes in camera coordinates, each as (normal, offset)
+		double[][] local = { { 1, 0, -tangentX, 0 }, { -1, 0, -tangentX, 0 },
+				{ 0, 1, -tangentY, 0 }, { 0, -1, -tangentY, 0 },
+				{ 0, 0, -1, camera.getNearClip() },
+				{ 0, 0, 1, -camera.getFarClip() } };
+
+		// A scene point p is at A p + b in the camera, so the plane n . q + d
+		// becomes (A^T n) . p + (n . b + d)
+		for (int i = 0; i < 6; i++) {
+			double[] n = local[i];
+			double x = toCamera.getMxx() * n[0] + toCamera.getMyx() * n[1]
+					+ toCamera.getMzx() * n[2];
+			double y = toCamera.getMxy() * n[0] + toCamera.getMyy() * n[1]
+					+ toCamera.getMzy() * n[2];
+			double z = toCamera.getMxz() * n[0] + toCamera.getMyz() * n[1]
+					+ toCamera.getMzz() * n[2];
+			double offset = n[0] * toCamera.getTx() + n[1] * toCamera.getTy()
+					+ n[2] * toCamera.getTz() + n[3];
+			double length = Math.sqrt(x * x + y * y + z * z);
+			planes[i * 4] = x / length;
+			planes[i * 4 + 1] = y / length;
+			planes[i * 4 + 2] = z / length;
+			planes[i * 4 + 3] = offset / length;
+		}
+		return true;
+	}
+
+	/**
+	 * Tests a node of the hierarchy against the planes which its parent did
+	 * not lie entirely inside, showing or hiding its views.
+	 * 
+	 * @param index
+	 *            The node.
+	 * @param mask
+	 *            One bit for each plane still to be tested.
+	 */
+	private void cull(int index, int mask) {
+		int box = index * 6;
+		for (int i = 0; i < 6; i++) {
+			if ((mask & (1 << i)) == 0) {
+				continue;
+			}
+			double nx = planes[i * 4];
+			double ny = planes[i * 4 + 1];
+			double nz = planes[i * 4 + 2];
+			double offset = planes[i * 4 + 3];
+
+			// The corners nearest to and farthest out along the normal
+			double near = offset + nx * nodeBounds[box + (nx > 0 ? 0 : 3)] + ny
+					* nodeBounds[box + (ny > 0 ? 1 : 4)] + nz
+					* nodeBounds[box + (nz > 0 ? 2 : 5)];
+			double far = offset + nx * nodeBounds[box + (nx > 0 ? 3 : 0)] + ny
+					* nodeBounds[box + (ny > 0 ? 4 : 1)] + nz
+					* nodeBounds[box + (nz > 0 ? 5 : 2)];
+			if (near > 0) {
+				setVisible(index, false);
+				return;
+			}
+			if (far <= 0) {
+				mask &= ~(1 << i);
+			}
+		}
+
+		// Entirely inside, so there is nothing left to test
+		if (mask == 0) {
+			setVisible(index, true);
+			return;
+		}
+
+		if (nodeCount[index] == 0) {
+			cull(nodeStart[index], mask);
+			cull(nodeStart[index] + 1, mask);
+			return;
+		}
+
+		// Test each view's sphere against the remaining planes
+		for (int i = nodeStart[index]; i < nodeStart[index] + nodeCount[index]; i++) {
+			int view = order[i];
+			int sphere = view * 4;
+			boolean visible = true;
+			for (int j = 0; j < 6 && visible; j++) {
+				if ((mask & (1 << j)) != 0) {
+					double distance = planes[j * 4] * spheres[sphere]
+							+ planes[j * 4 + 1] * spheres[sphere + 1]
+							+ planes[j * 4 + 2] * spheres[sphere + 2]
+							+ planes[j * 4 + 3];
+					visible = distance <= spheres[sphere + 3];
+				}
+			}
+			show(view, visible);
+		}
+	}
+
+	/**
+	 * Shows or hides every view under a node.
+	 */
+	private void setVisible(int index, boolean visible) {
+		if (nodeCount[index] == 0) {
+			setVisible(nodeStart[index], visible);
+			setVisible(nodeStart[index] + 1, visible);
+			return;
+		}
+		for (int i = nodeStart[index]; i < nodeStart[index] + nodeCount[index]; i++) {
+			show(order[i], visible);
+		}
+	}
+
+	/**
+	 * Shows or hides a single view.
+	 */
+	private void show(int view, boolean visible) {
+		if (visible) {
+			visibleCount++;
+		}
+		views.get(view).node.setVisible(visible);
+	}
+
+	/**
+	 * Gathers the views' bounding spheres and builds the hierarchy over them
+	 * by splitting each node at the median of the spheres' centers along its
+	 * longest axis.
+	 */
+	private void buildHierarchy() {
+		int count = views.size();
+		spheres = new double[count * 4];
+		boundsVersions = new int[count];
+		order = new int[count];
+		for (int i = 0; i < count; i++) {
+			boundsVersions[i] = views.get(i).getBoundsVersion();
+			System.arraycopy(views.get(i).getSceneBoundingSphere(), 0,
+					spheres, i * 4, 4);
+			order[i] = i;
+		}
+
+		int capacity = Math.max(1, 2 * count);
+		nodeBounds = new double[capacity * 6];
+		nodeStart = new int[capacity];
+		nodeCount = new int[capacity];
+		nodes = 0;
+		if (count > 0) {
+			nodes = 1;
+			split(0, 0, count);
+		}
+	}
+
+	/**
+	 * Fills in a node holding a range of the view order, splitting it if it
+	 * holds too many views.
+	 * 
+	 * @param index
+	 *            The node.
+	 * @param first
+	 *            The first view in the range.
+	 * @param last
+	 *            One past the last view in the range.
+	 */
+	private void split(int index, int first, int last) {
+
+		// Bound the spheres, and find the extent of their centers
+		int box = index * 6;
+		double[] centerLow = { Double.MAX_VALUE, Double.MAX_VALUE,
+				Double.MAX_VALUE };
+		double[] centerHigh = { -Double.MAX_VALUE, -Double.MAX_VALUE,
+				-Double.MAX_VALUE };
+		for (int axis = 0; axis < 3; axis++) {
+			nodeBounds[box + axis] = Double.MAX_VALUE;
+			nodeBounds[box + axis + 3] = -Double.MAX_VALUE;
+		}
+		for (int i = first; i < last; i++) {
+			int sphere = order[i] * 4;
+			for (int axis = 0; axis < 3; axis++) {
+				double center = spheres[sphere + axis];
+				double radius = spheres[sphere + 3];
+				nodeBounds[box + axis] = Math.min(nodeBounds[box + axis],
+						center - radius);
+				nodeBounds[box + axis + 3] = Math.max(nodeBounds[box + axis
+						+ 3], center + radius);
+				centerLow[axis] = Math.min(centerLow[axis], center);
+				centerHigh[axis] = Math.max(centerHigh[axis], center);
+			}
+		}
+
+		if (last - first <= MAX_LEAF_SIZE) {
+			nodeStart[index] = first;
+			nodeCount[index] = last - first;
+			return;
+		}
+
+		// Split at the median along the axis the centers spread furthest on
+		int axis = 0;
+		for (int i = 1; i < 3; i++) {
+			if (centerHigh[i] - centerLow[i] > centerHigh[axis]
+					- centerLow[axis]) {
+				axis = i;
+			}
+		}
+		int middle = (first + last) >>> 1;
+		select(first, last - 1, middle, axis);
+
+		int child = nodes;
+		nodes += 2;
+		nodeStart[index] = child;
+		nodeCount[index] = 0;
+		split(child, first, middle);
+		split(child + 1, middle, last);
+	}
+
+	/**
+	 * Reorders a range of the view order so that the view at a given position
+	 * is the one which would be there if the range were sorted by the centers'
+	 * coordinate along an axis, with no view before it greater and none after
+	 * it smaller.
+	 */
+	private void select(int low, int high, int target, int axis) {
+		while (low < high) {
+			double pivot = spheres[order[(low + high) >>> 1] * 4 + axis];
+			int i = low;
+			int j = high;
+			while (i <= j) {
+				while (spheres[order[i] * 4 + axis] < pivot) {
+					i++;
+				}
+				while (spheres[order[j] * 4 + axis] > pivot) {
+					j--;
+				}
+				if (i <= j) {
+					int swap = order[i];
+					order[i] = order[j];
+					order[j] = swap;
+					i++;
+					j--;
+				}
+			}
+			if (target <= j) {
+				high = j;
+			} else if (target >= i) {
+				low = i;
+			} else {
+				return;
+			}
+		}
+	}
+}
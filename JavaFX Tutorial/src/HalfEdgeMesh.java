@@ -0,0 +1,354 @@
+import java.util.Arrays;
+
+/**
+ * The connectivity of a custom Mesh in half-edge form, stored in int arrays so
+ * that adjacency questions, such as which faces share an edge or which
+ * vertices neighbour a vertex, are answered in constant time per step rather
+ * than by scanning the mesh.
+ * 
+ * Each entity of the mesh is a face, and each of its index slots is a
+ * half-edge running from that slot's vertex to the next vertex of the face, so
+ * half-edge h is simply position h of the mesh's entity indices. For every
+ * half-edge the structure records the next and previous half-edges around its
+ * face, its face, and its twin, the half-edge running the other way along the
+ * same edge in a neighbouring face, or -1 on a boundary. Twins are found by
+ * hashing each directed edge once, so building is linear in the size of the
+ * mesh.
+ * 
+ * Edges shared by more than two faces are non-manifold. Only one pair of
+ * their half-edges become twins, and the others are treated as boundaries.
+ * 
+ * The structure reads the mesh's entity indices directly, so it describes the
+ * mesh's topology at the time it was built and must be rebuilt if the
+ * entities change. Vertex positions may change freely.
+ * 
+ * @author Robert Smith
+ *
+ */
+public class HalfEdgeMesh {
+
+	/**
+	 * The vertex each half-edge starts from. This is the mesh's own entity
+	 * index array.
+	 */
+	private final int[] origin;
+
+	/**
+	 * The first half-edge of each face, followed by the number of half-edges.
+	 * This is the mesh's own entity offset array.
+	 */
+	private final int[] faceStart;
+
+	/**
+	 * The next half-edge around each half-edge's face.
+	 */
+	private final int[] next;
+
+	/**
+	 * The previous half-edge around each half-edge's face.
+	 */
+	private final int[] prev;
+
+	/**
+	 * The face holding each half-edge.
+	 */
+	private final int[] face;
+
+	/**
+	 * The opposite half-edge of each half-edge, or -1 if it has none.
+	 */
+	private final int[] twin;
+
+	/**
+	 * A half-edge leaving each vertex, or -1 if the vertex is in no face.
+	 * Where possible this is a half-edge without a twin, so that walking
+	 * around the vertex from it reaches every face of its fan.
+	 */
+	private final int[] vertexHalfEdge;
+
+	/**
+	 * Builds the half-edge structure of a custom mesh.
+	 * 
+	 * @param mesh
+	 *            A custom mesh.
+	 */
+	public HalfEdgeMesh(Mesh mesh) {
+		origin = mesh.getEntityIndices();
+		faceStart = mesh.getEntityOffsets();
+		int faceCount = mesh.getEntityCount();
+		int halfEdgeCount = origin.length;
+
+		// Link the half-edges around each face
+		next = new int[halfEdgeCount];
+		prev = new int[halfEdgeCount];
+		face = new int[halfEdgeCount];
+		for (int f = 0; f < faceCount; f++) {
+			int start = faceStart[f];
+			int end = faceStart[f + 1];
+			for (int h = start; h < end; h++) {
+				next[h] = (h + 1 < end) ? h + 1 : start;
+				prev[h] = (h > start) ? h - 1 : end - 1;
+				face[h] = f;
+			}
+		}
+
+		// Index every directed edge, then pair each half-edge with the one
+		// running the other way
+		LongIntHashMap directed = new LongIntHashMap(halfEdgeCount, -1);
+		for (int h = 0; h < halfEdgeCount; h++) {
+			directed.putIfAbsent(key(origin[h], origin[next[h]]), h);
+		}
+		twin = new int[halfEdgeCount];
+		for (int h = 0; h < halfEdgeCount; h++) {
+			int from = origin[h];
+			int to = origin[next[h]];
+			twin[h] = (from == to) ? -1 : directed.get(key(to, from));
+		}
+
+		// Keep only pairs which agree, so that twin(twin(h)) == h always
+		for (int h = 0; h < halfEdgeCount; h++) {
+			int t = twin[h];
+			if (t >= 0 && (twin[t] != h || directed.get(key(origin[h],
+					origin[next[h]])) != h)) {
+				twin[h] = -1;
+			}
+		}
+
+		// Choose a half-edge leaving each vertex, preferring boundaries
+		vertexHalfEdge = new int[mesh.getVertexCount()];
+		Arrays.fill(vertexHalfEdge, -1);
+		for (int h = 0; h < halfEdgeCount; h++) {
+			int v = origin[h];
+			if (vertexHalfEdge[v] < 0
+					|| (twin[h] < 0 && twin[vertexHalfEdge[v]] >= 0)) {
+				vertexHalfEdge[v] = h;
+			}
+		}
+	}
+
+	/**
+	 * Gets the number of half-edges.
+	 * 
+	 * @return The half-edge count.
+	 */
+	public int getHalfEdgeCount() {
+		return origin.length;
+	}
+
+	/**
+	 * Gets the number of faces.
+	 * 
+	 * @return The face count.
+	 */
+	public int getFaceCount() {
+		return faceStart.length - 1;
+	}
+
+	/**
+	 * Gets the number of vertices.
+	 * 
+	 * @return The vertex count.
+	 */
+	public int getVertexCount() {
+		return vertexHalfEdge.length;
+	}
+
+	/**
+	 * Gets the vertex a half-edge starts from.
+	 * 
+	 * @param halfEdge
+	 *            The half-edge.
+	 * @return The vertex's index in the mesh.
+	 */
+	public int getOrigin(int halfEdge) {
+		return origin[halfEdge];
+	}
+
+	/**
+	 * Gets the vertex a half-edge ends at.
+	 * 
+	 * @param halfEdge
+	 *            The half-edge.
+	 * @return The vertex's index in the mesh.
+	 */
+	public int getTarget(int halfEdge) {
+		return origin[next[halfEdge]];
+	}
+
+	/**
+	 * Gets the next half-edge around a half-edge's face.
+	 * 
+	 * @param halfEdge
+	 *            The half-edge.
+	 * @return The next half-edge.
+	 */
+	public int getNext(int halfEdge) {
+		return next[halfEdge];
+	}
+
+	/**
+	 * Gets the previous half-edge around a half-edge's face.
+	 * 
+	 * @param halfEdge
+	 *            The half-edge.
+	 * @return The previous half-edge.
+	 */
+	public int getPrev(int halfEdge) {
+		return prev[halfEdge];
+	}
+
+	/**
+	 * Gets the half-edge running the other way along the same edge.
+	 * 
+	 * @param halfEdge
+	 *            The half-edge.
+	 * @return The twin half-edge, or -1 if the half-edge is on a boundary.
+	 */
+	public int getTwin(int halfEdge) {
+		return twin[halfEdge];
+	}
+
+	/**
+	 * Gets the face a half-edge belongs to.
+	 * 
+	 * @param halfEdge
+	 *            The half-edge.
+	 * @return The face's index, which is its entity index in the mesh.
+	 */
+	public int getFace(int halfEdge) {
+		return face[halfEdge];
+	}
+
+	/**
+	 * Gets the face on the other side of a half-edge's edge.
+	 * 
+	 * @param halfEdge
+	 *            The half-edge.
+	 * @return The neighbouring face, or -1 if the half-edge is on a boundary.
+	 */
+	public int getAdjacentFace(int halfEdge) {
+		return twin[halfEdge] < 0 ? -1 : face[twin[halfEdge]];
+	}
+
+	/**
+	 * Gets the first half-edge of a face.
+	 * 
+	 * @param face
+	 *            The face.
+	 * @return The half-edge leaving the face's first vertex.
+	 */
+	public int getFaceHalfEdge(int face) {
+		return faceStart[face];
+	}
+
+	/**
+	 * Gets the number of half-edges, and so vertices, around a face.
+	 * 
+	 * @param face
+	 *            The face.
+	 * @return The face's size.
+	 */
+	public int getFaceSize(int face) {
+		return faceStart[face + 1] - faceStart[face];
+	}
+
+	/**
+	 * Gets a half-edge leaving a vertex. If the vertex is on a boundary, the
+	 * half-edge is the first one met when walking around it with
+	 * getNextAroundVertex().
+	 * 
+	 * @param vertex
+	 *            The vertex.
+	 * @return A half-edge starting at the vertex, or -1 if it is in no face.
+	 */
+	public int getVertexHalfEdge(int vertex) {
+		return vertexHalfEdge[vertex];
+	}
+
+	/**
+	 * Gets the next half-edge leaving the same vertex, turning in the same
+	 * direction as the faces' vertices are ordered.
+	 * 
+	 * @param halfEdge
+	 *            A half-edge leaving the vertex.
+	 * @return The next half-edge leaving the vertex, or -1 if a boundary has
+	 *         been reached.
+	 */
+	public int getNextAroundVertex(int halfEdge) {
+		return twin[prev[halfEdge]];
+	}
+
+	/**
+	 * Checks whether a half-edge is on a boundary of the mesh.
+	 * 
+	 * @param halfEdge
+	 *            The half-edge.
+	 * @return True if no other face shares the half-edge's edge, false
+	 *         otherwise.
+	 */
+	public boolean isBoundary(int halfEdge) {
+		return twin[halfEdge] < 0;
+	}
+
+	/**
+	 * Checks whether a vertex is on a boundary of the mesh.
+	 * 
+	 * @param vertex
+	 *            The vertex.
+	 * @return True if the vertex is on a boundary or in no face, false
+	 *         otherwise.
+	 */
+	public boolean isBoundaryVertex(int vertex) {
+		int h = vertexHalfEdge[vertex];
+		return h < 0 || twin[h] < 0;
+	}
+
+	/**
+	 * Finds the vertices joined to a vertex by an edge, by walking around it.
+	 * For a non-manifold vertex, only the fan of faces reachable from
+	 * getVertexHalfEdge() is visited.
+	 * 
+	 * @param vertex
+	 *            The vertex.
+	 * @param neighbors
+	 *            The array to fill with the neighbours' indices. If it is too
+	 *            small, the extra neighbours are counted but not stored.
+	 * @return The number of neighbours.
+	 */
+	public int getNeighbors(int vertex, int[] neighbors) {
+		int start = vertexHalfEdge[vertex];
+		if (start < 0) {
+			return 0;
+		}
+
+		int count = 0;
+		int h = start;
+		do {
+			if (count < neighbors.length) {
+				neighbors[count] = getTarget(h);
+			}
+			count++;
+
+			// At a boundary, the last neighbour is at the start of the
+			// previous half-edge, which has no twin to walk on from
+			int following = getNextAroundVertex(h);
+			if (following < 0) {
+				if (count < neighbors.length) {
+					neighbors[count] = origin[prev[h]];
+				}
+				count++;
+				break;
+			}
+			h = following;
+		} while (h != start);
+
+		return count;
+	}
+
+	/**
+	 * Packs a directed edge into a single key.
+	 */
+	private static long key(int from, int to) {
+		return ((long) from << 32) | (to & 0xffffffffL);
+	}
+}
@@ -0,0 +1,20 @@
+/**
+ * An interface for objects which are told when the vertices of a Mesh change,
+ * whether through the mesh itself, through the Vertex objects of its vertex
+ * view, or through the component the mesh was built for.
+ * 
+ * @author Robert Smith
+ *
+ */
+public interface IMeshListener {
+
+	/**
+	 * Called after vertices of the mesh have been moved or replaced. This is
+	 * called on the thread which changed the mesh, so implementations should
+	 * only note the change and return quickly.
+	 * 
+	 * @param mesh
+	 *            The mesh which changed.
+	 */
+	public void meshChanged(Mesh mesh);
+}
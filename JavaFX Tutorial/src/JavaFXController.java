@@ -1,3 +1,4 @@
+import javafx.scene.PerspectiveCamera;
 
 /**
  * A concrete implementation for AbstractController for use with JavaFX.
@@ -31,8 +32,11 @@ public class JavaFXController extends AbstractController{
 	 */
 	@Override
 	public void update(IVizUpdateable component) {
-		// TODO Auto-generated method stub
-		
+
+		// Have the view catch up with the model on the next pulse
+		if(view instanceof AbstractJavaFXView){
+			((AbstractJavaFXView) view).requestUpdate();
+		}
 	}
 	
 	/*
@@ -42,6 +46,35 @@ public class JavaFXController extends AbstractController{
 	public Transformation getTransform(){
 		return view.getTransform();
 	}
+
+	/**
+	 * Brings the view up to date for the next frame, picking up any published
+	 * positions and choosing its level of detail. Views not drawn in JavaFX
+	 * are left alone.
+	 * 
+	 * @param camera The camera the scene is viewed through.
+	 * @param viewportWidth The width of the view port, in pixels.
+	 * @param viewportHeight The height of the view port, in pixels.
+	 */
+	public void pulse(PerspectiveCamera camera, double viewportWidth,
+			double viewportHeight){
+		if(view instanceof AbstractJavaFXView){
+			((AbstractJavaFXView) view).pulse(camera, viewportWidth,
+					viewportHeight);
+		}
+	}
+
+	/**
+	 * Adds the view to a frustum culler, so that it is hidden while outside
+	 * the camera's view. Views which are not drawn in JavaFX are left alone.
+	 * 
+	 * @param culler The culler to add the view to.
+	 */
+	public void addToCuller(FrustumCuller culler){
+		if(view instanceof AbstractJavaFXView){
+			culler.add((AbstractJavaFXView) view);
+		}
+	}
 	
 
 }
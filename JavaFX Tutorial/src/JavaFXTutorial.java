@@ -31,9 +31,11 @@
  */
 
 import java.lang.reflect.Array;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.HashMap;
 
+import javafx.animation.AnimationTimer;
 import javafx.application.Application;
 import javafx.scene.*;
 import javafx.scene.paint.Color;
@@ -43,9 +45,12 @@ import javafx.scene.shape.Box;
 import javafx.scene.shape.CullFace;
 import javafx.scene.shape.Cylinder;
 import javafx.scene.shape.MeshView;
+import javafx.scene.shape.Shape3D;
 import javafx.scene.shape.Sphere;
 import javafx.scene.shape.TriangleMesh;
+import javafx.geometry.Point3D;
 import javafx.scene.transform.Rotate;
+import javafx.scene.transform.Transform;
 import javafx.scene.transform.Translate;
 import javafx.event.EventHandler;
 import javafx.scene.input.KeyEvent;
@@ -72,13 +77,14 @@ public class JavaFXTutorial extends Application implements
 	private static final double CAMERA_FAR_CLIP = 10000.0;
 	private static final double AXIS_LENGTH = 250.0;
 	private static final double HYDROGEN_ANGLE = 104.5;
+	private static final String TITLE = "Molecule Sample Application";
 	final double CONTROL_MULTIPLIER = 0.1;
 	final double SHIFT_MULTIPLIER = 10.0;
 	final double MOUSE_SPEED = 0.1;
 	final double ROTATION_SPEED = 2.0;
 	final double TRACK_SPEED = 0.3;
-	TriangleMesh tri;
-	ArrayList<Cylinder> triV;
+	Xform tri;
+	Xform triV;
 	JavaFXController controller;
 	JavaFXController controllerV;
 	JavaFXController controllerS;
@@ -209,7 +215,7 @@ public class JavaFXTutorial extends Application implements
 		// world.getChildren().addAll(moleculeGroup);
 	}
 
-	private void handleMouse(Scene scene, final Node root) {
+	private void handleMouse(final Scene scene, final Node root) {
 
 		scene.setOnMousePressed(new EventHandler<MouseEvent>() {
 			@Override
@@ -257,8 +263,77 @@ public class JavaFXTutorial extends Application implements
 				}
 			}
 		}); // setOnMouseDragged
+		scene.setOnMouseClicked(new EventHandler<MouseEvent>() {
+			@Override
+			public void handle(MouseEvent me) {
+
+				// Only treat clicks without a drag as picks
+				if (me.isStillSincePress()) {
+					pick(scene, me.getSceneX(), me.getSceneY());
+				}
+			}
+		}); // setOnMouseClicked
 	} // handleMouse
 
+	/**
+	 * Finds the component under a point on the screen by casting a ray from
+	 * the camera through it and picking each controller's view. The pick is
+	 * shown in the window's title.
+	 * 
+	 * @param scene
+	 *            The scene which was clicked.
+	 * @param sceneX
+	 *            The point's x coordinate in the scene.
+	 * @param sceneY
+	 *            The point's y coordinate in the scene.
+	 */
+	private void pick(Scene scene, double sceneX, double sceneY) {
+
+		// Find the ray's direction in the camera's coordinates, where the
+		// camera looks down the z axis and y points down the screen
+		double aspect = scene.getWidth() / scene.getHeight();
+		double tangent = Math.tan(Math.toRadians(camera.getFieldOfView() / 2));
+		double x = (2 * sceneX / scene.getWidth() - 1) * tangent;
+		double y = (2 * sceneY / scene.getHeight() - 1) * tangent;
+		if (camera.isVerticalFieldOfView()) {
+			x *= aspect;
+		} else {
+			y /= aspect;
+		}
+
+		// Move the ray into the coordinates of the root, which hold the views
+		Transform toScene = camera.getLocalToSceneTransform();
+		Point3D origin = toScene.transform(0, 0, 0);
+		Point3D direction = toScene.deltaTransform(x, y, 1);
+		double[] rayOrigin = { origin.getX(), origin.getY(), origin.getZ() };
+		double[] rayDirection = { direction.getX(), direction.getY(),
+				direction.getZ() };
+
+		// Keep the nearest hit
+		JavaFXController[] controllers = { controller, controllerV,
+				controllerS };
+		String[] names = { "mesh", "volumetric mesh", "sphere" };
+		double[] distance = new double[1];
+		double nearest = Double.POSITIVE_INFINITY;
+		String picked = null;
+		int pickedTriangle = -1;
+		for (int i = 0; i < controllers.length; i++) {
+			int triangle = controllers[i].pick(rayOrigin, rayDirection,
+					distance);
+			if (triangle >= 0 && distance[0] < nearest) {
+				nearest = distance[0];
+				picked = names[i];
+				pickedTriangle = triangle;
+			}
+		}
+
+		if (scene.getWindow() instanceof Stage) {
+			((Stage) scene.getWindow()).setTitle((picked != null) ? TITLE
+					+ " - Picked the " + picked + " at triangle "
+					+ pickedTriangle : TITLE);
+		}
+	}
+
 	private void handleKeyboard(Scene scene, final Node root) {
 
 		scene.setOnKeyPressed(new EventHandler<KeyEvent>() {
@@ -330,9 +405,15 @@ public class JavaFXTutorial extends Application implements
 
 		root.getChildren().add(world);
 
+		// Keep converted meshes between runs so they need not be triangulated
+		// again, in a directory only the user can write to
+		JavaFXView.setCache(new TriangleMeshCache(Paths.get(
+				System.getProperty("user.home"), ".cache", "MeshPrototypeCache")));
+
 		// Create the two kinds of factories
 		IViewControllerFactory factory = new JavaFXViewControllerFactory();
-		IViewControllerFactory factoryV = new JavaFXVolumetricViewControllerFactory();
+		IViewControllerFactory factoryV = new JavaFXVolumetricViewControllerFactory(
+				true);
 
 		// Create the vertices for the first face
 		ArrayList<Vertex> vertices = new ArrayList<Vertex>();
@@ -459,33 +540,27 @@ public class JavaFXTutorial extends Application implements
 
 		// Get the TriangleMesh representation of the model and add it to the
 		// scene.
-		tri = (TriangleMesh) controller.getRepresentation();
-		MeshView triView = new MeshView(tri);
+		tri = (Xform) controller.getRepresentation();
 
 		final PhongMaterial purpleMaterial = new PhongMaterial();
 		purpleMaterial.setDiffuseColor(Color.BLUEVIOLET);
 		purpleMaterial.setSpecularColor(Color.DARKGREY);
-		triView.setMaterial(purpleMaterial);
+		setMaterial(tri, purpleMaterial);
 
-		root.getChildren().add(triView);
+		root.getChildren().add(tri);
 
-		// Get the cylinder representation of the edges of the mesh.
-		triV = (ArrayList<Cylinder>) controllerV.getRepresentation();
+		// Get the tube representation of the edges of the mesh.
+		triV = (Xform) controllerV.getRepresentation();
 
 		// Create a transformation for translating a view 150 units in the X
-		// direction and apply it to the volumetric representation
+		// direction and apply it to the volumetric representation. The view
+		// moves its whole representation at once.
 		Transformation transform = new Transformation();
 		transform.setTranslation(150, 0, 0);
 		controllerV.setTransform(transform);
 
-		// Apply the transformation and add the edges to the scene
-		for (Cylinder edge : triV) {
-			Transformation shapeTransform = controllerV.getTransform();
-			edge.setTranslateX(edge.getTranslateX()
-					+ shapeTransform.getTranslation()[0]);
-
-			root.getChildren().add(edge);
-		}
+		// Add the edges to the scene
+		root.getChildren().add(triV);
 
 		// Create a transformation for translating a view 150 units in the
 		// negative x axis direction and apply it to the sphere
@@ -493,17 +568,50 @@ public class JavaFXTutorial extends Application implements
 		transformS.setTranslation(-150f, 0, 0);
 		controllerS.setTransform(transformS);
 
-		Sphere sphereView = (Sphere) controllerS.getRepresentation();
-		sphereView.setMaterial(purpleMaterial);
-		sphereView
-				.setTranslateX(controllerS.getTransform().getTranslation()[0]);
+		Xform sphereView = (Xform) controllerS.getRepresentation();
+		setMaterial(sphereView, purpleMaterial);
 		root.getChildren().add(sphereView);
 
-		primaryStage.setTitle("Molecule Sample Application");
+		primaryStage.setTitle(TITLE);
 		primaryStage.setScene(scene);
 		primaryStage.show();
 		scene.setCamera(camera);
 
+		// Hide the views outside the camera's view
+		final FrustumCuller culler = new FrustumCuller(camera);
+		controller.addToCuller(culler);
+		controllerV.addToCuller(culler);
+		controllerS.addToCuller(culler);
+
+		// Bring each view up to date once per pulse, then cull them with the
+		// bounds they were just given
+		new AnimationTimer() {
+			@Override
+			public void handle(long now) {
+				controller.pulse(camera, scene.getWidth(), scene.getHeight());
+				controllerV.pulse(camera, scene.getWidth(), scene.getHeight());
+				controllerS.pulse(camera, scene.getWidth(), scene.getHeight());
+				culler.update(scene.getWidth(), scene.getHeight());
+			}
+		}.start();
+	}
+
+	/**
+	 * Applies a material to every shape under a node.
+	 * 
+	 * @param node
+	 *            The node holding the shapes.
+	 * @param material
+	 *            The material to apply.
+	 */
+	private void setMaterial(Node node, PhongMaterial material) {
+		if (node instanceof Shape3D) {
+			((Shape3D) node).setMaterial(material);
+		} else if (node instanceof Parent) {
+			for (Node child : ((Parent) node).getChildrenUnmodifiable()) {
+				setMaterial(child, material);
+			}
+		}
 	}
 
 	/**
@@ -520,23 +628,12 @@ public class JavaFXTutorial extends Application implements
 	}
 
 	/**
-	 * When an update is received, redraw the movable part of the image.
+	 * When an update is received, redraw the movable part of the image. The
+	 * views already apply their transformations to their own representations,
+	 * so nothing needs to be moved here.
 	 */
 	@Override
 	public void update(IVizUpdateable updateable) {
-		JavaFXController controller = (JavaFXController) updateable;
-		// If the previous transformation is null, the transformation is being
-		// set for the first time and doesn't need to be updated.
-		if (controller.getPreviousTransform() != null) {
-			//Apply the difference between the current and previous translations to the edges.
-			for (Cylinder edge : triV) {
-				edge.setTranslateZ(edge.getTranslateZ()
-						- controller.getPreviousTransform().getTranslation()[2]
-						+ controllerV.getTransform().getTranslation()[2]);
-				edge.setTranslateX(edge.getTranslateX()
-						- controller.getPreviousTransform().getTranslation()[0]
-						+ controllerV.getTransform().getTranslation()[0]);
-			}
-		}
+		return;
 	}
 }
\ No newline at end of file
@@ -1,7 +1,14 @@
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.BitSet;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
 
+import javafx.collections.ObservableFloatArray;
+import javafx.scene.paint.Material;
+import javafx.scene.paint.PhongMaterial;
+import javafx.scene.shape.MeshView;
 import javafx.scene.shape.Sphere;
 import javafx.scene.shape.TriangleMesh;
 
@@ -9,17 +16,185 @@ import javafx.scene.shape.TriangleMesh;
  * An implementation of AbstractView specific to non-volumentric parts rendered
  * in JavaFX. It allows for arbitrary meshes or spheres. It expects as input an
  * IReactorComponent which models its data as instances of the Polygon class.
+ * The mesh or sphere is held under the view's Xform.
+ * 
+ * Spheres are drawn at several levels of detail, each with fewer divisions
+ * than the last. Large custom meshes belonging to a PlantComponent are
+ * simplified in the background, and the simplified meshes become coarser
+ * levels of detail once they are ready.
+ * 
+ * The view listens to its mesh for changes. When vertices of a custom mesh
+ * move, only the runs of the TriangleMesh's points holding them are copied
+ * from the mesh, and the bounding sphere is grown to take them in. The
+ * simplified levels no longer match the mesh, so they are removed, and the
+ * mesh is held at full detail until its vertices have stayed still for a
+ * number of pulses. Only then is it simplified again in the background, so
+ * a mesh moved on every pulse, such as by a running simulation, is not
+ * simplified over and over. If the mesh's vertices are replaced outright, it
+ * is converted again from scratch.
+ * 
+ * If the mesh has a PositionBuffer, the latest frame published through it is
+ * copied into the TriangleMesh on each pulse, and the bounding sphere is
+ * fitted to it. Frames are acquired through the mesh, so that several views
+ * of one mesh each draw every frame. The simplified levels do not follow the
+ * frames, so the mesh is held at full detail while it has a buffer.
+ * 
+ * A custom mesh can also be colored by one of its scalar fields. Each vertex
+ * is given a texture coordinate along a colormap texture, and each triangle
+ * corner uses the texture coordinate with the same index as its point, so
+ * that when the field changes only the texture coordinates are rewritten.
+ * The simplified levels carry no field, so the mesh is held at full detail
+ * while a field is shown.
+ * 
+ * A quantized mesh is dequantized straight into the TriangleMesh's points a
+ * block at a time, so the view never holds a float copy of the whole mesh
+ * beside the points themselves.
+ * 
+ * If a TriangleMeshCache has been set, a custom mesh's converted arrays are
+ * loaded from it when the same mesh has been converted before, and stored in
+ * it otherwise, so that meshes are only triangulated the first time they are
+ * seen.
  * 
  * @author Robert Smith
  *
  */
-public class JavaFXView extends AbstractView {
+public class JavaFXView extends AbstractJavaFXView {
 	TriangleMesh mesh;
 
 	Sphere sphere;
 
 	String type;
 
+	/**
+	 * The component's mesh.
+	 */
+	Mesh rawMesh;
+
+	/**
+	 * The hierarchy used to pick a custom mesh, built the first time it is
+	 * needed.
+	 */
+	MeshBVH bvh;
+
+	/**
+	 * The number of the last frame copied from the mesh's PositionBuffer.
+	 */
+	private int drawnFrame;
+
+	/**
+	 * Whether the TriangleMesh's points hold a frame rather than the mesh's
+	 * own positions.
+	 */
+	private boolean framed;
+
+	/**
+	 * Whether the mesh had a PositionBuffer at the last pulse.
+	 */
+	private boolean buffered;
+
+	/**
+	 * The name of the scalar field being shown, or null if there is none.
+	 */
+	private String field;
+
+	/**
+	 * The field values drawn at the low and high ends of the colormap.
+	 */
+	private double fieldMin;
+	private double fieldMax;
+
+	/**
+	 * The mesh's scalar field version when the texture coordinates were last
+	 * written.
+	 */
+	private int fieldVersion;
+
+	/**
+	 * The texture coordinate of each vertex, reused on every update.
+	 */
+	private float[] fieldTexCoords;
+
+	/**
+	 * The full detail mesh's material from before a field was shown.
+	 */
+	private Material plainMaterial;
+
+	/**
+	 * The number of triangles below which a custom mesh is always drawn at
+	 * full detail.
+	 */
+	private static final int SIMPLIFY_TRIANGLES = 1000;
+
+	/**
+	 * The divisions of the sphere at each level of detail.
+	 */
+	private static final int[] SPHERE_DIVISIONS = { 64, 32, 16, 8 };
+
+	/**
+	 * The number of unchanged vertices between two runs of moved vertices
+	 * below which the runs are copied as one.
+	 */
+	private static final int MERGE_GAP = 8;
+
+	/**
+	 * The number of pulses the mesh must go unmoved before its coarser levels
+	 * are simplified again.
+	 */
+	private static final int SETTLE_PULSES = 30;
+
+	/**
+	 * The texture coordinate u at the center of the colormap's first pixel.
+	 * Fields are drawn between the centers of the end pixels, so that the
+	 * ends of the colormap are not blended with the texture's border.
+	 */
+	private static final float FIELD_LOW_U = .5f / Colormap.DEFAULT_WIDTH;
+
+	/**
+	 * The number of vertices of a quantized mesh dequantized at a time.
+	 */
+	private static final int UPLOAD_BLOCK = 4096;
+
+	/**
+	 * The cache of converted custom meshes, or null if there is none.
+	 */
+	private static volatile TriangleMeshCache cache;
+
+	/**
+	 * The coarser levels of the custom mesh, converted in the background.
+	 * This is null once they have been added to the view, or if there are
+	 * none.
+	 */
+	private CompletableFuture<List<TriangleMesh>> pendingLevels;
+
+	/**
+	 * The component whose mesh is simplified into coarser levels, or null if
+	 * the mesh is always drawn at full detail.
+	 */
+	private PlantComponent simplifiedComponent;
+
+	/**
+	 * Whether the mesh has moved since the coarser levels were requested, so
+	 * that they must be requested again once it settles.
+	 */
+	private boolean levelsStale;
+
+	/**
+	 * The mesh's position version at the last pulse while the levels were
+	 * stale.
+	 */
+	private int settlingVersion;
+
+	/**
+	 * The number of pulses in a row for which the position version has not
+	 * changed while the levels were stale.
+	 */
+	private int stillPulses;
+
+	/**
+	 * The mesh's topology version when it was converted.
+	 */
+	private int topologyVersion;
+
 	/**
 	 * Creates a JavaFX representation for the given component.
 	 * 
@@ -28,93 +203,467 @@ public class JavaFXView extends AbstractView {
 	 */
 	public JavaFXView(IReactorComponent component) {
 		super("Test View");
-		transform = new Transformation();
-		previousTransform = null;
-		Mesh rawMesh = component.getMesh();
+		rawMesh = component.getMesh();
 		type = rawMesh.getType();
 
 		// Create a triangle mesh for a custom type mesh
 		if (type == "custom") {
-			ArrayList<Vertex> originalVertices = (ArrayList<Vertex>) rawMesh
-					.getVertices();
-			ArrayList<Float> vertices = new ArrayList<Float>();
-
-			// Convert the vertices into tuples of floats
-			for (Vertex currentVertex : originalVertices) {
-				float[] currentCoordinates = currentVertex.getLocation();
-				for (float coordinate : currentCoordinates) {
-					vertices.add(coordinate);
+			mesh = new TriangleMesh();
+			topologyVersion = rawMesh.getTopologyVersion();
+			rawMesh.register(new IMeshListener() {
+				@Override
+				public void meshChanged(Mesh changed) {
+					requestUpdate();
+				}
+			});
+
+			// Load the converted arrays if the mesh has been seen before, and
+			// otherwise convert it and store them. The cache is only an
+			// optimization, so the mesh is converted as usual if it fails.
+			TriangleMeshCache meshCache = cache;
+			String fingerprint = null;
+			boolean loaded = false;
+			if (meshCache != null) {
+				fingerprint = TriangleMeshCache.fingerprint(rawMesh);
+				try {
+					loaded = meshCache.load(fingerprint, mesh);
+				} catch (IOException e) {
+					loaded = false;
 				}
 			}
+			if (!loaded) {
+				convert();
+				if (meshCache != null) {
+					try {
+						meshCache.store(fingerprint, mesh);
+					} catch (IOException e) {
+						// The mesh will simply be converted again next time
+					}
+				}
+			}
+			addLevel(new MeshView(mesh));
+			if (rawMesh.isQuantized()) {
+				setQuantizedBoundingSphere();
+			} else {
+				setBoundingSphere(rawMesh.getPositions(), 0);
+			}
 
-			// Assume all entities are specified as convex polygons. Create a
-			// triangle from vertex 0 for each other pair of adjacent vertices.
-			// TODO Switch to ear clipping algorithm to allow for all simple
-			// polygons.
-			ArrayList<Integer> entities = new ArrayList<Integer>();
-			for (List<Integer> face : rawMesh.getEntities()) {
-				for (int i = 2; i < face.size(); i++) {
-					entities.add(face.get(0));
-					entities.add(0);
-					entities.add(face.get(i - 1));
-					entities.add(0);
-					entities.add(face.get(i));
-					entities.add(0);
+			// Simplify large meshes in the background
+			if (component instanceof PlantComponent
+					&& mesh.getFaces().size() / 6 >= SIMPLIFY_TRIANGLES) {
+				simplifiedComponent = (PlantComponent) component;
+				requestLevels();
+			}
+
+			// For spheres, create a sphere at each level of detail, getting
+			// the radius from the mesh
+		} else if (type == "sphere") {
+			double radius = component.getMesh().getProperty("radius");
+			for (int divisions : SPHERE_DIVISIONS) {
+				Sphere level = new Sphere(radius, divisions);
+				if (sphere == null) {
+					sphere = level;
 				}
+				addLevel(level);
 			}
+			setBoundingSphere(0, 0, 0, radius);
+		}
 
-			mesh = new TriangleMesh();
+	}
+
+	/**
+	 * Sets the cache in which the converted arrays of custom meshes are kept
+	 * between runs. It applies to views created afterwards.
+	 * 
+	 * @param cache
+	 *            The cache, or null to convert every mesh afresh.
+	 */
+	public static void setCache(TriangleMeshCache cache) {
+		JavaFXView.cache = cache;
+	}
+
+	/**
+	 * Converts the custom mesh into the TriangleMesh's points, texture
+	 * coordinates and faces.
+	 */
+	private void convert() {
 
-			// Convert vertices into array and add them to the mesh.
-			float[] points = new float[vertices.size()];
-			for (int i = 0; i < vertices.size(); i++) {
-				points[i] = vertices.get(i);
+		// The packed positions are already laid out as TriangleMesh points.
+		if (rawMesh.isQuantized()) {
+			uploadQuantized();
+		} else {
+			mesh.getPoints().setAll(rawMesh.getPositions());
+		}
+
+		// Do not apply a texture, instead add a single dummy coordinate.
+		mesh.getTexCoords().setAll(0, 0);
+
+		// Triangulate the entities in parallel and add them to the mesh.
+		mesh.getFaces().setAll(new TriangleMeshConverter()
+				.convertFaces(rawMesh));
+	}
+
+	/**
+	 * Asks the component for the mesh's levels of detail, which are converted
+	 * in the background and added by prepareLevels() once they are ready.
+	 */
+	private void requestLevels() {
+		pendingLevels = simplifiedComponent.getLevelsOfDetail(
+				new MeshSimplifier()).thenApply(
+				new Function<List<Mesh>, List<TriangleMesh>>() {
+					@Override
+					public List<TriangleMesh> apply(List<Mesh> levels) {
+						return convertLevels(levels);
+					}
+				});
+	}
+
+	/**
+	 * Dequantizes the quantized mesh's positions into the TriangleMesh's
+	 * points, one block of vertices at a time.
+	 */
+	private void uploadQuantized() {
+		int vertexCount = rawMesh.getVertexCount();
+		ObservableFloatArray points = mesh.getPoints();
+		points.resize(vertexCount * 3);
+		float[] block = new float[Math.min(UPLOAD_BLOCK, vertexCount) * 3];
+		for (int first = 0; first < vertexCount; first += UPLOAD_BLOCK) {
+			int count = Math.min(UPLOAD_BLOCK, vertexCount - first);
+			rawMesh.copyPositions(first, count, block);
+			points.set(first * 3, block, 0, count * 3);
+		}
+	}
+
+	/**
+	 * Sets the bounding sphere to enclose the quantized mesh's bounding box,
+	 * without reading its positions.
+	 */
+	private void setQuantizedBoundingSphere() {
+		float[] origin = rawMesh.getQuantizationOrigin();
+		float[] scale = rawMesh.getQuantizationScale();
+		double x = scale[0] * (double) Mesh.QUANTIZATION_STEPS;
+		double y = scale[1] * (double) Mesh.QUANTIZATION_STEPS;
+		double z = scale[2] * (double) Mesh.QUANTIZATION_STEPS;
+		setBoundingSphere(origin[0] + x / 2, origin[1] + y / 2, origin[2] + z
+				/ 2, Math.sqrt(x * x + y * y + z * z) / 2);
+	}
+
+	/**
+	 * Copies the vertices moved since the last update into the TriangleMesh,
+	 * one run of neighbouring vertices at a time, growing the bounding sphere
+	 * around them and replacing the coarser levels. A mesh whose vertices
+	 * have been replaced is converted again instead.
+	 */
+	@Override
+	protected void updateNodes() {
+		if (type != "custom") {
+			return;
+		}
+		if (rawMesh.getTopologyVersion() != topologyVersion) {
+			reconvert();
+			return;
+		}
+		BitSet changed = rawMesh.takeChangedVertices();
+		if (changed.isEmpty()) {
+			return;
+		}
+
+		float[] positions = rawMesh.getPositions();
+		ObservableFloatArray points = mesh.getPoints();
+		int start = changed.nextSetBit(0);
+		while (start >= 0) {
+
+			// Extend the run over any short gaps
+			int end = changed.nextClearBit(start);
+			int next = changed.nextSetBit(end);
+			while (next >= 0 && next - end < MERGE_GAP) {
+				end = changed.nextClearBit(next);
+				next = changed.nextSetBit(end);
 			}
-			mesh.getPoints().addAll(points);
+			points.set(start * 3, positions, start * 3, (end - start) * 3);
+			start = next;
+		}
+		for (int i = changed.nextSetBit(0); i >= 0; i = changed
+				.nextSetBit(i + 1)) {
+			growBoundingSphere(positions[i * 3], positions[i * 3 + 1],
+					positions[i * 3 + 2]);
+		}
+
+		// The picking hierarchy and the coarser levels no longer fit the mesh
+		bvh = null;
+		invalidateLevels();
+	}
 
-			// Do not apply a texture, instead add a single dummy coordinate.
-			float[] texCoords = { 0, 0 };
-			mesh.getTexCoords().addAll(texCoords);
+	/**
+	 * Converts the mesh again after its vertices have been replaced. Any
+	 * scalar field is hidden, as the mesh no longer has it.
+	 */
+	private void reconvert() {
+		hideScalarField();
+		topologyVersion = rawMesh.getTopologyVersion();
+		rawMesh.takeChangedVertices();
+		convert();
+		setBoundingSphere(rawMesh.getPositions(), 0);
+		framed = false;
+		bvh = null;
+		invalidateLevels();
+	}
+
+	/**
+	 * Removes the coarser levels, which no longer match the mesh, and holds
+	 * the mesh at full detail until they are simplified again.
+	 */
+	private void invalidateLevels() {
+		if (simplifiedComponent != null) {
+			removeLevels(1);
+			levelsStale = true;
+			stillPulses = 0;
+			settlingVersion = rawMesh.getPositionVersion();
+			limitLevels();
+		}
+	}
+
+	/**
+	 * Holds the mesh at full detail while the coarser levels are stale, a
+	 * scalar field is shown or frames are drawn from a PositionBuffer, and
+	 * otherwise lets any level be shown.
+	 */
+	private void limitLevels() {
+		setCoarsestLevel((levelsStale || field != null || buffered) ? 0
+				: Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Colors the custom mesh by one of its scalar fields, mapping each
+	 * vertex's value through a colormap. Later changes to the field are drawn
+	 * on the next pulse.
+	 * 
+	 * @param name
+	 *            The name of the mesh's scalar field.
+	 * @param colormap
+	 *            The colormap to draw the field with.
+	 * @param min
+	 *            The value drawn at the low end of the colormap.
+	 * @param max
+	 *            The value drawn at the high end of the colormap.
+	 */
+	public void showScalarField(String name, Colormap colormap, double min,
+			double max) {
+		if (type != "custom") {
+			return;
+		}
 
-			// Convert entities into an array and add them to the mesh.
-			int[] faces = new int[entities.size()];
-			for (int i = 0; i < entities.size(); i++) {
-				faces[i] = entities.get(i);
+		// Point each corner at its vertex's texture coordinate, once. Until
+		// the field has values, every vertex is drawn at the low end of the
+		// colormap, so the faces never refer past the texture coordinates.
+		if (field == null) {
+			int[] faces = mesh.getFaces().toArray(null);
+			fieldTexCoords = new float[rawMesh.getVertexCount() * 2];
+			for (int i = 0; i < fieldTexCoords.length; i += 2) {
+				fieldTexCoords[i] = FIELD_LOW_U;
+				fieldTexCoords[i + 1] = .5f;
 			}
-			mesh.getFaces().addAll(faces);
+			mesh.getTexCoords().setAll(fieldTexCoords);
+			mesh.getFaces().setAll(
+					TriangleMeshConverter.indexTexCoordsByPoint(faces));
+			plainMaterial = ((MeshView) getLevel(0)).getMaterial();
+		}
 
-			// For spheres, create a sphere, getting the radius from the mesh
-		} else if (type == "sphere") {
-			sphere = new Sphere(component.getMesh().getProperty("radius"));
+		PhongMaterial material = new PhongMaterial();
+		material.setDiffuseMap(colormap.createImage(Colormap.DEFAULT_WIDTH));
+		((MeshView) getLevel(0)).setMaterial(material);
+
+		field = name;
+		limitLevels();
+		fieldMin = min;
+		fieldMax = max;
+		fieldVersion = rawMesh.getScalarFieldVersion() - 1;
+		updateTexCoords();
+	}
+
+	/**
+	 * Stops coloring the mesh by a scalar field, restoring its material and
+	 * levels of detail.
+	 */
+	public void hideScalarField() {
+		if (field == null) {
+			return;
+		}
+		((MeshView) getLevel(0)).setMaterial(plainMaterial);
+		field = null;
+		limitLevels();
+	}
+
+	/**
+	 * Rewrites the texture coordinates from the shown scalar field, if it has
+	 * changed since they were last written.
+	 */
+	private void updateTexCoords() {
+		int version = rawMesh.getScalarFieldVersion();
+		if (version == fieldVersion) {
+			return;
+		}
+		fieldVersion = version;
+		float[] values = rawMesh.getScalarField(field);
+		if (values == null || values.length * 2 != fieldTexCoords.length) {
+			return;
 		}
 
+		float low = FIELD_LOW_U;
+		float range = 1f - 2f * low;
+		double scale = (fieldMax > fieldMin) ? 1.0 / (fieldMax - fieldMin) : 0;
+		for (int i = 0; i < values.length; i++) {
+			double u = (values[i] - fieldMin) * scale;
+			u = (u > 0) ? Math.min(u, 1) : 0;
+			fieldTexCoords[i * 2] = low + range * (float) u;
+			fieldTexCoords[i * 2 + 1] = .5f;
+		}
+		ObservableFloatArray texCoords = mesh.getTexCoords();
+		if (texCoords.size() == fieldTexCoords.length) {
+			texCoords.set(0, fieldTexCoords, 0, fieldTexCoords.length);
+		} else {
+			texCoords.setAll(fieldTexCoords);
+		}
 	}
 
 	/**
-	 * 	Return the apprioriate object holding the JavaFX representation, based on
-	 * the component's type.
+	 * Redraws the shown scalar field if it has changed, then copies the latest
+	 * frame published through the mesh's PositionBuffer, if there is a new
+	 * one, into the TriangleMesh, fitting the bounding sphere to it.
 	 */
 	@Override
-	public Object getRepresentation() {
-		if (type == "custom") {
-			return mesh;
-		} else if (type == "sphere") {
-			return sphere;
+	protected void updateFrame() {
+		if (type != "custom") {
+			return;
+		}
+		if (field != null) {
+			updateTexCoords();
 		}
-		return null;
+		PositionBuffer buffer = rawMesh.getPositionBuffer();
+		if (buffered != (buffer != null)) {
+			buffered = (buffer != null);
+			limitLevels();
+		}
+		if (buffer == null || buffer.getLength() != mesh.getPoints().size()) {
+			return;
+		}
+		int number = rawMesh.acquireFrame();
+		if (number == drawnFrame) {
+			return;
+		}
+		drawnFrame = number;
+
+		// Another view of the mesh may acquire a newer frame into the front
+		// buffer later in the pulse, so take all that is needed from it now
+		float[] frame = buffer.getFrontBuffer();
+		mesh.getPoints().set(0, frame, 0, frame.length);
+		setBoundingSphere(frame, 0);
+		framed = true;
+		bvh = null;
 	}
 
 	/**
-	 * Getter for the view's transformation.
+	 * Adds the simplified meshes as levels of detail once they are ready,
+	 * drawing them with the full detail mesh's material. Levels simplified
+	 * from a mesh which has since moved are dropped. New ones are only
+	 * requested once the mesh has gone unmoved for SETTLE_PULSES pulses and
+	 * no simplification is still running.
 	 */
-	public Transformation getTransform() {
-		return transform;
+	@Override
+	protected void prepareLevels() {
+		if (pendingLevels != null && pendingLevels.isDone()) {
+
+			// Leave the mesh at full detail if it could not be simplified
+			CompletableFuture<List<TriangleMesh>> finished = pendingLevels;
+			pendingLevels = null;
+			if (!levelsStale && !finished.isCompletedExceptionally()) {
+				MeshView fullDetail = (MeshView) getLevel(0);
+				for (TriangleMesh level : finished.join()) {
+					MeshView view = new MeshView(level);
+					view.setMaterial(fullDetail.getMaterial());
+					addLevel(view);
+				}
+			}
+		}
+		if (!levelsStale) {
+			return;
+		}
+
+		// Count the pulses for which the mesh has held still
+		int version = rawMesh.getPositionVersion();
+		if (version != settlingVersion) {
+			settlingVersion = version;
+			stillPulses = 0;
+			return;
+		}
+		if (++stillPulses >= SETTLE_PULSES && pendingLevels == null) {
+			levelsStale = false;
+			requestLevels();
+			limitLevels();
+		}
 	}
 
 	/**
-	 * Setter method for the view's transformation.
+	 * Converts the simplified levels of the mesh, skipping the first, which is
+	 * the mesh itself, into TriangleMeshes.
+	 * 
+	 * @param levels
+	 *            The mesh's levels of detail, finest first.
+	 * @return The TriangleMeshes of the coarser levels.
 	 */
-	public void setTransform(Transformation transform) {
-		this.transform = transform;
+	private static List<TriangleMesh> convertLevels(List<Mesh> levels) {
+		TriangleMeshConverter converter = new TriangleMeshConverter();
+		List<TriangleMesh> meshes = new ArrayList<TriangleMesh>();
+		for (int i = 1; i < levels.size(); i++) {
+			TriangleMesh level = new TriangleMesh();
+			level.getPoints().setAll(levels.get(i).getPositions());
+			level.getTexCoords().setAll(0, 0);
+			level.getFaces().setAll(converter.convertFaces(levels.get(i)));
+			meshes.add(level);
+		}
+		return meshes;
+	}
+
+	/**
+	 * Picks the custom mesh through its bounding volume hierarchy, or
+	 * intersects the sphere directly. A sphere is reported as triangle 0.
+	 */
+	@Override
+	protected int pickLocal(double[] origin, double[] direction,
+			double[] distance) {
+		if (type == "custom") {
+			if (bvh == null) {
+				bvh = framed ? new MeshBVH(rawMesh, mesh.getPoints().toArray(
+						null)) : new MeshBVH(rawMesh);
+			}
+			return bvh.raycast(origin, direction, distance);
+		} else if (type == "sphere") {
+
+			// Solve |origin + t * direction| = radius for the nearest t
+			double radius = sphere.getRadius();
+			double a = direction[0] * direction[0] + direction[1]
+					* direction[1] + direction[2] * direction[2];
+			double b = origin[0] * direction[0] + origin[1] * direction[1]
+					+ origin[2] * direction[2];
+			double c = origin[0] * origin[0] + origin[1] * origin[1]
+					+ origin[2] * origin[2] - radius * radius;
+			double discriminant = b * b - a * c;
+			if (a == 0 || discriminant < 0) {
+				return -1;
+			}
+			double root = Math.sqrt(discriminant);
+			double t = (-b - root) / a;
+			if (t < 0) {
+				t = (-b + root) / a;
+			}
+			if (t < 0) {
+				return -1;
+			}
+			if (distance != null) {
+				distance[0] = t;
+			}
+			return 0;
+		}
+		return -1;
 	}
 }
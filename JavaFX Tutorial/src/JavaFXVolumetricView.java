@@ -1,8 +1,9 @@
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.List;
 
 import javafx.geometry.Point3D;
+import javafx.scene.Group;
+import javafx.scene.shape.MeshView;
 import javafx.scene.shape.Cylinder;
 import javafx.scene.shape.TriangleMesh;
 import javafx.scene.transform.Rotate;
@@ -11,78 +12,266 @@ import javafx.scene.transform.Rotate;
  * A JavaFX specific implementation of AbstractView. This view models a custom
  * mesh as a series of edges
  * 
+ * By default each edge is drawn as its own Cylinder. In merged mode, the edges
+ * are instead drawn as tubes generated into a few large TriangleMeshes, so
+ * that the number of scene nodes does not grow with the number of edges.
+ * Either way, the nodes are held under the view's Xform. In merged mode the
+ * tubes are also generated at several levels of detail, each with fewer sides
+ * around each tube than the last.
+ * 
+ * The view is picked by testing the ray against a capsule around each edge,
+ * with the tubes' radius, which holds for both the cylinders and the merged
+ * tubes. The edge's number is reported in place of a triangle's.
+ * 
  * @author Robert Smith
  *
  */
-public class JavaFXVolumetricView extends AbstractView {
+public class JavaFXVolumetricView extends AbstractJavaFXView {
 	ArrayList<Cylinder> edges;
 
+	/**
+	 * The tube meshes drawing the edges in merged mode, at full detail.
+	 */
+	ArrayList<MeshView> tubes;
+
+	/**
+	 * The radius of the tubes and cylinders.
+	 */
+	private static final float RADIUS = .5f;
+
+	/**
+	 * The sides around each tube at each level of detail in merged mode.
+	 */
+	private static final int[] TUBE_SIDES = { 8, 5, 3 };
+
+	/**
+	 * The vertex positions the edges were drawn with, as consecutive (x, y, z)
+	 * triples.
+	 */
+	private float[] positions;
+
+	/**
+	 * The edges drawn, as consecutive (start, end) pairs of vertex indices.
+	 */
+	private int[] uniqueEdges;
+
 	public JavaFXVolumetricView(IReactorComponent component) {
+		this(component, false);
+	}
+
+	/**
+	 * The constructor.
+	 * 
+	 * @param component
+	 *            The component to draw.
+	 * @param mergeEdges
+	 *            If true, the edges are drawn as tubes in a few MeshViews. If
+	 *            false, each edge is drawn as its own Cylinder.
+	 */
+	public JavaFXVolumetricView(IReactorComponent component,
+			boolean mergeEdges) {
 		super("Test View");
 
 		// Ignore non-custom meshes, which cannot be volumetric
 		if (component.getMeshType() == "custom") {
 			Mesh rawMesh = component.getMesh();
-			ArrayList<Vertex> originalVertices = (ArrayList<Vertex>) rawMesh
-					.getVertices();
-
-			edges = new ArrayList<Cylinder>();
-
-			// For each face in the model...
-			for (List<Integer> face : rawMesh.getEntities()) {
-
-				// For each edge in the model...
-				// TODO Create list of already converted edges so that each edge
-				// is only converted once.
-				for (int i = 0; i < face.size(); i++) {
-					
-					//Get the edge's endpoints
-					float[] start = originalVertices.get(face.get(i))
-							.getLocation();
-					float[] end = originalVertices.get(
-							face.get((i + 1) % face.size())).getLocation();
-					
-					//Create a cylinder situated at the edge's midpoint with the edge's length.
-					Cylinder edge = new Cylinder(.5, Math.sqrt((Math.pow(
-							start[0] - end[0], 2))
-							+ (Math.pow(start[1] - end[1], 2))
-							+ (Math.pow(start[2] - end[2], 2))));
-					edge.setTranslateX((start[0] + end[0]) / 2);
-					edge.setTranslateY((start[1] + end[1]) / 2);
-					edge.setTranslateZ((start[2] + end[2]) / 2);
-					
-					//Get the angle between the two points
-					Point3D start3D = new Point3D(start[0], start[1], start[2]);
-					Point3D end3D = new Point3D(end[0], end[1], end[2]);
-					Point3D angle = end3D.subtract(start3D);
-
-					//Get the axis of rotation the cylinder
-					Point3D axis = angle.crossProduct(0f, 1f, 0f);
-					
-					//Calculate the number of degrees to rotate about the axis.
-					double rotationAmount = Math.acos(angle.normalize()
-							.dotProduct(0, 1, 0));
-					
-					//Apply the rotation to the cylinder
-					Rotate rotation = new Rotate(
-							-Math.toDegrees(rotationAmount), axis);
-					edge.getTransforms().addAll(rotation);
-
-					//Add the edge to the model.
-					edges.add(edge);
+
+			// Find each edge once, even if several faces share it
+			uniqueEdges = MeshEdges.extractUniqueEdges(rawMesh);
+
+			// Keep the positions the edges are drawn with for picking
+			positions = new float[rawMesh.getVertexCount() * 3];
+			rawMesh.copyPositions(0, rawMesh.getVertexCount(), positions);
+
+			setBoundingSphere(positions, RADIUS);
+
+			// Generate all the tubes at once, with one MeshView per chunk, for
+			// each level of detail
+			if (mergeEdges) {
+				for (int sides : TUBE_SIDES) {
+					ArrayList<MeshView> level = new ArrayList<MeshView>();
+					TubeMeshBuilder builder = new TubeMeshBuilder(RADIUS,
+							sides, TubeMeshBuilder.DEFAULT_EDGES_PER_MESH);
+					for (TriangleMesh mesh : builder.build(positions,
+							uniqueEdges)) {
+						level.add(new MeshView(mesh));
+					}
+					if (tubes == null) {
+						tubes = level;
+					}
+					Group group = new Group();
+					group.getChildren().addAll(level);
+					addLevel(group);
 				}
+				return;
+			}
+
+			edges = new ArrayList<Cylinder>(uniqueEdges.length / 2);
+
+			// For each edge in the model...
+			for (int i = 0; i < uniqueEdges.length; i += 2) {
+
+				//Get the edge's endpoints
+				float[] start = Arrays.copyOfRange(positions,
+						uniqueEdges[i] * 3, uniqueEdges[i] * 3 + 3);
+				float[] end = Arrays.copyOfRange(positions,
+						uniqueEdges[i + 1] * 3, uniqueEdges[i + 1] * 3 + 3);
+
+				//Create a cylinder situated at the edge's midpoint with the edge's length.
+				Cylinder edge = new Cylinder(RADIUS, Math.sqrt((Math.pow(
+						start[0] - end[0], 2))
+						+ (Math.pow(start[1] - end[1], 2))
+						+ (Math.pow(start[2] - end[2], 2))));
+				edge.setTranslateX((start[0] + end[0]) / 2);
+				edge.setTranslateY((start[1] + end[1]) / 2);
+				edge.setTranslateZ((start[2] + end[2]) / 2);
+				
+				//Get the angle between the two points
+				Point3D start3D = new Point3D(start[0], start[1], start[2]);
+				Point3D end3D = new Point3D(end[0], end[1], end[2]);
+				Point3D angle = end3D.subtract(start3D);
+
+				//Get the axis of rotation the cylinder
+				Point3D axis = angle.crossProduct(0f, 1f, 0f);
+				
+				//Calculate the number of degrees to rotate about the axis.
+				double rotationAmount = Math.acos(angle.normalize()
+						.dotProduct(0, 1, 0));
+				
+				//Apply the rotation to the cylinder
+				Rotate rotation = new Rotate(
+						-Math.toDegrees(rotationAmount), axis);
+				edge.getTransforms().addAll(rotation);
+
+				//Add the edge to the model.
+				edges.add(edge);
 			}
+			Group group = new Group();
+			group.getChildren().addAll(edges);
+			addLevel(group);
 
 		}
 
 	}
 
-	/*
-	 * (non-Javadoc)
-	 * @see AbstractView#getRepresentation()
+	/**
+	 * Picks the nearest edge whose capsule the ray enters. The distance is
+	 * measured in multiples of the direction's length, as with MeshBVH.
 	 */
 	@Override
-	public Object getRepresentation() {
-		return edges;
+	protected int pickLocal(double[] origin, double[] direction,
+			double[] distance) {
+		if (uniqueEdges == null) {
+			return -1;
+		}
+		double length = Math.sqrt(direction[0] * direction[0] + direction[1]
+				* direction[1] + direction[2] * direction[2]);
+		if (length == 0) {
+			return -1;
+		}
+		double[] unit = { direction[0] / length, direction[1] / length,
+				direction[2] / length };
+
+		int nearest = -1;
+		double nearestDistance = Double.POSITIVE_INFINITY;
+		for (int i = 0; i < uniqueEdges.length; i += 2) {
+			double t = intersectCapsule(origin, unit, uniqueEdges[i] * 3,
+					uniqueEdges[i + 1] * 3);
+			if (t >= 0 && t < nearestDistance) {
+				nearest = i / 2;
+				nearestDistance = t;
+			}
+		}
+		if (nearest >= 0 && distance != null) {
+			distance[0] = nearestDistance / length;
+		}
+		return nearest;
+	}
+
+	/**
+	 * Intersects a ray with the capsule of the tubes' radius around an edge.
+	 * 
+	 * @param origin
+	 *            The ray's origin.
+	 * @param direction
+	 *            The ray's direction, which must be normalized.
+	 * @param start
+	 *            The offset in positions of the edge's first vertex.
+	 * @param end
+	 *            The offset in positions of the edge's second vertex.
+	 * @return The distance along the ray to where it enters the capsule, or
+	 *         -1 if it misses or starts inside.
+	 */
+	private double intersectCapsule(double[] origin, double[] direction,
+			int start, int end) {
+		double[] axis = new double[3];
+		double[] offset = new double[3];
+		for (int i = 0; i < 3; i++) {
+			axis[i] = positions[end + i] - positions[start + i];
+			offset[i] = origin[i] - positions[start + i];
+		}
+		double axisAxis = dot(axis, axis);
+		double axisDirection = dot(axis, direction);
+		double axisOffset = dot(axis, offset);
+		double directionOffset = dot(direction, offset);
+		double offsetOffset = dot(offset, offset);
+
+		// Solve for where the ray meets the infinite cylinder around the axis,
+		// and accept the hit if it lies between the edge's ends
+		double a = axisAxis - axisDirection * axisDirection;
+		if (axisAxis > 0 && a > 1e-12 * axisAxis) {
+			double b = axisAxis * directionOffset - axisOffset
+					* axisDirection;
+			double c = axisAxis * offsetOffset - axisOffset * axisOffset
+					- RADIUS * RADIUS * axisAxis;
+			double discriminant = b * b - a * c;
+			if (discriminant < 0) {
+				return -1;
+			}
+			double t = (-b - Math.sqrt(discriminant)) / a;
+			double along = axisOffset + t * axisDirection;
+			if (along > 0 && along < axisAxis) {
+				return (t >= 0) ? t : -1;
+			}
+		}
+
+		// Otherwise the ray can only enter through one of the round ends
+		double first = intersectSphere(offset, direction);
+		for (int i = 0; i < 3; i++) {
+			offset[i] = origin[i] - positions[end + i];
+		}
+		double second = intersectSphere(offset, direction);
+		if (first < 0 || (second >= 0 && second < first)) {
+			return second;
+		}
+		return first;
+	}
+
+	/**
+	 * Intersects a ray with a sphere of the tubes' radius.
+	 * 
+	 * @param offset
+	 *            The ray's origin relative to the sphere's center.
+	 * @param direction
+	 *            The ray's direction, which must be normalized.
+	 * @return The distance along the ray to where it enters the sphere, or -1
+	 *         if it misses or starts inside.
+	 */
+	private static double intersectSphere(double[] offset, double[] direction) {
+		double b = dot(offset, direction);
+		double c = dot(offset, offset) - RADIUS * RADIUS;
+		double discriminant = b * b - c;
+		if (discriminant < 0) {
+			return -1;
+		}
+		double t = -b - Math.sqrt(discriminant);
+		return (t >= 0) ? t : -1;
+	}
+
+	/**
+	 * Gets the dot product of two vectors.
+	 */
+	private static double dot(double[] a, double[] b) {
+		return a[0] * b[0] + a[1] * b[1] + a[2] * b[2];
 	}
 }
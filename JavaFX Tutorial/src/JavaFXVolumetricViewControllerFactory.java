@@ -10,6 +10,30 @@
 public class JavaFXVolumetricViewControllerFactory implements
 		IViewControllerFactory {
 
+	/**
+	 * Whether the views merge their edges into tube meshes.
+	 */
+	private final boolean mergeEdges;
+
+	/**
+	 * The default constructor. Its views draw each edge as a separate
+	 * cylinder.
+	 */
+	public JavaFXVolumetricViewControllerFactory() {
+		this(false);
+	}
+
+	/**
+	 * The constructor.
+	 * 
+	 * @param mergeEdges
+	 *            If true, the views draw their edges as tubes merged into a
+	 *            few meshes rather than as one cylinder per edge.
+	 */
+	public JavaFXVolumetricViewControllerFactory(boolean mergeEdges) {
+		this.mergeEdges = mergeEdges;
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -22,7 +46,8 @@ public class JavaFXVolumetricViewControllerFactory implements
 		// If the model is a plant component, create a view and controller for
 		// it.
 		if (model instanceof PlantComponent) {
-			AbstractView view = new JavaFXVolumetricView(model);
+			AbstractView view = new JavaFXVolumetricView(model,
+					mergeEdges);
 			controller = new JavaFXController(model, view);
 		}
 		return controller;
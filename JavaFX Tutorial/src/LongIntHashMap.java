@@ -0,0 +1,266 @@
+import java.util.Arrays;
+
+/**
+ * A hash map from primitive long keys to primitive int values. It uses open
+ * addressing with linear probing over flat arrays, so that no objects are
+ * created per entry. This makes it suitable for building indices over large
+ * meshes, such as from vertex IDs to slots or from packed vertex pairs to
+ * edges.
+ * 
+ * The map is not synchronized. Once it has been filled, it may be read from
+ * several threads at once as long as no thread writes to it.
+ * 
+ * @author Robert Smith
+ *
+ */
+public class LongIntHashMap {
+
+	/**
+	 * The maximum fraction of the table which may be occupied before it grows.
+	 */
+	private static final float LOAD_FACTOR = 0.5f;
+
+	/**
+	 * The keys of the table.
+	 */
+	private long[] keys;
+
+	/**
+	 * The values of the table, parallel to keys.
+	 */
+	private int[] values;
+
+	/**
+	 * Whether or not each slot of the table is occupied.
+	 */
+	private boolean[] used;
+
+	/**
+	 * The value returned when a key is not in the map.
+	 */
+	private final int noValue;
+
+	/**
+	 * The number of entries in the map.
+	 */
+	private int size;
+
+	/**
+	 * The number of entries at which the table will next grow.
+	 */
+	private int threshold;
+
+	/**
+	 * The default constructor.
+	 * 
+	 * @param expectedSize
+	 *            The number of entries the map is expected to hold. The table
+	 *            is sized so that this many entries can be added without
+	 *            growing.
+	 * @param noValue
+	 *            The value returned by lookups for keys which are not in the
+	 *            map.
+	 */
+	public LongIntHashMap(int expectedSize, int noValue) {
+		this.noValue = noValue;
+		allocate(tableSize(expectedSize));
+	}
+
+	/**
+	 * Gets the value associated with a key.
+	 * 
+	 * @param key
+	 *            The key to look up.
+	 * @return The key's value, or the map's no value marker if the key is not
+	 *         in the map.
+	 */
+	public int get(long key) {
+		int mask = keys.length - 1;
+		for (int i = hash(key) & mask; used[i]; i = (i + 1) & mask) {
+			if (keys[i] == key) {
+				return values[i];
+			}
+		}
+		return noValue;
+	}
+
+	/**
+	 * Checks whether the key is in the map.
+	 * 
+	 * @param key
+	 *            The key to look up.
+	 * @return True if the map contains the key, false otherwise.
+	 */
+	public boolean containsKey(long key) {
+		int mask = keys.length - 1;
+		for (int i = hash(key) & mask; used[i]; i = (i + 1) & mask) {
+			if (keys[i] == key) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Associates a value with a key, replacing any previous value.
+	 * 
+	 * @param key
+	 *            The key to set.
+	 * @param value
+	 *            The key's new value.
+	 * @return The key's previous value, or the map's no value marker if the
+	 *         key was not in the map.
+	 */
+	public int put(long key, int value) {
+		int i = find(key);
+		if (used[i]) {
+			int previous = values[i];
+			values[i] = value;
+			return previous;
+		}
+		insert(i, key, value);
+		return noValue;
+	}
+
+	/**
+	 * Associates a value with a key only if the key is not already in the map.
+	 * 
+	 * @param key
+	 *            The key to set.
+	 * @param value
+	 *            The value to associate with the key if it is absent.
+	 * @return The key's existing value, or the map's no value marker if the
+	 *         key was absent and has now been added.
+	 */
+	public int putIfAbsent(long key, int value) {
+		int i = find(key);
+		if (used[i]) {
+			return values[i];
+		}
+		insert(i, key, value);
+		return noValue;
+	}
+
+	/**
+	 * Gets the number of entries in the map.
+	 * 
+	 * @return The map's size.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Removes every entry from the map, keeping the current table.
+	 */
+	public void clear() {
+		Arrays.fill(used, false);
+		size = 0;
+	}
+
+	/**
+	 * Finds the slot holding a key, or the empty slot where it would be
+	 * inserted.
+	 * 
+	 * @param key
+	 *            The key to look for.
+	 * @return The slot's index.
+	 */
+	private int find(long key) {
+		int mask = keys.length - 1;
+		int i = hash(key) & mask;
+		while (used[i] && keys[i] != key) {
+			i = (i + 1) & mask;
+		}
+		return i;
+	}
+
+	/**
+	 * Places an entry into an empty slot, growing the table if necessary.
+	 * 
+	 * @param slot
+	 *            The empty slot returned by find().
+	 * @param key
+	 *            The new key.
+	 * @param value
+	 *            The new value.
+	 */
+	private void insert(int slot, long key, int value) {
+		keys[slot] = key;
+		values[slot] = value;
+		used[slot] = true;
+		if (++size > threshold) {
+			rehash(keys.length * 2);
+		}
+	}
+
+	/**
+	 * Moves every entry into a new table of the given size.
+	 * 
+	 * @param capacity
+	 *            The new table size, which must be a power of two.
+	 */
+	private void rehash(int capacity) {
+		long[] oldKeys = keys;
+		int[] oldValues = values;
+		boolean[] oldUsed = used;
+		allocate(capacity);
+		int mask = capacity - 1;
+		for (int j = 0; j < oldKeys.length; j++) {
+			if (oldUsed[j]) {
+				int i = hash(oldKeys[j]) & mask;
+				while (used[i]) {
+					i = (i + 1) & mask;
+				}
+				keys[i] = oldKeys[j];
+				values[i] = oldValues[j];
+				used[i] = true;
+			}
+		}
+	}
+
+	/**
+	 * Creates empty arrays for a table of the given size.
+	 * 
+	 * @param capacity
+	 *            The table size, which must be a power of two.
+	 */
+	private void allocate(int capacity) {
+		keys = new long[capacity];
+		values = new int[capacity];
+		used = new boolean[capacity];
+		threshold = (int) (capacity * LOAD_FACTOR);
+	}
+
+	/**
+	 * Gets the smallest power of two table size which can hold the given
+	 * number of entries.
+	 * 
+	 * @param expectedSize
+	 *            The number of entries.
+	 * @return The table size.
+	 */
+	private static int tableSize(int expectedSize) {
+		int capacity = 16;
+		while (capacity * LOAD_FACTOR < expectedSize) {
+			capacity <<= 1;
+		}
+		return capacity;
+	}
+
+	/**
+	 * Mixes the bits of a key so that sequential keys spread over the table.
+	 * 
+	 * @param key
+	 *            The key to hash.
+	 * @return The key's hash.
+	 */
+	private static int hash(long key) {
+		key ^= key >>> 33;
+		key *= 0xff51afd7ed558ccdL;
+		key ^= key >>> 33;
+		key *= 0xc4ceb9fe1a85ec53L;
+		key ^= key >>> 33;
+		return (int) key;
+	}
+}
@@ -1,4 +1,7 @@
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * A class containing the specifying information for the graphical
@@ -23,6 +26,39 @@ import java.util.*;
  * "sphere," implying a "radius" property, or "cube," implying "width,"
  * "height," and "depth" properties
  * 
+ * Custom meshes are stored in packed primitive arrays rather than as objects.
+ * The vertex positions are kept as consecutive (x, y, z) triples in a single
+ * float array, and the entities are kept in compressed sparse row form: an
+ * offsets array with one more element than there are entities, and an indices
+ * array where entity i occupies the range [offsets[i], offsets[i + 1]). The
+ * List based getters are views over these arrays, so that code which walks
+ * Vertex objects continues to work without the mesh having to hold them.
+ * 
+ * The mesh records which vertices have been moved by setPosition(), so that
+ * views drawn from it can copy just those vertices instead of the whole mesh.
+ * Registered IMeshListeners are told whenever vertices are moved or replaced,
+ * and version numbers let views and cached results tell whether the vertices
+ * have changed since they were drawn from them.
+ * 
+ * Meshes deformed from another thread, such as by a simulation, can instead
+ * be given a PositionBuffer. The writer fills and publishes whole frames of
+ * positions through it, and views pick up the latest complete frame on each
+ * pulse without locking. The frames are acquired through the mesh, so that
+ * every view of it sees each frame even though the buffer has one reader.
+ * 
+ * Custom meshes may also carry named scalar fields, such as temperature or
+ * flux, holding one value per vertex. A field is replaced as a whole, and
+ * every replacement bumps a version number views can poll cheaply.
+ * 
+ * Large static meshes can be quantized to halve the memory their positions
+ * take. Each coordinate is then stored as an unsigned 16 bit step across the
+ * mesh's bounding box, with the box's corner and step size kept per axis, so
+ * the error in any coordinate is at most half a step. The positions are
+ * dequantized as they are read, and moving a vertex returns the mesh to float
+ * storage. Switching storage is done under a lock shared with every write to
+ * the positions, so moves made from other threads meanwhile are not lost, and
+ * counts as a change to the positions, so listeners are told of it.
+ * 
  * @author Robert Smith
  *
  */
@@ -30,14 +66,116 @@ public class Mesh {
 
 	private String type;
 
-	private List<Vertex> vertices;
+	/**
+	 * The vertex positions, stored as consecutive (x, y, z) triples.
+	 */
+	private float[] positions;
+
+	/**
+	 * The number of vertices in the mesh.
+	 */
+	private int vertexCount;
+
+	/**
+	 * The start of each entity in entityIndices, followed by the total number
+	 * of indices.
+	 */
+	private int[] entityOffsets;
+
+	/**
+	 * The vertex indices of every entity, stored end to end.
+	 */
+	private int[] entityIndices;
+
+	/**
+	 * A lazily created view of the positions as Vertex objects.
+	 */
+	private VertexList vertexView;
 
-	private List<List<Integer>> entities;
+	/**
+	 * A lazily created view of the entities as lists of indices.
+	 */
+	private List<List<Integer>> entityView;
 
 	private Map<String, Double> properties;
 
 	/**
-	 * Constructor for custom meshes.
+	 * The vertices moved since the changes were last taken. All access is
+	 * synchronized on the set itself.
+	 */
+	private final BitSet changedVertices = new BitSet();
+
+	/**
+	 * The number of times vertices have been moved or replaced.
+	 */
+	private final AtomicInteger positionVersion = new AtomicInteger();
+
+	/**
+	 * The number of times the vertices have been replaced by setPositions().
+	 */
+	private final AtomicInteger topologyVersion = new AtomicInteger();
+
+	/**
+	 * The listeners told when the vertices change.
+	 */
+	private final List<IMeshListener> listeners = new CopyOnWriteArrayList<IMeshListener>();
+
+	/**
+	 * The buffer through which frames of positions are published, if one has
+	 * been created.
+	 */
+	private volatile PositionBuffer positionBuffer;
+
+	/**
+	 * The number of frames acquired from position buffers. Only the reader
+	 * thread uses this.
+	 */
+	private int acquiredFrames;
+
+	/**
+	 * The scalar fields, by name, each holding one value per vertex.
+	 */
+	private final Map<String, float[]> scalarFields = new ConcurrentHashMap<String, float[]>();
+
+	/**
+	 * The number of times the scalar fields have been changed.
+	 */
+	private final AtomicInteger scalarFieldVersion = new AtomicInteger();
+
+	/**
+	 * The number of steps across the bounding box along each axis of a
+	 * quantized mesh.
+	 */
+	public static final int QUANTIZATION_STEPS = 65535;
+
+	/**
+	 * The vertex positions of a quantized mesh, as consecutive (x, y, z)
+	 * triples of unsigned steps across its bounding box, or null if the mesh
+	 * is not quantized. The float positions are null while these are set.
+	 */
+	private short[] quantizedPositions;
+
+	/**
+	 * The low corner of a quantized mesh's bounding box.
+	 */
+	private float[] quantizationOrigin;
+
+	/**
+	 * The size of one step along each axis of a quantized mesh.
+	 */
+	private float[] quantizationScale;
+
+	/**
+	 * Guards the switch between float and quantized storage. The mesh holds
+	 * it whenever it reads or writes the stored positions, so that none of
+	 * its operations sees a half made switch or writes into storage which is
+	 * being replaced.
+	 */
+	private final Object storageLock = new Object();
+
+	/**
+	 * Constructor for custom meshes. The vertices and entities are copied into
+	 * the mesh's packed storage, so the lists may be discarded afterwards.
 	 * 
 	 * @param vertices
 	 *            The vertices for the mesh.
@@ -47,8 +185,68 @@ public class Mesh {
 	 */
 	public Mesh(List<Vertex> vertices, List<List<Integer>> entities) {
 		this.type = "custom";
-		this.vertices = vertices;
-		this.entities = entities;
+
+		// Pack the vertex locations into a single array
+		vertexCount = vertices.size();
+		positions = new float[vertexCount * 3];
+		int i = 0;
+		for (Vertex vertex : vertices) {
+			float[] location = vertex.getLocation();
+			positions[i++] = location[0];
+			positions[i++] = location[1];
+			positions[i++] = location[2];
+		}
+
+		// Size the index array and fill in the offsets
+		entityOffsets = new int[entities.size() + 1];
+		int total = 0;
+		int entity = 0;
+		for (List<Integer> indices : entities) {
+			entityOffsets[entity++] = total;
+			total += indices.size();
+		}
+		entityOffsets[entity] = total;
+
+		// Copy each entity's indices
+		entityIndices = new int[total];
+		i = 0;
+		for (List<Integer> indices : entities) {
+			for (Integer index : indices) {
+				entityIndices[i++] = index;
+			}
+		}
+	}
+
+	/**
+	 * Constructor for custom meshes which are already in packed form. The
+	 * arrays are used directly rather than copied.
+	 * 
+	 * @param positions
+	 *            The vertex positions as consecutive (x, y, z) triples.
+	 * @param entityOffsets
+	 *            The start of each entity in entityIndices, followed by the
+	 *            length of entityIndices.
+	 * @param entityIndices
+	 *            The vertex indices of every entity, stored end to end.
+	 */
+	public Mesh(float[] positions, int[] entityOffsets, int[] entityIndices) {
+
+		// Check the arrays for consistency
+		if (positions == null || positions.length % 3 != 0) {
+			throw new IllegalArgumentException(
+					"Mesh error: The positions must be a non-null array of (x,y,z) triples.");
+		} else if (entityOffsets == null || entityOffsets.length == 0
+				|| entityIndices == null
+				|| entityOffsets[entityOffsets.length - 1] != entityIndices.length) {
+			throw new IllegalArgumentException(
+					"Mesh error: The last entity offset must equal the number of entity indices.");
+		}
+
+		this.type = "custom";
+		this.positions = positions;
+		this.vertexCount = positions.length / 3;
+		this.entityOffsets = entityOffsets;
+		this.entityIndices = entityIndices;
 	}
 
 	/**
@@ -74,21 +272,523 @@ public class Mesh {
 	}
 
 	/**
-	 * Getter method for the mesh's entities.
+	 * Getter method for the mesh's entities. The returned list is a view over
+	 * the packed entity storage. Changing an index in one of its entities
+	 * changes the mesh, but entities cannot be added or removed through it.
 	 * 
-	 * @return The mesh's entities.
+	 * @return The mesh's entities, or null if this mesh is described by
+	 *         properties.
 	 */
 	public List<List<Integer>> getEntities() {
-		return entities;
+		if (entityView == null && entityIndices != null) {
+			entityView = new EntityList();
+		}
+		return entityView;
 	}
 
 	/**
-	 * Getter method for the mesh's vertices.
+	 * Getter method for the mesh's vertices. The returned list is a view over
+	 * the packed position storage. The first call to get() for a slot creates
+	 * a Vertex holding its position, with its ID set to the slot's index, and
+	 * later calls return the same Vertex. Calling setLocation() on that
+	 * Vertex, or set() on the list, writes the new position back into the
+	 * mesh, and moving the slot through the mesh moves the Vertex and notifies
+	 * its listeners. Replacing the positions with setPositions() detaches the
+	 * Vertex objects handed out before it.
 	 * 
-	 * @return The mesh's vertices.
+	 * @return The mesh's vertices, or null if this mesh is described by
+	 *         properties.
 	 */
 	public List<Vertex> getVertices() {
-		return vertices;
+		// A quantized mesh has no float positions, but still has vertices
+		if (vertexView == null && entityIndices != null) {
+			vertexView = new VertexList();
+		}
+		return vertexView;
+	}
+
+	/**
+	 * Gets the number of vertices in the mesh.
+	 * 
+	 * @return The number of vertices.
+	 */
+	public int getVertexCount() {
+		return vertexCount;
+	}
+
+	/**
+	 * Gets the number of entities in the mesh.
+	 * 
+	 * @return The number of entities.
+	 */
+	public int getEntityCount() {
+		return (entityOffsets != null ? entityOffsets.length - 1 : 0);
+	}
+
+	/**
+	 * Gets the packed vertex positions, for code which processes the whole
+	 * mesh at once. What is returned depends on the storage:
+	 * 
+	 * For a mesh stored as floats it is the mesh's own storage, not a copy,
+	 * and sees later moves. It must only be read, as writes to it are not
+	 * recorded as moves; use setPosition() or setPositions() instead.
+	 * 
+	 * For a quantized mesh it is a new dequantized copy, which does not see
+	 * later moves and which may be changed freely. Code that only needs some
+	 * of the positions at a time can avoid the copy with copyPositions().
+	 * 
+	 * Either way the array holds the positions at the time of the call, and
+	 * isQuantized() tells which was returned.
+	 * 
+	 * @return The positions as consecutive (x, y, z) triples.
+	 */
+	public float[] getPositions() {
+		synchronized (storageLock) {
+			if (quantizedPositions != null) {
+				float[] copy = new float[vertexCount * 3];
+				copyPositions(0, vertexCount, copy);
+				return copy;
+			}
+			return positions;
+		}
+	}
+
+	/**
+	 * Copies the positions of a run of vertices into an array, dequantizing
+	 * them if the mesh is quantized.
+	 * 
+	 * @param first
+	 *            The index of the first vertex.
+	 * @param count
+	 *            The number of vertices.
+	 * @param target
+	 *            The array to receive the positions as consecutive (x, y, z)
+	 *            triples, starting at its beginning.
+	 */
+	public void copyPositions(int first, int count, float[] target) {
+		synchronized (storageLock) {
+			if (quantizedPositions == null) {
+				System.arraycopy(positions, first * 3, target, 0, count * 3);
+				return;
+			}
+			float[] origin = quantizationOrigin;
+			float[] scale = quantizationScale;
+			for (int i = 0, j = first * 3; i < count * 3; i += 3, j += 3) {
+				target[i] = origin[0] + (quantizedPositions[j] & 0xffff)
+						* scale[0];
+				target[i + 1] = origin[1] + (quantizedPositions[j + 1] & 0xffff)
+						* scale[1];
+				target[i + 2] = origin[2] + (quantizedPositions[j + 2] & 0xffff)
+						* scale[2];
+			}
+		}
+	}
+
+	/**
+	 * Quantizes the positions of a custom mesh, replacing its float storage.
+	 * Every vertex is recorded as moved, as each may have shifted by up to
+	 * half a step, and the listeners are told, so that views drawn from the
+	 * mesh copy the quantized positions.
+	 */
+	public void quantize() {
+		synchronized (storageLock) {
+			if (positions == null) {
+				return;
+			}
+			quantizeStorage();
+		}
+		synchronized (changedVertices) {
+			changedVertices.set(0, vertexCount);
+		}
+		notifyListeners();
+	}
+
+	/**
+	 * Replaces the float storage with quantized storage. The storage lock
+	 * must be held.
+	 */
+	private void quantizeStorage() {
+
+		// Find the bounding box, and the step size which spans it
+		float[] low = { Float.MAX_VALUE, Float.MAX_VALUE, Float.MAX_VALUE };
+		float[] high = { -Float.MAX_VALUE, -Float.MAX_VALUE, -Float.MAX_VALUE };
+		for (int i = 0; i < positions.length; i++) {
+			low[i % 3] = Math.min(low[i % 3], positions[i]);
+			high[i % 3] = Math.max(high[i % 3], positions[i]);
+		}
+		float[] scale = new float[3];
+		for (int axis = 0; axis < 3; axis++) {
+			if (vertexCount == 0) {
+				low[axis] = 0;
+			} else {
+				scale[axis] = (high[axis] - low[axis]) / QUANTIZATION_STEPS;
+			}
+		}
+
+		short[] quantized = new short[positions.length];
+		for (int i = 0; i < positions.length; i++) {
+			int axis = i % 3;
+			if (scale[axis] > 0) {
+				int step = Math.round((positions[i] - low[axis]) / scale[axis]);
+				quantized[i] = (short) Math.max(0,
+						Math.min(QUANTIZATION_STEPS, step));
+			}
+		}
+		quantizationOrigin = low;
+		quantizationScale = scale;
+		quantizedPositions = quantized;
+		positions = null;
+	}
+
+	/**
+	 * Returns a quantized mesh to float storage, telling the listeners. The
+	 * positions keep the error quantizing them introduced.
+	 */
+	public void dequantize() {
+		synchronized (storageLock) {
+			if (quantizedPositions == null) {
+				return;
+			}
+			dequantizeStorage();
+		}
+		notifyListeners();
+	}
+
+	/**
+	 * Replaces the quantized storage with float storage. The storage lock
+	 * must be held.
+	 */
+	private void dequantizeStorage() {
+		float[] dequantized = new float[vertexCount * 3];
+		copyPositions(0, vertexCount, dequantized);
+		positions = dequantized;
+		quantizedPositions = null;
+		quantizationOrigin = null;
+		quantizationScale = null;
+	}
+
+	/**
+	 * Checks whether the mesh's positions are quantized.
+	 * 
+	 * @return True if they are, false if they are stored as floats.
+	 */
+	public boolean isQuantized() {
+		synchronized (storageLock) {
+			return quantizedPositions != null;
+		}
+	}
+
+	/**
+	 * Gets the low corner of a quantized mesh's bounding box, which is where
+	 * step 0 lies on each axis.
+	 * 
+	 * @return The corner's (x, y, z) coordinates, or null if the mesh is not
+	 *         quantized.
+	 */
+	public float[] getQuantizationOrigin() {
+		synchronized (storageLock) {
+			return (quantizationOrigin != null) ? quantizationOrigin.clone()
+					: null;
+		}
+	}
+
+	/**
+	 * Gets the size of one step along each axis of a quantized mesh. The box
+	 * spans QUANTIZATION_STEPS steps.
+	 * 
+	 * @return The step size along x, y and z, or null if the mesh is not
+	 *         quantized.
+	 */
+	public float[] getQuantizationScale() {
+		synchronized (storageLock) {
+			return (quantizationScale != null) ? quantizationScale.clone()
+					: null;
+		}
+	}
+
+	/**
+	 * Replaces the packed vertex positions, for operations which change the
+	 * number of vertices. The array is used directly rather than copied. The
+	 * caller is responsible for keeping the entity indices valid for the new
+	 * vertices.
+	 * 
+	 * @param positions
+	 *            The new positions as consecutive (x, y, z) triples.
+	 */
+	public void setPositions(float[] positions) {
+		if (positions == null || positions.length % 3 != 0) {
+			throw new IllegalArgumentException(
+					"Mesh error: The positions must be a non-null array of (x,y,z) triples.");
+		}
+		synchronized (storageLock) {
+			this.positions = positions;
+			this.vertexCount = positions.length / 3;
+			quantizedPositions = null;
+			quantizationOrigin = null;
+			quantizationScale = null;
+		}
+		if (vertexView != null) {
+			vertexView.forget();
+		}
+
+		// Frames, fields and moves of the old vertices no longer fit the mesh
+		positionBuffer = null;
+		if (!scalarFields.isEmpty()) {
+			scalarFields.clear();
+			scalarFieldVersion.incrementAndGet();
+		}
+		synchronized (changedVertices) {
+			changedVertices.clear();
+		}
+		topologyVersion.incrementAndGet();
+		notifyListeners();
+	}
+
+	/**
+	 * Registers a listener to be told when the mesh's vertices are moved or
+	 * replaced.
+	 * 
+	 * @param listener
+	 *            The listener to add.
+	 */
+	public void register(IMeshListener listener) {
+		if (listener != null) {
+			listeners.add(listener);
+		}
+	}
+
+	/**
+	 * Unregisters a listener, comparing listeners by reference.
+	 * 
+	 * @param listener
+	 *            The listener to remove.
+	 */
+	public void unregister(IMeshListener listener) {
+		for (IMeshListener registered : listeners) {
+			if (registered == listener) {
+				listeners.remove(registered);
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Gets the number of times vertices have been moved or replaced, so that
+	 * results computed from the positions can tell cheaply whether they are
+	 * out of date.
+	 * 
+	 * @return The position version.
+	 */
+	public int getPositionVersion() {
+		return positionVersion.get();
+	}
+
+	/**
+	 * Gets the number of times the vertices have been replaced by
+	 * setPositions(), after which anything drawn from the mesh must be built
+	 * again rather than patched.
+	 * 
+	 * @return The topology version.
+	 */
+	public int getTopologyVersion() {
+		return topologyVersion.get();
+	}
+
+	/**
+	 * Counts a change to the vertices and tells the listeners about it.
+	 */
+	private void notifyListeners() {
+		positionVersion.incrementAndGet();
+		for (IMeshListener listener : listeners) {
+			listener.meshChanged(this);
+		}
+	}
+
+	/**
+	 * Sets a scalar field, replacing any field of the same name. The array is
+	 * used directly rather than copied, so to change the field's values from
+	 * another thread, pass a new array rather than modifying the old one.
+	 * 
+	 * @param name
+	 *            The field's name.
+	 * @param values
+	 *            The field's value at each vertex.
+	 */
+	public void setScalarField(String name, float[] values) {
+		if (name == null || values == null || values.length != vertexCount) {
+			throw new IllegalArgumentException(
+					"Mesh error: A scalar field must be named and have one value per vertex.");
+		}
+		scalarFields.put(name, values);
+		scalarFieldVersion.incrementAndGet();
+	}
+
+	/**
+	 * Gets a scalar field. This is the mesh's own storage, not a copy.
+	 * 
+	 * @param name
+	 *            The field's name.
+	 * @return The field's value at each vertex, or null if the mesh has no
+	 *         field of that name.
+	 */
+	public float[] getScalarField(String name) {
+		return scalarFields.get(name);
+	}
+
+	/**
+	 * Removes a scalar field.
+	 * 
+	 * @param name
+	 *            The field's name.
+	 */
+	public void removeScalarField(String name) {
+		if (scalarFields.remove(name) != null) {
+			scalarFieldVersion.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Gets the names of the mesh's scalar fields.
+	 * 
+	 * @return The field names.
+	 */
+	public Set<String> getScalarFieldNames() {
+		return Collections.unmodifiableSet(scalarFields.keySet());
+	}
+
+	/**
+	 * Gets the number of times any scalar field has been set or removed, so
+	 * that views can tell cheaply whether they need to redraw the fields.
+	 * 
+	 * @return The scalar field version.
+	 */
+	public int getScalarFieldVersion() {
+		return scalarFieldVersion.get();
+	}
+
+	/**
+	 * Creates a buffer through which a writer thread can publish frames of
+	 * positions for the mesh, starting from its current positions. If the
+	 * mesh already has one, it is returned instead.
+	 * 
+	 * @return The mesh's position buffer.
+	 */
+	public synchronized PositionBuffer createPositionBuffer() {
+		if (positionBuffer == null) {
+			positionBuffer = new PositionBuffer(getPositions());
+		}
+		return positionBuffer;
+	}
+
+	/**
+	 * Gets the buffer through which frames of positions are published. This
+	 * never locks, so it may be called on every pulse.
+	 * 
+	 * @return The mesh's position buffer, or null if none has been created.
+	 */
+	public PositionBuffer getPositionBuffer() {
+		return positionBuffer;
+	}
+
+	/**
+	 * Acquires the latest frame published through the position buffer, if
+	 * there is a new one, on behalf of every view of the mesh. Views call this
+	 * instead of the buffer's own acquire(), and draw the front buffer
+	 * whenever the number returned differs from that of the last frame they
+	 * drew, so that a frame acquired for one view is not missed by the rest.
+	 * It must only be called from the buffer's reader thread, such as the
+	 * JavaFX application thread, and the front buffer may change on the next
+	 * call, so views should copy what they need from it straight away.
+	 * 
+	 * @return The number of frames acquired so far.
+	 */
+	public int acquireFrame() {
+		PositionBuffer buffer = positionBuffer;
+		if (buffer != null && buffer.acquire()) {
+			acquiredFrames++;
+		}
+		return acquiredFrames;
+	}
+
+	/**
+	 * Gets the packed entity offsets. Entity i occupies the range [offsets[i],
+	 * offsets[i + 1]) of the entity indices. This is the mesh's own storage,
+	 * not a copy.
+	 * 
+	 * @return The entity offsets.
+	 */
+	public int[] getEntityOffsets() {
+		return entityOffsets;
+	}
+
+	/**
+	 * Gets the packed entity indices. This is the mesh's own storage, not a
+	 * copy.
+	 * 
+	 * @return The vertex indices of every entity, stored end to end.
+	 */
+	public int[] getEntityIndices() {
+		return entityIndices;
+	}
+
+	/**
+	 * Copies the position of a single vertex into the given array.
+	 * 
+	 * @param vertex
+	 *            The index of the vertex.
+	 * @param location
+	 *            An array of at least three floats to receive the position.
+	 * @return The location array.
+	 */
+	public float[] getPosition(int vertex, float[] location) {
+		copyPositions(vertex, 1, location);
+		return location;
+	}
+
+	/**
+	 * Sets the position of a single vertex. A quantized mesh is returned to
+	 * float storage first. This may be called from several threads at once.
+	 * 
+	 * @param vertex
+	 *            The index of the vertex.
+	 * @param x
+	 *            The new x coordinate.
+	 * @param y
+	 *            The new y coordinate.
+	 * @param z
+	 *            The new z coordinate.
+	 */
+	public void setPosition(int vertex, float x, float y, float z) {
+		synchronized (storageLock) {
+			if (quantizedPositions != null) {
+				dequantizeStorage();
+			}
+			int i = vertex * 3;
+			positions[i] = x;
+			positions[i + 1] = y;
+			positions[i + 2] = z;
+		}
+		synchronized (changedVertices) {
+			changedVertices.set(vertex);
+		}
+		if (vertexView != null) {
+			vertexView.moved(vertex, x, y, z);
+		}
+		notifyListeners();
+	}
+
+	/**
+	 * Gets the vertices moved by setPosition() since the last call, and starts
+	 * recording afresh.
+	 * 
+	 * @return The indices of the moved vertices.
+	 */
+	public BitSet takeChangedVertices() {
+		synchronized (changedVertices) {
+			BitSet changed = (BitSet) changedVertices.clone();
+			changedVertices.clear();
+			return changed;
+		}
 	}
 
 	/**
@@ -115,4 +815,229 @@ public class Mesh {
 		properties.put(property, value);
 	}
 
+	/**
+	 * A Vertex bound to one slot of the packed positions. Changes to its
+	 * location are written back into the mesh.
+	 */
+	private class MeshVertex extends Vertex {
+
+		/**
+		 * The index of the vertex in the mesh.
+		 */
+		private final int slot;
+
+		/**
+		 * The default constructor.
+		 * 
+		 * @param slot
+		 *            The index of the vertex in the mesh.
+		 */
+		public MeshVertex(int slot) {
+			super(getPosition(slot, new float[3]));
+			this.slot = slot;
+			setId(slot);
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * @see Vertex#setLocation(float, float, float)
+		 */
+		@Override
+		public void setLocation(float x, float y, float z) {
+			super.setLocation(x, y, z);
+			setPosition(slot, x, y, z);
+		}
+
+		/**
+		 * Moves the vertex to match its slot, which has been moved through
+		 * the mesh, notifying its listeners if it changed.
+		 * 
+		 * @param x
+		 *            The new x coordinate.
+		 * @param y
+		 *            The new y coordinate.
+		 * @param z
+		 *            The new z coordinate.
+		 */
+		private void follow(float x, float y, float z) {
+			super.setLocation(x, y, z);
+		}
+	}
+
+	/**
+	 * A list view of the packed positions as Vertex objects. Each slot's
+	 * Vertex is created the first time it is requested and kept, so that
+	 * listeners registered with it stay attached.
+	 */
+	private class VertexList extends AbstractList<Vertex> implements
+			RandomAccess {
+
+		/**
+		 * The Vertex of each slot, or null for slots not yet requested. The
+		 * array itself is only created on the first request.
+		 */
+		private MeshVertex[] slots;
+
+		/*
+		 * (non-Javadoc)
+		 * @see java.util.AbstractList#get(int)
+		 */
+		@Override
+		public synchronized Vertex get(int index) {
+			if (index < 0 || index >= vertexCount) {
+				throw new IndexOutOfBoundsException("Index: " + index);
+			}
+			if (slots == null || slots.length != vertexCount) {
+				slots = new MeshVertex[vertexCount];
+			}
+			if (slots[index] == null) {
+				slots[index] = new MeshVertex(index);
+			}
+			return slots[index];
+		}
+
+		/**
+		 * Moves the Vertex of a slot which has been moved through the mesh,
+		 * if one has been handed out.
+		 * 
+		 * @param index
+		 *            The slot.
+		 * @param x
+		 *            The new x coordinate.
+		 * @param y
+		 *            The new y coordinate.
+		 * @param z
+		 *            The new z coordinate.
+		 */
+		private void moved(int index, float x, float y, float z) {
+			MeshVertex vertex;
+			synchronized (this) {
+				vertex = (slots != null && index < slots.length) ? slots[index]
+						: null;
+			}
+			if (vertex != null) {
+				vertex.follow(x, y, z);
+			}
+		}
+
+		/**
+		 * Forgets the Vertex objects handed out so far, after the positions
+		 * have been replaced.
+		 */
+		private synchronized void forget() {
+			slots = null;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * @see java.util.AbstractList#set(int, java.lang.Object)
+		 */
+		@Override
+		public Vertex set(int index, Vertex vertex) {
+			Vertex previous = get(index);
+			float[] location = vertex.getLocation();
+			setPosition(index, location[0], location[1], location[2]);
+			return previous;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * @see java.util.AbstractCollection#size()
+		 */
+		@Override
+		public int size() {
+			return vertexCount;
+		}
+	}
+
+	/**
+	 * A list view of the packed entities.
+	 */
+	private class EntityList extends AbstractList<List<Integer>> implements
+			RandomAccess {
+
+		/*
+		 * (non-Javadoc)
+		 * @see java.util.AbstractList#get(int)
+		 */
+		@Override
+		public List<Integer> get(int index) {
+			if (index < 0 || index >= getEntityCount()) {
+				throw new IndexOutOfBoundsException("Index: " + index);
+			}
+			return new IndexList(entityOffsets[index],
+					entityOffsets[index + 1]);
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * @see java.util.AbstractCollection#size()
+		 */
+		@Override
+		public int size() {
+			return getEntityCount();
+		}
+	}
+
+	/**
+	 * A list view of the vertex indices of a single entity.
+	 */
+	private class IndexList extends AbstractList<Integer> implements
+			RandomAccess {
+
+		/**
+		 * The first index of the entity in entityIndices.
+		 */
+		private final int start;
+
+		/**
+		 * One past the last index of the entity in entityIndices.
+		 */
+		private final int end;
+
+		/**
+		 * The default constructor.
+		 * 
+		 * @param start
+		 *            The first index of the entity in entityIndices.
+		 * @param end
+		 *            One past the last index of the entity in entityIndices.
+		 */
+		public IndexList(int start, int end) {
+			this.start = start;
+			this.end = end;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * @see java.util.AbstractList#get(int)
+		 */
+		@Override
+		public Integer get(int index) {
+			if (index < 0 || index >= end - start) {
+				throw new IndexOutOfBoundsException("Index: " + index);
+			}
+			return entityIndices[start + index];
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * @see java.util.AbstractList#set(int, java.lang.Object)
+		 */
+		@Override
+		public Integer set(int index, Integer element) {
+			Integer previous = get(index);
+			entityIndices[start + index] = element;
+			return previous;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * @see java.util.AbstractCollection#size()
+		 */
+		@Override
+		public int size() {
+			return end - start;
+		}
+	}
 }
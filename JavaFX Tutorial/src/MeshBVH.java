@@ -0,0 +1,856 @@
+import java.util.Arrays;
+
+/**
+ * A bounding volume hierarchy over the triangles of a mesh, which answers ray
+ * casts, closest point queries and box overlap queries in roughly logarithmic
+ * time rather than by testing every triangle.
+ * 
+ * The hierarchy is built top down with the surface area heuristic, evaluated
+ * over a fixed number of bins along each axis. Nodes are stored in flat
+ * arrays: six floats of bounds per node, plus the index of a node's first
+ * child, or of a leaf's first triangle in the triangle order, and the number
+ * of triangles in a leaf. The two children of a node are always adjacent.
+ * 
+ * Triangles are identified by their position in the triangle index array the
+ * hierarchy was built from. For a hierarchy built from a Mesh, that is the
+ * index of the face in the TriangleMesh made by TriangleMeshConverter.
+ * 
+ * Once built, the hierarchy is never changed, so it may be queried from
+ * several threads at once.
+ * 
+ * @author Robert Smith
+ *
+ */
+public class MeshBVH {
+
+	/**
+	 * The number of bins along each axis in which split positions are
+	 * evaluated.
+	 */
+	private static final int BIN_COUNT = 12;
+
+	/**
+	 * The largest number of triangles a leaf may hold when splitting would
+	 * not make it cheaper to query.
+	 */
+	private static final int MAX_LEAF_SIZE = 8;
+
+	/**
+	 * The number of triangles at or below which a node is always a leaf.
+	 */
+	private static final int MIN_LEAF_SIZE = 2;
+
+	/**
+	 * The vertex positions, as consecutive (x, y, z) triples.
+	 */
+	private final float[] positions;
+
+	/**
+	 * The triangles, as consecutive triples of vertex indices.
+	 */
+	private final int[] triangles;
+
+	/**
+	 * The triangle numbers, in the order in which the leaves refer to them.
+	 */
+	private final int[] order;
+
+	/**
+	 * The bounds of each node, as (minX, minY, minZ, maxX, maxY, maxZ).
+	 */
+	private float[] nodeBounds;
+
+	/**
+	 * For an interior node, the index of its first child. For a leaf, the
+	 * index in order of its first triangle.
+	 */
+	private int[] nodeStart;
+
+	/**
+	 * The number of triangles in each leaf, or 0 for interior nodes.
+	 */
+	private int[] nodeCount;
+
+	/**
+	 * The number of nodes in the hierarchy.
+	 */
+	private int nodes;
+
+	/**
+	 * Builds a hierarchy over the triangulated entities of a custom mesh.
+	 * 
+	 * @param mesh
+	 *            A custom mesh.
+	 */
+	public MeshBVH(Mesh mesh) {
+		this(mesh, mesh.getPositions());
+	}
+
+	/**
+	 * Builds a hierarchy over the triangulated entities of a custom mesh, with
+	 * its vertices at other positions, such as a frame from its
+	 * PositionBuffer. The positions are used directly.
+	 * 
+	 * @param mesh
+	 *            A custom mesh.
+	 * @param positions
+	 *            The vertex positions, as consecutive (x, y, z) triples.
+	 */
+	public MeshBVH(Mesh mesh, float[] positions) {
+		this(positions, triangleIndices(new TriangleMeshConverter()
+				.convertFaces(mesh)));
+	}
+
+	/**
+	 * Builds a hierarchy over a set of triangles. The arrays are used
+	 * directly, and must not be changed while the hierarchy is in use.
+	 * 
+	 * @param positions
+	 *            The vertex positions, as consecutive (x, y, z) triples.
+	 * @param triangles
+	 *            The triangles, as consecutive triples of vertex indices.
+	 */
+	public MeshBVH(float[] positions, int[] triangles) {
+		this.positions = positions;
+		this.triangles = triangles;
+
+		int triangleCount = triangles.length / 3;
+		order = new int[triangleCount];
+		for (int i = 0; i < triangleCount; i++) {
+			order[i] = i;
+		}
+
+		build();
+	}
+
+	/**
+	 * Gets the number of triangles in the hierarchy.
+	 * 
+	 * @return The triangle count.
+	 */
+	public int getTriangleCount() {
+		return order.length;
+	}
+
+	/**
+	 * Gets the number of nodes in the hierarchy.
+	 * 
+	 * @return The node count.
+	 */
+	public int getNodeCount() {
+		return nodes;
+	}
+
+	/**
+	 * Gets the bounds of all the triangles.
+	 * 
+	 * @return The bounds, as (minX, minY, minZ, maxX, maxY, maxZ).
+	 */
+	public float[] getBounds() {
+		return Arrays.copyOf(nodeBounds, 6);
+	}
+
+	/**
+	 * Finds the first triangle hit by a ray. The distance to the hit is
+	 * measured in multiples of the direction's length, so that it is
+	 * unchanged if the ray is transformed by an affine transformation.
+	 * 
+	 * @param origin
+	 *            The ray's origin.
+	 * @param direction
+	 *            The ray's direction, which need not be normalized.
+	 * @param distance
+	 *            If not null, its first element is set to the distance along
+	 *            the ray to the hit.
+	 * @return The number of the first triangle hit, or -1 if the ray misses
+	 *         every triangle.
+	 */
+	public int raycast(double[] origin, double[] direction, double[] distance) {
+		if (order.length == 0) {
+			return -1;
+		}
+
+		double ox = origin[0], oy = origin[1], oz = origin[2];
+		double dx = direction[0], dy = direction[1], dz = direction[2];
+		double[] inverse = { 1 / dx, 1 / dy, 1 / dz };
+
+		double best = Double.POSITIVE_INFINITY;
+		int hit = -1;
+
+		int[] stack = new int[64];
+		int top = 0;
+		if (rayBoxDistance(0, origin, inverse, best) >= 0) {
+			stack[top++] = 0;
+		}
+
+		while (top > 0) {
+			int node = stack[--top];
+
+			// Test the triangles in leaves
+			if (nodeCount[node] > 0) {
+				int end = nodeStart[node] + nodeCount[node];
+				for (int i = nodeStart[node]; i < end; i++) {
+					double t = rayTriangleDistance(order[i], ox, oy, oz, dx,
+							dy, dz);
+					if (t >= 0 && t < best) {
+						best = t;
+						hit = order[i];
+					}
+				}
+				continue;
+			}
+
+			// Visit the nearer child first by pushing it last
+			int left = nodeStart[node];
+			int right = left + 1;
+			double leftT = rayBoxDistance(left, origin, inverse, best);
+			double rightT = rayBoxDistance(right, origin, inverse, best);
+			if (top + 2 > stack.length) {
+				stack = Arrays.copyOf(stack, stack.length * 2);
+			}
+			if (leftT >= 0 && rightT >= 0) {
+				if (leftT < rightT) {
+					stack[top++] = right;
+					stack[top++] = left;
+				} else {
+					stack[top++] = left;
+					stack[top++] = right;
+				}
+			} else if (leftT >= 0) {
+				stack[top++] = left;
+			} else if (rightT >= 0) {
+				stack[top++] = right;
+			}
+		}
+
+		if (hit >= 0 && distance != null) {
+			distance[0] = best;
+		}
+		return hit;
+	}
+
+	/**
+	 * Finds the point on the triangles closest to a given point.
+	 * 
+	 * @param point
+	 *            The point to search from.
+	 * @param closest
+	 *            If not null, it is set to the closest point.
+	 * @return The number of the triangle holding the closest point, or -1 if
+	 *         there are no triangles.
+	 */
+	public int closestPoint(double[] point, double[] closest) {
+		if (order.length == 0) {
+			return -1;
+		}
+
+		double px = point[0], py = point[1], pz = point[2];
+		double bestDistance = Double.POSITIVE_INFINITY;
+		int best = -1;
+		double[] candidate = new double[3];
+
+		int[] stack = new int[64];
+		int top = 0;
+		stack[top++] = 0;
+
+		while (top > 0) {
+			int node = stack[--top];
+			if (boxDistanceSquared(node, px, py, pz) >= bestDistance) {
+				continue;
+			}
+
+			// Test the triangles in leaves
+			if (nodeCount[node] > 0) {
+				int end = nodeStart[node] + nodeCount[node];
+				for (int i = nodeStart[node]; i < end; i++) {
+					closestPointOnTriangle(order[i], px, py, pz, candidate);
+					double cx = candidate[0] - px;
+					double cy = candidate[1] - py;
+					double cz = candidate[2] - pz;
+					double d = cx * cx + cy * cy + cz * cz;
+					if (d < bestDistance) {
+						bestDistance = d;
+						best = order[i];
+						if (closest != null) {
+							closest[0] = candidate[0];
+							closest[1] = candidate[1];
+							closest[2] = candidate[2];
+						}
+					}
+				}
+				continue;
+			}
+
+			// Visit the nearer child first by pushing it last
+			int left = nodeStart[node];
+			int right = left + 1;
+			if (top + 2 > stack.length) {
+				stack = Arrays.copyOf(stack, stack.length * 2);
+			}
+			if (boxDistanceSquared(left, px, py, pz) < boxDistanceSquared(
+					right, px, py, pz)) {
+				stack[top++] = right;
+				stack[top++] = left;
+			} else {
+				stack[top++] = left;
+				stack[top++] = right;
+			}
+		}
+
+		return best;
+	}
+
+	/**
+	 * Finds every triangle which overlaps an axis aligned box. Triangles are
+	 * tested exactly, with the separating axis test, rather than only by
+	 * their bounds.
+	 * 
+	 * @param min
+	 *            The box's minimum corner.
+	 * @param max
+	 *            The box's maximum corner.
+	 * @return The numbers of the overlapping triangles.
+	 */
+	public int[] overlapBox(double[] min, double[] max) {
+		int[] found = new int[16];
+		int foundCount = 0;
+		if (order.length == 0) {
+			return new int[0];
+		}
+
+		// The separating axis test works relative to the box's center
+		double[] center = { (min[0] + max[0]) / 2, (min[1] + max[1]) / 2,
+				(min[2] + max[2]) / 2 };
+		double[] half = { (max[0] - min[0]) / 2, (max[1] - min[1]) / 2,
+				(max[2] - min[2]) / 2 };
+
+		int[] stack = new int[64];
+		int top = 0;
+		stack[top++] = 0;
+
+		while (top > 0) {
+			int node = stack[--top];
+			int b = node * 6;
+			if (nodeBounds[b] > max[0] || nodeBounds[b + 3] < min[0]
+					|| nodeBounds[b + 1] > max[1]
+					|| nodeBounds[b + 4] < min[1]
+					|| nodeBounds[b + 2] > max[2]
+					|| nodeBounds[b + 5] < min[2]) {
+				continue;
+			}
+
+			// Test the triangles in leaves
+			if (nodeCount[node] > 0) {
+				int end = nodeStart[node] + nodeCount[node];
+				for (int i = nodeStart[node]; i < end; i++) {
+					if (triangleOverlapsBox(order[i], center, half)) {
+						if (foundCount == found.length) {
+							found = Arrays.copyOf(found, found.length * 2);
+						}
+						found[foundCount++] = order[i];
+					}
+				}
+				continue;
+			}
+
+			if (top + 2 > stack.length) {
+				stack = Arrays.copyOf(stack, stack.length * 2);
+			}
+			stack[top++] = nodeStart[node];
+			stack[top++] = nodeStart[node] + 1;
+		}
+
+		return Arrays.copyOf(found, foundCount);
+	}
+
+	/**
+	 * Builds the hierarchy over the triangles in order.
+	 */
+	private void build() {
+		int triangleCount = order.length;
+
+		// Find each triangle's bounds and centroid
+		float[] triangleBounds = new float[triangleCount * 6];
+		float[] centroids = new float[triangleCount * 3];
+		for (int t = 0; t < triangleCount; t++) {
+			for (int axis = 0; axis < 3; axis++) {
+				float a = positions[triangles[t * 3] * 3 + axis];
+				float b = positions[triangles[t * 3 + 1] * 3 + axis];
+				float c = positions[triangles[t * 3 + 2] * 3 + axis];
+				float low = Math.min(a, Math.min(b, c));
+				float high = Math.max(a, Math.max(b, c));
+				triangleBounds[t * 6 + axis] = low;
+				triangleBounds[t * 6 + 3 + axis] = high;
+				centroids[t * 3 + axis] = (low + high) / 2;
+			}
+		}
+
+		// A binary tree with at most one leaf per triangle has fewer than
+		// twice as many nodes as triangles
+		int capacity = Math.max(1, triangleCount * 2);
+		nodeBounds = new float[capacity * 6];
+		nodeStart = new int[capacity];
+		nodeCount = new int[capacity];
+		nodes = 1;
+
+		// Scratch space for evaluating splits
+		int[] binCounts = new int[BIN_COUNT];
+		float[] binBounds = new float[BIN_COUNT * 6];
+		float[] rightAreas = new float[BIN_COUNT];
+
+		// Nodes waiting to be built, as (node, first, count) triples
+		int[] pending = new int[192];
+		int top = 0;
+		pending[top++] = 0;
+		pending[top++] = 0;
+		pending[top++] = triangleCount;
+
+		while (top > 0) {
+			int count = pending[--top];
+			int first = pending[--top];
+			int node = pending[--top];
+
+			// Bound the node's triangles and their centroids
+			float[] centroidBounds = new float[6];
+			resetBounds(nodeBounds, node * 6);
+			resetBounds(centroidBounds, 0);
+			for (int i = first; i < first + count; i++) {
+				int t = order[i];
+				growBounds(nodeBounds, node * 6, triangleBounds, t * 6);
+				growPoint(centroidBounds, 0, centroids, t * 3);
+			}
+			nodeStart[node] = first;
+			nodeCount[node] = count;
+
+			if (count <= MIN_LEAF_SIZE) {
+				continue;
+			}
+
+			// Evaluate the cost of splitting at each bin boundary on each axis
+			float nodeArea = surfaceArea(nodeBounds, node * 6);
+			float bestCost = Float.POSITIVE_INFINITY;
+			int bestAxis = -1;
+			int bestBin = 0;
+			for (int axis = 0; axis < 3; axis++) {
+				float low = centroidBounds[axis];
+				float extent = centroidBounds[3 + axis] - low;
+				if (extent <= 0) {
+					continue;
+				}
+
+				Arrays.fill(binCounts, 0);
+				for (int bin = 0; bin < BIN_COUNT; bin++) {
+					resetBounds(binBounds, bin * 6);
+				}
+				for (int i = first; i < first + count; i++) {
+					int t = order[i];
+					int bin = binIndex(centroids[t * 3 + axis], low, extent);
+					binCounts[bin]++;
+					growBounds(binBounds, bin * 6, triangleBounds, t * 6);
+				}
+
+				// Sweep from the right to find the area to the right of each
+				// boundary, then from the left to find each boundary's cost
+				float[] sweep = new float[6];
+				resetBounds(sweep, 0);
+				for (int bin = BIN_COUNT - 1; bin > 0; bin--) {
+					growBounds(sweep, 0, binBounds, bin * 6);
+					rightAreas[bin] = surfaceArea(sweep, 0);
+				}
+				resetBounds(sweep, 0);
+				int leftCount = 0;
+				for (int bin = 0; bin < BIN_COUNT - 1; bin++) {
+					growBounds(sweep, 0, binBounds, bin * 6);
+					leftCount += binCounts[bin];
+					int rightCount = count - leftCount;
+					if (leftCount == 0 || rightCount == 0) {
+						continue;
+					}
+					float cost = surfaceArea(sweep, 0) * leftCount
+							+ rightAreas[bin + 1] * rightCount;
+					if (cost < bestCost) {
+						bestCost = cost;
+						bestAxis = axis;
+						bestBin = bin;
+					}
+				}
+			}
+
+			// Keep the node as a leaf if no split separates its triangles, or
+			// if a small leaf would be cheaper to test than its children
+			if (bestAxis < 0) {
+				continue;
+			}
+			float splitCost = 1 + bestCost / Math.max(nodeArea, Float.MIN_VALUE);
+			if (count <= MAX_LEAF_SIZE && splitCost >= count) {
+				continue;
+			}
+
+			// Partition the triangles around the chosen boundary
+			float low = centroidBounds[bestAxis];
+			float extent = centroidBounds[3 + bestAxis] - low;
+			int middle = first;
+			for (int i = first; i < first + count; i++) {
+				int t = order[i];
+				if (binIndex(centroids[t * 3 + bestAxis], low, extent) <= bestBin) {
+					order[i] = order[middle];
+					order[middle++] = t;
+				}
+			}
+
+			// Make the node interior and queue its children
+			int left = nodes;
+			nodes += 2;
+			nodeStart[node] = left;
+			nodeCount[node] = 0;
+			if (top + 6 > pending.length) {
+				pending = Arrays.copyOf(pending, pending.length * 2);
+			}
+			pending[top++] = left;
+			pending[top++] = first;
+			pending[top++] = middle - first;
+			pending[top++] = left + 1;
+			pending[top++] = middle;
+			pending[top++] = first + count - middle;
+		}
+	}
+
+	/**
+	 * Finds the bin holding a centroid coordinate.
+	 */
+	private static int binIndex(float value, float low, float extent) {
+		int bin = (int) ((value - low) / extent * BIN_COUNT);
+		return Math.min(BIN_COUNT - 1, Math.max(0, bin));
+	}
+
+	/**
+	 * Sets a box to be empty, so that growing it by any point gives that
+	 * point.
+	 */
+	private static void resetBounds(float[] bounds, int offset) {
+		for (int axis = 0; axis < 3; axis++) {
+			bounds[offset + axis] = Float.POSITIVE_INFINITY;
+			bounds[offset + 3 + axis] = Float.NEGATIVE_INFINITY;
+		}
+	}
+
+	/**
+	 * Grows a box to contain another box.
+	 */
+	private static void growBounds(float[] bounds, int offset, float[] other,
+			int otherOffset) {
+		for (int axis = 0; axis < 3; axis++) {
+			bounds[offset + axis] = Math.min(bounds[offset + axis],
+					other[otherOffset + axis]);
+			bounds[offset + 3 + axis] = Math.max(bounds[offset + 3 + axis],
+					other[otherOffset + 3 + axis]);
+		}
+	}
+
+	/**
+	 * Grows a box to contain a point.
+	 */
+	private static void growPoint(float[] bounds, int offset, float[] points,
+			int pointOffset) {
+		for (int axis = 0; axis < 3; axis++) {
+			bounds[offset + axis] = Math.min(bounds[offset + axis],
+					points[pointOffset + axis]);
+			bounds[offset + 3 + axis] = Math.max(bounds[offset + 3 + axis],
+					points[pointOffset + axis]);
+		}
+	}
+
+	/**
+	 * Gets half the surface area of a box, which is all the surface area
+	 * heuristic needs to compare boxes.
+	 */
+	private static float surfaceArea(float[] bounds, int offset) {
+		float x = bounds[offset + 3] - bounds[offset];
+		float y = bounds[offset + 4] - bounds[offset + 1];
+		float z = bounds[offset + 5] - bounds[offset + 2];
+		if (x < 0 || y < 0 || z < 0) {
+			return 0;
+		}
+		return x * y + y * z + z * x;
+	}
+
+	/**
+	 * Finds where a ray enters a node's bounds.
+	 * 
+	 * @param origin
+	 *            The ray's origin.
+	 * @param inverse
+	 *            The reciprocal of each of the ray direction's components.
+	 * @param limit
+	 *            The distance beyond which boxes are ignored.
+	 * @return The distance to the box, 0 if the origin is inside it, or -1 if
+	 *         the ray misses it or reaches it no nearer than limit.
+	 */
+	private double rayBoxDistance(int node, double[] origin, double[] inverse,
+			double limit) {
+		int b = node * 6;
+		double near = 0;
+		double far = limit;
+		for (int axis = 0; axis < 3; axis++) {
+			double low = nodeBounds[b + axis];
+			double high = nodeBounds[b + 3 + axis];
+
+			// A ray parallel to the slab must start within it
+			if (Double.isInfinite(inverse[axis])) {
+				if (origin[axis] < low || origin[axis] > high) {
+					return -1;
+				}
+				continue;
+			}
+			double t0 = (low - origin[axis]) * inverse[axis];
+			double t1 = (high - origin[axis]) * inverse[axis];
+			near = Math.max(near, Math.min(t0, t1));
+			far = Math.min(far, Math.max(t0, t1));
+		}
+		return near <= far ? near : -1;
+	}
+
+	/**
+	 * Intersects a ray with a triangle, from either side.
+	 * 
+	 * @return The distance to the hit, or -1 if the ray misses.
+	 */
+	private double rayTriangleDistance(int triangle, double ox, double oy,
+			double oz, double dx, double dy, double dz) {
+		int a = triangles[triangle * 3] * 3;
+		int b = triangles[triangle * 3 + 1] * 3;
+		int c = triangles[triangle * 3 + 2] * 3;
+
+		double e1x = positions[b] - positions[a];
+		double e1y = positions[b + 1] - positions[a + 1];
+		double e1z = positions[b + 2] - positions[a + 2];
+		double e2x = positions[c] - positions[a];
+		double e2y = positions[c + 1] - positions[a + 1];
+		double e2z = positions[c + 2] - positions[a + 2];
+
+		double px = dy * e2z - dz * e2y;
+		double py = dz * e2x - dx * e2z;
+		double pz = dx * e2y - dy * e2x;
+		double determinant = e1x * px + e1y * py + e1z * pz;
+		if (determinant == 0) {
+			return -1;
+		}
+		double inverse = 1 / determinant;
+
+		double sx = ox - positions[a];
+		double sy = oy - positions[a + 1];
+		double sz = oz - positions[a + 2];
+		double u = (sx * px + sy * py + sz * pz) * inverse;
+		if (u < 0 || u > 1) {
+			return -1;
+		}
+
+		double qx = sy * e1z - sz * e1y;
+		double qy = sz * e1x - sx * e1z;
+		double qz = sx * e1y - sy * e1x;
+		double v = (dx * qx + dy * qy + dz * qz) * inverse;
+		if (v < 0 || u + v > 1) {
+			return -1;
+		}
+
+		double t = (e2x * qx + e2y * qy + e2z * qz) * inverse;
+		return t >= 0 ? t : -1;
+	}
+
+	/**
+	 * Gets the squared distance from a point to a node's bounds, which is 0
+	 * if the point is inside them.
+	 */
+	private double boxDistanceSquared(int node, double px, double py,
+			double pz) {
+		int b = node * 6;
+		double x = Math.max(0, Math.max(nodeBounds[b] - px, px
+				- nodeBounds[b + 3]));
+		double y = Math.max(0, Math.max(nodeBounds[b + 1] - py, py
+				- nodeBounds[b + 4]));
+		double z = Math.max(0, Math.max(nodeBounds[b + 2] - pz, pz
+				- nodeBounds[b + 5]));
+		return x * x + y * y + z * z;
+	}
+
+	/**
+	 * Finds the point on a triangle closest to a given point, by working out
+	 * which of the triangle's vertices, edges or interior is nearest.
+	 * 
+	 * @param closest
+	 *            Set to the closest point.
+	 */
+	private void closestPointOnTriangle(int triangle, double px, double py,
+			double pz, double[] closest) {
+		int a = triangles[triangle * 3] * 3;
+		int b = triangles[triangle * 3 + 1] * 3;
+		int c = triangles[triangle * 3 + 2] * 3;
+		double ax = positions[a], ay = positions[a + 1], az = positions[a + 2];
+
+		double abx = positions[b] - ax;
+		double aby = positions[b + 1] - ay;
+		double abz = positions[b + 2] - az;
+		double acx = positions[c] - ax;
+		double acy = positions[c + 1] - ay;
+		double acz = positions[c + 2] - az;
+
+		// Vertex a
+		double apx = px - ax, apy = py - ay, apz = pz - az;
+		double d1 = abx * apx + aby * apy + abz * apz;
+		double d2 = acx * apx + acy * apy + acz * apz;
+		if (d1 <= 0 && d2 <= 0) {
+			setPoint(closest, ax, ay, az, 0, abx, aby, abz, 0, acx, acy, acz);
+			return;
+		}
+
+		// Vertex b
+		double bpx = px - positions[b];
+		double bpy = py - positions[b + 1];
+		double bpz = pz - positions[b + 2];
+		double d3 = abx * bpx + aby * bpy + abz * bpz;
+		double d4 = acx * bpx + acy * bpy + acz * bpz;
+		if (d3 >= 0 && d4 <= d3) {
+			setPoint(closest, ax, ay, az, 1, abx, aby, abz, 0, acx, acy, acz);
+			return;
+		}
+
+		// Edge ab
+		double vc = d1 * d4 - d3 * d2;
+		if (vc <= 0 && d1 >= 0 && d3 <= 0) {
+			double v = d1 / (d1 - d3);
+			setPoint(closest, ax, ay, az, v, abx, aby, abz, 0, acx, acy, acz);
+			return;
+		}
+
+		// Vertex c
+		double cpx = px - positions[c];
+		double cpy = py - positions[c + 1];
+		double cpz = pz - positions[c + 2];
+		double d5 = abx * cpx + aby * cpy + abz * cpz;
+		double d6 = acx * cpx + acy * cpy + acz * cpz;
+		if (d6 >= 0 && d5 <= d6) {
+			setPoint(closest, ax, ay, az, 0, abx, aby, abz, 1, acx, acy, acz);
+			return;
+		}
+
+		// Edge ac
+		double vb = d5 * d2 - d1 * d6;
+		if (vb <= 0 && d2 >= 0 && d6 <= 0) {
+			double w = d2 / (d2 - d6);
+			setPoint(closest, ax, ay, az, 0, abx, aby, abz, w, acx, acy, acz);
+			return;
+		}
+
+		// Edge bc
+		double va = d3 * d6 - d5 * d4;
+		if (va <= 0 && (d4 - d3) >= 0 && (d5 - d6) >= 0) {
+			double w = (d4 - d3) / ((d4 - d3) + (d5 - d6));
+			setPoint(closest, ax, ay, az, 1 - w, abx, aby, abz, w, acx, acy,
+					acz);
+			return;
+		}
+
+		// The interior
+		double denominator = 1 / (va + vb + vc);
+		setPoint(closest, ax, ay, az, vb * denominator, abx, aby, abz, vc
+				* denominator, acx, acy, acz);
+	}
+
+	/**
+	 * Sets a point to a + v * ab + w * ac.
+	 */
+	private static void setPoint(double[] point, double ax, double ay,
+			double az, double v, double abx, double aby, double abz, double w,
+			double acx, double acy, double acz) {
+		point[0] = ax + v * abx + w * acx;
+		point[1] = ay + v * aby + w * acy;
+		point[2] = az + v * abz + w * acz;
+	}
+
+	/**
+	 * Tests whether a triangle overlaps a box, by looking for an axis which
+	 * separates them among the box's face normals, the triangle's normal, and
+	 * the cross products of their edges.
+	 * 
+	 * @param center
+	 *            The box's center.
+	 * @param half
+	 *            Half the box's size along each axis.
+	 * @return True if the triangle and box overlap, false otherwise.
+	 */
+	private boolean triangleOverlapsBox(int triangle, double[] center,
+			double[] half) {
+
+		// Move the triangle so that the box is centered on the origin
+		double[][] v = new double[3][3];
+		for (int i = 0; i < 3; i++) {
+			int p = triangles[triangle * 3 + i] * 3;
+			for (int axis = 0; axis < 3; axis++) {
+				v[i][axis] = positions[p + axis] - center[axis];
+			}
+		}
+		double[][] edges = new double[3][3];
+		for (int i = 0; i < 3; i++) {
+			for (int axis = 0; axis < 3; axis++) {
+				edges[i][axis] = v[(i + 1) % 3][axis] - v[i][axis];
+			}
+		}
+
+		// The cross product of each box axis with each triangle edge
+		double[] testAxis = new double[3];
+		for (int boxAxis = 0; boxAxis < 3; boxAxis++) {
+			for (int edge = 0; edge < 3; edge++) {
+				int next = (boxAxis + 1) % 3;
+				int last = (boxAxis + 2) % 3;
+				testAxis[boxAxis] = 0;
+				testAxis[next] = -edges[edge][last];
+				testAxis[last] = edges[edge][next];
+				if (separates(v, half, testAxis)) {
+					return false;
+				}
+			}
+		}
+
+		// The box's face normals
+		for (int axis = 0; axis < 3; axis++) {
+			double low = Math.min(v[0][axis], Math.min(v[1][axis], v[2][axis]));
+			double high = Math
+					.max(v[0][axis], Math.max(v[1][axis], v[2][axis]));
+			if (low > half[axis] || high < -half[axis]) {
+				return false;
+			}
+		}
+
+		// The triangle's normal
+		testAxis[0] = edges[0][1] * edges[1][2] - edges[0][2] * edges[1][1];
+		testAxis[1] = edges[0][2] * edges[1][0] - edges[0][0] * edges[1][2];
+		testAxis[2] = edges[0][0] * edges[1][1] - edges[0][1] * edges[1][0];
+		return !separates(v, half, testAxis);
+	}
+
+	/**
+	 * Checks whether an axis separates a triangle from a box centered on the
+	 * origin.
+	 */
+	private static boolean separates(double[][] v, double[] half, double[] axis) {
+		double p0 = v[0][0] * axis[0] + v[0][1] * axis[1] + v[0][2] * axis[2];
+		double p1 = v[1][0] * axis[0] + v[1][1] * axis[1] + v[1][2] * axis[2];
+		double p2 = v[2][0] * axis[0] + v[2][1] * axis[1] + v[2][2] * axis[2];
+		double radius = half[0] * Math.abs(axis[0]) + half[1]
+				* Math.abs(axis[1]) + half[2] * Math.abs(axis[2]);
+		return Math.min(p0, Math.min(p1, p2)) > radius
+				|| Math.max(p0, Math.max(p1, p2)) < -radius;
+	}
+
+	/**
+	 * Extracts the point indices from a TriangleMesh face array, dropping the
+	 * texture coordinate indices.
+	 */
+	private static int[] triangleIndices(int[] faces) {
+		int[] indices = new int[faces.length / 2];
+		for (int i = 0; i < indices.length; i++) {
+			indices[i] = faces[i * 2];
+		}
+		return indices;
+	}
+}
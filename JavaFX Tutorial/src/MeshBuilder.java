@@ -0,0 +1,181 @@
+import java.util.Arrays;
+
+/**
+ * Assembles a custom Mesh one vertex and one entity index at a time, straight
+ * into the packed arrays the mesh is made from. Readers which stream a mesh
+ * in, such as MeshXml, emit into a builder so that no per vertex or per face
+ * objects are created along the way.
+ * 
+ * The arrays grow by doubling, and are trimmed to size when the mesh is
+ * built.
+ * 
+ * @author Robert Smith
+ *
+ */
+public class MeshBuilder {
+
+	/**
+	 * The number of vertices and entities room is made for at first.
+	 */
+	private static final int INITIAL_CAPACITY = 64;
+
+	/**
+	 * The vertex positions, as consecutive (x, y, z) triples.
+	 */
+	private float[] positions;
+
+	/**
+	 * The start of each finished entity in indices, followed by the start of
+	 * the entity being added.
+	 */
+	private int[] offsets;
+
+	/**
+	 * The vertex indices of every entity, stored end to end.
+	 */
+	private int[] indices;
+
+	/**
+	 * The number of vertices added.
+	 */
+	private int vertexCount;
+
+	/**
+	 * The number of entities finished.
+	 */
+	private int entityCount;
+
+	/**
+	 * The number of entity indices added.
+	 */
+	private int indexCount;
+
+	/**
+	 * The default constructor.
+	 */
+	public MeshBuilder() {
+		positions = new float[INITIAL_CAPACITY * 3];
+		offsets = new int[INITIAL_CAPACITY + 1];
+		indices = new int[INITIAL_CAPACITY * 4];
+	}
+
+	/**
+	 * Adds a vertex.
+	 * 
+	 * @param x
+	 *            The vertex's x coordinate.
+	 * @param y
+	 *            The vertex's y coordinate.
+	 * @param z
+	 *            The vertex's z coordinate.
+	 * @return The vertex's index, for use in entities.
+	 */
+	public int addVertex(float x, float y, float z) {
+		if (vertexCount * 3 == positions.length) {
+			positions = Arrays.copyOf(positions, grow(positions.length));
+		}
+		int start = vertexCount * 3;
+		positions[start] = x;
+		positions[start + 1] = y;
+		positions[start + 2] = z;
+		return vertexCount++;
+	}
+
+	/**
+	 * Copies the position of a vertex already added into the given array.
+	 * 
+	 * @param vertex
+	 *            The index of the vertex, as returned by addVertex().
+	 * @param location
+	 *            An array of at least three floats to receive the position.
+	 * @return The location array.
+	 */
+	public float[] getPosition(int vertex, float[] location) {
+		System.arraycopy(positions, vertex * 3, location, 0, 3);
+		return location;
+	}
+
+	/**
+	 * Adds a vertex to the end of the entity being built.
+	 * 
+	 * @param vertex
+	 *            The index of a vertex, as returned by addVertex().
+	 */
+	public void addIndex(int vertex) {
+		if (indexCount == indices.length) {
+			indices = Arrays.copyOf(indices, grow(indices.length));
+		}
+		indices[indexCount++] = vertex;
+	}
+
+	/**
+	 * Finishes the entity being built, made of the indices added since the
+	 * last entity was finished, and starts a new one.
+	 */
+	public void endEntity() {
+		if (entityCount + 2 > offsets.length) {
+			offsets = Arrays.copyOf(offsets, grow(offsets.length));
+		}
+		offsets[++entityCount] = indexCount;
+	}
+
+	/**
+	 * Adds a whole entity.
+	 * 
+	 * @param vertices
+	 *            The indices of the entity's vertices, as returned by
+	 *            addVertex().
+	 */
+	public void addEntity(int... vertices) {
+		for (int vertex : vertices) {
+			addIndex(vertex);
+		}
+		endEntity();
+	}
+
+	/**
+	 * Gets the number of vertices added so far.
+	 * 
+	 * @return The vertex count.
+	 */
+	public int getVertexCount() {
+		return vertexCount;
+	}
+
+	/**
+	 * Gets the number of entities finished so far.
+	 * 
+	 * @return The entity count.
+	 */
+	public int getEntityCount() {
+		return entityCount;
+	}
+
+	/**
+	 * Builds the mesh from the vertices and finished entities. Indices added
+	 * since the last entity was finished are dropped. The builder is emptied,
+	 * ready to build another mesh.
+	 * 
+	 * @return The mesh.
+	 */
+	public Mesh build() {
+		Mesh mesh = new Mesh(Arrays.copyOf(positions, vertexCount * 3),
+				Arrays.copyOf(offsets, entityCount + 1), Arrays.copyOf(indices,
+						offsets[entityCount]));
+		vertexCount = 0;
+		entityCount = 0;
+		indexCount = 0;
+		return mesh;
+	}
+
+	/**
+	 * Gets the length to grow an array to.
+	 */
+	private static int grow(int length) {
+		if (length >= Integer.MAX_VALUE - 8) {
+			throw new IllegalStateException(
+					"MeshBuilder error: The mesh is too large to build.");
+		}
+		return (int) Math.min(Integer.MAX_VALUE - 8, length * 2L);
+	}
+}
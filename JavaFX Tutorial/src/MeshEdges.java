@@ -0,0 +1,78 @@
+/**
+ * Extracts the unique edges of a custom Mesh. Each entity is treated as a
+ * closed loop of vertices, so an entity (a, b, c) has edges (a, b), (b, c) and
+ * (c, a). An edge shared by several entities, or listed in both directions, is
+ * reported only once.
+ * 
+ * Edges are identified by their two vertex indices packed into a single long,
+ * lower index first, and collected in a primitive hash set, so extraction is
+ * linear in the number of entity indices and creates no object per edge.
+ * 
+ * @author Robert Smith
+ *
+ */
+public class MeshEdges {
+
+	/**
+	 * This class only holds static operations.
+	 */
+	private MeshEdges() {
+	}
+
+	/**
+	 * Finds every unique edge of the mesh.
+	 * 
+	 * @param mesh
+	 *            A custom mesh.
+	 * @return The edges as consecutive (start, end) pairs of vertex indices,
+	 *         in the order in which they first appear in the entities.
+	 */
+	public static int[] extractUniqueEdges(Mesh mesh) {
+
+		int[] offsets = mesh.getEntityOffsets();
+		int[] indices = mesh.getEntityIndices();
+		int entityCount = mesh.getEntityCount();
+
+		// A closed mesh has about half as many edges as entity indices
+		LongIntHashMap seen = new LongIntHashMap(indices.length / 2, -1);
+		int[] edges = new int[indices.length * 2];
+		int count = 0;
+
+		for (int entity = 0; entity < entityCount; entity++) {
+			int start = offsets[entity];
+			int size = offsets[entity + 1] - start;
+
+			// A two vertex entity is a single edge rather than a loop
+			int edgeCount = (size == 2 ? 1 : size);
+			for (int i = 0; i < edgeCount && size > 1; i++) {
+				int a = indices[start + i];
+				int b = indices[start + (i + 1) % size];
+				if (a != b && seen.putIfAbsent(key(a, b), count) < 0) {
+					edges[count * 2] = a;
+					edges[count * 2 + 1] = b;
+					count++;
+				}
+			}
+		}
+
+		// Trim the array to the number of edges found
+		int[] unique = new int[count * 2];
+		System.arraycopy(edges, 0, unique, 0, count * 2);
+		return unique;
+	}
+
+	/**
+	 * Packs an undirected edge into a single key.
+	 * 
+	 * @param a
+	 *            One of the edge's vertex indices.
+	 * @param b
+	 *            The edge's other vertex index.
+	 * @return A key which is the same for (a, b) and (b, a).
+	 */
+	public static long key(int a, int b) {
+		int low = Math.min(a, b);
+		int high = Math.max(a, b);
+		return ((long) low << 32) | (high & 0xffffffffL);
+	}
+}
@@ -0,0 +1,331 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads and writes custom Meshes in a versioned binary container, laid out so
+ * that each block can be mapped and copied straight into the mesh's packed
+ * arrays without any parsing.
+ * 
+ * The file is little endian. It starts with a header of six ints: a magic
+ * number, the format version, the number of vertices, the number of
+ * entities, the number of entity indices and the number of attribute blocks.
+ * The position block follows, with three floats per vertex, then the entity
+ * offsets, with one more int than there are entities, then the entity
+ * indices. These are exactly the mesh's own arrays.
+ * 
+ * Optional attribute blocks come last. Each has a header of an int kind, an
+ * int name length and a long data length, then the name in UTF-8 padded to a
+ * multiple of four bytes, then the data. Scalar fields are stored this way,
+ * with one float per vertex. As every block gives its own length, readers
+ * skip blocks of kinds they do not know, so new kinds can be added without
+ * breaking older readers.
+ * 
+ * Blocks are mapped a piece at a time, so they may be larger than a single
+ * mapping allows.
+ * 
+ * @author Robert Smith
+ *
+ */
+public class MeshFile {
+
+	/**
+	 * The number at the start of every mesh file.
+	 */
+	private static final int MAGIC = 0x4253484D;
+
+	/**
+	 * The version of the format written, and the newest one read.
+	 */
+	private static final int VERSION = 1;
+
+	/**
+	 * The size of the file header, in bytes.
+	 */
+	private static final int HEADER_SIZE = 24;
+
+	/**
+	 * The size of an attribute block's header, in bytes.
+	 */
+	private static final int BLOCK_HEADER_SIZE = 16;
+
+	/**
+	 * The attribute block kind holding a scalar field.
+	 */
+	private static final int SCALAR_FIELD = 1;
+
+	/**
+	 * The largest number of bytes mapped at once.
+	 */
+	private static final int MAX_MAPPING = 1 << 30;
+
+	/**
+	 * This class only holds static operations.
+	 */
+	private MeshFile() {
+	}
+
+	/**
+	 * Writes a custom mesh and its scalar fields to a file, replacing any
+	 * existing file.
+	 * 
+	 * @param mesh
+	 *            A custom mesh.
+	 * @param path
+	 *            The file to write.
+	 * @throws IOException
+	 *             If the file cannot be written.
+	 */
+	public static void write(Mesh mesh, Path path) throws IOException {
+		if (!"custom".equals(mesh.getType())) {
+			throw new IllegalArgumentException(
+					"MeshFile error: Only custom meshes can be written.");
+		}
+		float[] positions = mesh.getPositions();
+		int[] offsets = mesh.getEntityOffsets();
+		int[] indices = mesh.getEntityIndices();
+
+		// Gather the fields and their encoded names up front, as the header
+		// holds their count
+		String[] names = mesh.getScalarFieldNames().toArray(new String[0]);
+		byte[][] encoded = new byte[names.length][];
+		float[][] fields = new float[names.length][];
+		for (int i = 0; i < names.length; i++) {
+			encoded[i] = names[i].getBytes(StandardCharsets.UTF_8);
+			fields[i] = mesh.getScalarField(names[i]);
+		}
+
+		try (FileChannel channel = FileChannel.open(path,
+				StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+				StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(
+					ByteOrder.LITTLE_ENDIAN);
+			header.putInt(MAGIC).putInt(VERSION)
+					.putInt(mesh.getVertexCount())
+					.putInt(mesh.getEntityCount()).putInt(indices.length)
+					.putInt(names.length);
+			header.flip();
+			writeFully(channel, header, 0);
+
+			long position = HEADER_SIZE;
+			position = writeFloats(channel, position, positions,
+					mesh.getVertexCount() * 3);
+			position = writeInts(channel, position, offsets, offsets.length);
+			position = writeInts(channel, position, indices, indices.length);
+
+			for (int i = 0; i < names.length; i++) {
+				int paddedLength = (encoded[i].length + 3) & ~3;
+				ByteBuffer block = ByteBuffer.allocate(
+						BLOCK_HEADER_SIZE + paddedLength).order(
+						ByteOrder.LITTLE_ENDIAN);
+				block.putInt(SCALAR_FIELD).putInt(encoded[i].length)
+						.putLong(fields[i].length * 4L).put(encoded[i]);
+				block.position(0);
+				writeFully(channel, block, position);
+				position = writeFloats(channel, position + block.capacity(),
+						fields[i], fields[i].length);
+			}
+		}
+	}
+
+	/**
+	 * Reads a mesh and its scalar fields from a file.
+	 * 
+	 * @param path
+	 *            The file to read.
+	 * @return The mesh.
+	 * @throws IOException
+	 *             If the file cannot be read, is not a mesh file, or is of a
+	 *             version this class does not know.
+	 */
+	public static Mesh read(Path path) throws IOException {
+		try (FileChannel channel = FileChannel.open(path,
+				StandardOpenOption.READ)) {
+			ByteBuffer header = readFully(channel, 0, HEADER_SIZE);
+			int magic = header.getInt();
+			int version = header.getInt();
+			if (magic != MAGIC) {
+				throw new IOException(
+						"MeshFile error: The file is not a mesh file.");
+			} else if (version < 1 || version > VERSION) {
+				throw new IOException(
+						"MeshFile error: The file's format version is not supported.");
+			}
+			int vertexCount = header.getInt();
+			int entityCount = header.getInt();
+			int indexCount = header.getInt();
+			int blockCount = header.getInt();
+			if (vertexCount < 0 || entityCount < 0 || indexCount < 0
+					|| blockCount < 0 || vertexCount > Integer.MAX_VALUE / 3
+					|| entityCount == Integer.MAX_VALUE) {
+				throw new IOException(
+						"MeshFile error: The file's header is corrupt.");
+			}
+
+			// Copy the packed arrays straight out of the mapped file
+			long position = HEADER_SIZE;
+			float[] positions = new float[vertexCount * 3];
+			position = readFloats(channel, position, positions);
+			int[] offsets = new int[entityCount + 1];
+			position = readInts(channel, position, offsets);
+			int[] indices = new int[indexCount];
+			position = readInts(channel, position, indices);
+			Mesh mesh;
+			try {
+				mesh = new Mesh(positions, offsets, indices);
+			} catch (IllegalArgumentException e) {
+				throw new IOException(
+						"MeshFile error: The file's entities are corrupt.", e);
+			}
+
+			// Read the attribute blocks, skipping unknown kinds
+			for (int i = 0; i < blockCount; i++) {
+				ByteBuffer block = readFully(channel, position,
+						BLOCK_HEADER_SIZE);
+				int kind = block.getInt();
+				int nameLength = block.getInt();
+				long dataLength = block.getLong();
+				if (nameLength < 0 || dataLength < 0) {
+					throw new IOException(
+							"MeshFile error: An attribute block is corrupt.");
+				}
+				position += BLOCK_HEADER_SIZE;
+				if (kind == SCALAR_FIELD && dataLength == vertexCount * 4L) {
+					ByteBuffer name = readFully(channel, position, nameLength);
+					float[] field = new float[vertexCount];
+					readFloats(channel, position + ((nameLength + 3) & ~3),
+							field);
+					mesh.setScalarField(new String(name.array(),
+							StandardCharsets.UTF_8), field);
+				}
+				position += ((nameLength + 3) & ~3) + dataLength;
+			}
+			return mesh;
+		}
+	}
+
+	/**
+	 * Copies floats into the file through mappings of at most MAX_MAPPING
+	 * bytes.
+	 * 
+	 * @return The position just after the floats.
+	 */
+	private static long writeFloats(FileChannel channel, long position,
+			float[] values, int count) throws IOException {
+		int step = MAX_MAPPING / 4;
+		for (int start = 0; start < count; start += step) {
+			int length = Math.min(step, count - start);
+			MappedByteBuffer mapping = channel.map(
+					FileChannel.MapMode.READ_WRITE, position + start * 4L,
+					length * 4L);
+			mapping.order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer()
+					.put(values, start, length);
+		}
+		return position + count * 4L;
+	}
+
+	/**
+	 * Copies ints into the file through mappings of at most MAX_MAPPING
+	 * bytes.
+	 * 
+	 * @return The position just after the ints.
+	 */
+	private static long writeInts(FileChannel channel, long position,
+			int[] values, int count) throws IOException {
+		int step = MAX_MAPPING / 4;
+		for (int start = 0; start < count; start += step) {
+			int length = Math.min(step, count - start);
+			MappedByteBuffer mapping = channel.map(
+					FileChannel.MapMode.READ_WRITE, position + start * 4L,
+					length * 4L);
+			mapping.order(ByteOrder.LITTLE_ENDIAN).asIntBuffer()
+					.put(values, start, length);
+		}
+		return position + count * 4L;
+	}
+
+	/**
+	 * Fills an array with floats mapped from the file, at most MAX_MAPPING
+	 * bytes at a time.
+	 * 
+	 * @return The position just after the floats.
+	 */
+	private static long readFloats(FileChannel channel, long position,
+			float[] values) throws IOException {
+		checkLength(channel, position, values.length * 4L);
+		int step = MAX_MAPPING / 4;
+		for (int start = 0; start < values.length; start += step) {
+			int length = Math.min(step, values.length - start);
+			MappedByteBuffer mapping = channel.map(
+					FileChannel.MapMode.READ_ONLY, position + start * 4L,
+					length * 4L);
+			mapping.order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer()
+					.get(values, start, length);
+		}
+		return position + values.length * 4L;
+	}
+
+	/**
+	 * Fills an array with ints mapped from the file, at most MAX_MAPPING
+	 * bytes at a time.
+	 * 
+	 * @return The position just after the ints.
+	 */
+	private static long readInts(FileChannel channel, long position,
+			int[] values) throws IOException {
+		checkLength(channel, position, values.length * 4L);
+		int step = MAX_MAPPING / 4;
+		for (int start = 0; start < values.length; start += step) {
+			int length = Math.min(step, values.length - start);
+			MappedByteBuffer mapping = channel.map(
+					FileChannel.MapMode.READ_ONLY, position + start * 4L,
+					length * 4L);
+			mapping.order(ByteOrder.LITTLE_ENDIAN).asIntBuffer()
+					.get(values, start, length);
+		}
+		return position + values.length * 4L;
+	}
+
+	/**
+	 * Checks that the file holds a block, so that truncated files are
+	 * reported rather than mapped past their end, which would grow them.
+	 */
+	private static void checkLength(FileChannel channel, long position,
+			long length) throws IOException {
+		if (position + length > channel.size()) {
+			throw new IOException("MeshFile error: The file is truncated.");
+		}
+	}
+
+	/**
+	 * Reads a small part of the file into a new buffer.
+	 */
+	private static ByteBuffer readFully(FileChannel channel, long position,
+			int length) throws IOException {
+		checkLength(channel, position, length);
+		ByteBuffer buffer = ByteBuffer.allocate(length).order(
+				ByteOrder.LITTLE_ENDIAN);
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, position + buffer.position()) < 0) {
+				throw new IOException("MeshFile error: The file is truncated.");
+			}
+		}
+		buffer.flip();
+		return buffer;
+	}
+
+	/**
+	 * Writes the whole of a buffer at a position in the file.
+	 */
+	private static void writeFully(FileChannel channel, ByteBuffer buffer,
+			long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			position += channel.write(buffer, position);
+		}
+	}
+}
@@ -0,0 +1,354 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Imports custom Meshes from the standard OBJ, STL and PLY formats, choosing
+ * the format from the file's extension, and holds the machinery the
+ * importers share.
+ * 
+ * Text files are split into chunks of whole lines, each of which is mapped
+ * and parsed by a ByteScanner on the common ForkJoinPool into a mesh of its
+ * own. The chunks' meshes are then joined end to end, so the result is the
+ * same as if the file had been read from start to finish.
+ * 
+ * @author Robert Smith
+ *
+ */
+public class MeshImporter {
+
+	/**
+	 * The size, in bytes, of the chunks text files are split into.
+	 */
+	static final int CHUNK_SIZE = 8 << 20;
+
+	/**
+	 * The distance, relative to the size of the mesh, within which an STL
+	 * file's vertices are welded together.
+	 */
+	private static final float WELD_FRACTION = 1e-6f;
+
+	/**
+	 * This class only holds static operations.
+	 */
+	private MeshImporter() {
+	}
+
+	/**
+	 * Imports a mesh from an OBJ, STL or PLY file. STL files hold a separate
+	 * copy of each vertex for every triangle, so their vertices are welded
+	 * together with a MeshWelder.
+	 * 
+	 * @param path
+	 *            The file, whose extension gives its format.
+	 * @return The mesh.
+	 * @throws IOException
+	 *             If the file cannot be read, is of an unknown format, or is
+	 *             malformed.
+	 */
+	public static Mesh read(Path path) throws IOException {
+		String name = path.getFileName().toString().toLowerCase(Locale.ROOT);
+		if (name.endsWith(".obj")) {
+			return ObjImporter.read(path);
+		} else if (name.endsWith(".ply")) {
+			return PlyImporter.read(path);
+		} else if (name.endsWith(".stl")) {
+			Mesh mesh = StlImporter.read(path);
+			weld(mesh);
+			return mesh;
+		}
+		throw new IOException("MeshImporter error: The format of " + path
+				+ " is not known.");
+	}
+
+	/**
+	 * Welds a mesh's vertices which lie within a tiny fraction of its size of
+	 * one another.
+	 */
+	private static void weld(Mesh mesh) {
+		float[] positions = mesh.getPositions();
+		if (positions.length == 0) {
+			return;
+		}
+		float[] min = { Float.MAX_VALUE, Float.MAX_VALUE, Float.MAX_VALUE };
+		float[] max = { -Float.MAX_VALUE, -Float.MAX_VALUE, -Float.MAX_VALUE };
+		for (int i = 0; i < positions.length; i++) {
+			min[i % 3] = Math.min(min[i % 3], positions[i]);
+			max[i % 3] = Math.max(max[i % 3], positions[i]);
+		}
+		double x = max[0] - min[0];
+		double y = max[1] - min[1];
+		double z = max[2] - min[2];
+		float distance = (float) (Math.sqrt(x * x + y * y + z * z) * WELD_FRACTION);
+		if (distance > 0) {
+			new MeshWelder(distance).weld(mesh);
+		}
+	}
+
+	/**
+	 * Splits part of a file into chunks of about CHUNK_SIZE bytes, each
+	 * ending just after a line break, or at the end of the part.
+	 * 
+	 * @param channel
+	 *            The file.
+	 * @param start
+	 *            The start of the part.
+	 * @param end
+	 *            The end of the part.
+	 * @return The start of each chunk, followed by the end of the part.
+	 * @throws IOException
+	 *             If the file cannot be read.
+	 */
+	static long[] splitLines(FileChannel channel, long start, long end)
+			throws IOException {
+		ArrayList<Long> bounds = new ArrayList<Long>();
+		bounds.add(start);
+		ByteBuffer window = ByteBuffer.allocate(4096);
+		long bound = start;
+		while (end - bound > CHUNK_SIZE) {
+
+			// Move the nominal bound forward to just after a line break
+			bound += CHUNK_SIZE;
+			boolean found = false;
+			while (!found && bound < end) {
+				window.clear();
+				window.limit((int) Math.min(window.capacity(), end - bound));
+				int read = channel.read(window, bound);
+				if (read <= 0) {
+					bound = end;
+					break;
+				}
+				for (int i = 0; i < read && !found; i++) {
+					found = window.get(i) == '\n';
+					bound++;
+				}
+			}
+			if (bound < end) {
+				bounds.add(bound);
+			}
+		}
+		bounds.add(end);
+
+		long[] result = new long[bounds.size()];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = bounds.get(i);
+		}
+		return result;
+	}
+
+	/**
+	 * Parses the chunks of a file in parallel.
+	 * 
+	 * @param channel
+	 *            The file.
+	 * @param bounds
+	 *            The start of each chunk, followed by the end of the last, as
+	 *            given by splitLines().
+	 * @param parser
+	 *            The parser to run on each chunk.
+	 * @return Each chunk's result, in order.
+	 * @throws IOException
+	 *             If a chunk cannot be read or the parser fails.
+	 */
+	static <T> List<T> parseChunks(FileChannel channel, long[] bounds,
+			ChunkParser<T> parser) throws IOException {
+		Object[] results = new Object[bounds.length - 1];
+		try {
+			ForkJoinPool.commonPool().invoke(
+					new ChunkTask<T>(channel, bounds, parser, results, 0,
+							results.length));
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+
+		ArrayList<T> list = new ArrayList<T>(results.length);
+		for (Object result : results) {
+			@SuppressWarnings("unchecked")
+			T chunk = (T) result;
+			list.add(chunk);
+		}
+		return list;
+	}
+
+	/**
+	 * Joins meshes end to end, as if their vertices and entities had been
+	 * read one after the other.
+	 * 
+	 * @param parts
+	 *            The meshes, in order.
+	 * @param local
+	 *            For each part, the entity indices which refer to the part's
+	 *            own vertices and must be moved past those of the parts before
+	 *            it. Other indices already refer to the joined vertices. If
+	 *            null, no indices are local.
+	 * @return The joined mesh.
+	 * @throws IOException
+	 *             If the mesh is too large, or an index refers to a vertex
+	 *             which does not exist.
+	 */
+	static Mesh join(List<Mesh> parts, List<BitSet> local) throws IOException {
+		long vertexCount = 0;
+		long entityCount = 0;
+		long indexCount = 0;
+		for (Mesh part : parts) {
+			vertexCount += part.getVertexCount();
+			entityCount += part.getEntityCount();
+			indexCount += part.getEntityIndices().length;
+		}
+		if (vertexCount * 3 > Integer.MAX_VALUE - 8
+				|| entityCount >= Integer.MAX_VALUE - 8
+				|| indexCount > Integer.MAX_VALUE - 8) {
+			throw new IOException("MeshImporter error: The mesh is too large.");
+		}
+
+		float[] positions = new float[(int) vertexCount * 3];
+		int[] offsets = new int[(int) entityCount + 1];
+		int[] indices = new int[(int) indexCount];
+		int vertexBase = 0;
+		int entityBase = 0;
+		int indexBase = 0;
+		for (int p = 0; p < parts.size(); p++) {
+			Mesh part = parts.get(p);
+			float[] partPositions = part.getPositions();
+			int[] partOffsets = part.getEntityOffsets();
+			int[] partIndices = part.getEntityIndices();
+			BitSet partLocal = (local != null) ? local.get(p) : null;
+
+			System.arraycopy(partPositions, 0, positions, vertexBase * 3,
+					part.getVertexCount() * 3);
+			for (int e = 1; e < partOffsets.length; e++) {
+				offsets[entityBase + e] = indexBase + partOffsets[e];
+			}
+			for (int i = 0; i < partIndices.length; i++) {
+				long index = partIndices[i];
+				if (partLocal != null && partLocal.get(i)) {
+					index += vertexBase;
+				}
+				if (index < 0 || index >= vertexCount) {
+					throw new IOException("MeshImporter error: An entity "
+							+ "refers to a vertex which does not exist.");
+				}
+				indices[indexBase + i] = (int) index;
+			}
+
+			vertexBase += part.getVertexCount();
+			entityBase += part.getEntityCount();
+			indexBase += partIndices.length;
+		}
+		return new Mesh(positions, offsets, indices);
+	}
+
+	/**
+	 * Parses one chunk of a text file.
+	 * 
+	 * @param <T>
+	 *            The result of parsing a chunk.
+	 */
+	interface ChunkParser<T> {
+
+		/**
+		 * Parses a chunk.
+		 * 
+		 * @param scanner
+		 *            A scanner over the chunk's text.
+		 * @param chunk
+		 *            The index of the chunk.
+		 * @return The chunk's result.
+		 * @throws IOException
+		 *             If the chunk is malformed.
+		 */
+		T parse(ByteScanner scanner, int chunk) throws IOException;
+	}
+
+	/**
+	 * A task which maps and parses a range of chunks, splitting the range in
+	 * half until it holds a single chunk.
+	 */
+	private static class ChunkTask<T> extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final FileChannel channel;
+		private final long[] bounds;
+		private final ChunkParser<T> parser;
+
+		/**
+		 * The array to receive each chunk's result.
+		 */
+		private final Object[] results;
+
+		/**
+		 * The first chunk in the range.
+		 */
+		private final int first;
+
+		/**
+		 * One past the last chunk in the range.
+		 */
+		private final int last;
+
+		/**
+		 * The default constructor.
+		 * 
+		 * @param channel
+		 *            The file.
+		 * @param bounds
+		 *            The start of each chunk, followed by the end of the last.
+		 * @param parser
+		 *            The parser to run on each chunk.
+		 * @param results
+		 *            The array to receive each chunk's result.
+		 * @param first
+		 *            The first chunk in the range.
+		 * @param last
+		 *            One past the last chunk in the range.
+		 */
+		public ChunkTask(FileChannel channel, long[] bounds,
+				ChunkParser<T> parser, Object[] results, int first, int last) {
+			this.channel = channel;
+			this.bounds = bounds;
+			this.parser = parser;
+			this.results = results;
+			this.first = first;
+			this.last = last;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * @see java.util.concurrent.RecursiveAction#compute()
+		 */
+		@Override
+		protected void compute() {
+			if (last - first > 1) {
+				int middle = (first + last) >>> 1;
+				invokeAll(new ChunkTask<T>(channel, bounds, parser, results,
+						first, middle), new ChunkTask<T>(channel, bounds,
+						parser, results, middle, last));
+				return;
+			}
+			if (first == last) {
+				return;
+			}
+
+			long start = bounds[first];
+			try {
+				MappedByteBuffer chunk = channel.map(
+						FileChannel.MapMode.READ_ONLY, start, bounds[first + 1]
+								- start);
+				results[first] = parser.parse(new ByteScanner(chunk, start),
+						first);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+	}
+}
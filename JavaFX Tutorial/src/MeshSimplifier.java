@@ -0,0 +1,692 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Supplier;
+
+/**
+ * Reduces custom Meshes to fewer triangles by quadric error edge collapse, and
+ * builds chains of such reductions to serve as levels of detail.
+ * 
+ * Each vertex accumulates a quadric, the sum of the squared distances to the
+ * planes of the triangles around it, weighted by their areas. Boundary edges
+ * add a heavily weighted plane at right angles to their triangle, so that open
+ * borders keep their shape. Every edge is given the cost of collapsing it to
+ * the point which minimizes the sum of its vertices' quadrics, and the
+ * cheapest edge is collapsed repeatedly until the target triangle count is
+ * reached.
+ * 
+ * All state is kept in primitive arrays. The candidate edges wait in a binary
+ * heap of costs and vertex pairs. Rather than being updated when a collapse
+ * moves a vertex, stale entries are recognized when they are removed, by
+ * comparing a version number recorded for each vertex with the one in the
+ * entry. The triangles around each vertex are kept as linked lists in int
+ * arrays, so that the lists of the two vertices of a collapsed edge can be
+ * joined in constant time.
+ * 
+ * The simplified meshes are made only of triangles.
+ * 
+ * @author Robert Smith
+ *
+ */
+public class MeshSimplifier {
+
+	/**
+	 * The weight of the planes which hold boundary edges in place, relative to
+	 * the planes of the triangles.
+	 */
+	private static final double BOUNDARY_WEIGHT = 1000;
+
+	/**
+	 * The fewest triangles a level of detail may be reduced to.
+	 */
+	private static final int MIN_TRIANGLES = 8;
+
+	/**
+	 * The number of levels in a chain, including the source mesh.
+	 */
+	private final int levels;
+
+	/**
+	 * The fraction of the previous level's triangles kept in each level.
+	 */
+	private final double ratio;
+
+	/**
+	 * The pool on which chains are built.
+	 */
+	private final ForkJoinPool pool;
+
+	/**
+	 * Creates a simplifier which builds four levels of detail, each with half
+	 * the triangles of the one before, on the common ForkJoinPool.
+	 */
+	public MeshSimplifier() {
+		this(4, .5, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * The constructor.
+	 * 
+	 * @param levels
+	 *            The number of levels in a chain, including the source mesh.
+	 * @param ratio
+	 *            The fraction of the previous level's triangles to keep in
+	 *            each level, between 0 and 1.
+	 * @param pool
+	 *            The pool on which to build chains.
+	 */
+	public MeshSimplifier(int levels, double ratio, ForkJoinPool pool) {
+		if (levels < 1 || !(ratio > 0 && ratio < 1)) {
+			throw new IllegalArgumentException(
+					"MeshSimplifier error: There must be at least one level and the ratio must be between 0 and 1.");
+		}
+		this.levels = levels;
+		this.ratio = ratio;
+		this.pool = pool;
+	}
+
+	/**
+	 * Builds the levels of detail for a mesh on the simplifier's pool.
+	 * 
+	 * @param source
+	 *            The mesh to simplify.
+	 * @return A future holding the levels, as described in buildLevels().
+	 */
+	public CompletableFuture<List<Mesh>> buildLevelsAsync(final Mesh source) {
+		return CompletableFuture.supplyAsync(new Supplier<List<Mesh>>() {
+			@Override
+			public List<Mesh> get() {
+				return buildLevels(source);
+			}
+		}, pool);
+	}
+
+	/**
+	 * Builds the levels of detail for a mesh. Each level is simplified from
+	 * the one before it. The chain stops early once a level would be too
+	 * small, or could not be reduced any further.
+	 * 
+	 * @param source
+	 *            The mesh to simplify.
+	 * @return The levels, from the source mesh itself at index 0 to the
+	 *         coarsest. Meshes which are not custom have only the one level.
+	 */
+	public List<Mesh> buildLevels(Mesh source) {
+		List<Mesh> chain = new ArrayList<Mesh>();
+		chain.add(source);
+		if (!"custom".equals(source.getType())) {
+			return chain;
+		}
+
+		Mesh current = source;
+		int triangles = countTriangles(source);
+		for (int level = 1; level < levels; level++) {
+			int target = (int) (triangles * ratio);
+			if (target < MIN_TRIANGLES) {
+				break;
+			}
+			Mesh next = simplify(current, target);
+			int reduced = next.getEntityCount();
+			if (reduced >= triangles) {
+				break;
+			}
+			chain.add(next);
+			current = next;
+			triangles = reduced;
+		}
+		return chain;
+	}
+
+	/**
+	 * Simplifies a mesh to at most a given number of triangles, or as close
+	 * to it as collapses which do not fold triangles over allow.
+	 * 
+	 * @param source
+	 *            A custom mesh. It is not changed.
+	 * @param targetTriangles
+	 *            The number of triangles to reduce the mesh to.
+	 * @return A new mesh made of triangles.
+	 */
+	public Mesh simplify(Mesh source, int targetTriangles) {
+		return new Collapser(source).run(targetTriangles);
+	}
+
+	/**
+	 * Counts the triangles a mesh's entities will be split into.
+	 */
+	private static int countTriangles(Mesh mesh) {
+		int[] offsets = mesh.getEntityOffsets();
+		int count = 0;
+		for (int i = 0; i < mesh.getEntityCount(); i++) {
+			count += Math.max(0, offsets[i + 1] - offsets[i] - 2);
+		}
+		return count;
+	}
+
+	/**
+	 * The state of a single simplification.
+	 */
+	private class Collapser {
+
+		/**
+		 * The vertex positions, which are moved as edges collapse.
+		 */
+		private final float[] positions;
+
+		/**
+		 * The triangles, as triples of vertex indices.
+		 */
+		private final int[] triangles;
+
+		/**
+		 * Whether each triangle has been removed.
+		 */
+		private final boolean[] deadTriangle;
+
+		/**
+		 * Whether each vertex has been collapsed into another.
+		 */
+		private final boolean[] deadVertex;
+
+		/**
+		 * Each vertex's quadric, as ten coefficients.
+		 */
+		private final double[] quadrics;
+
+		/**
+		 * The number of times each vertex has been moved by a collapse.
+		 */
+		private final int[] version;
+
+		/**
+		 * The first and last entries of each vertex's triangle list.
+		 */
+		private final int[] head, tail;
+
+		/**
+		 * The triangle of each list entry, and the entry after it.
+		 */
+		private final int[] entryTriangle, entryNext;
+
+		/**
+		 * The heap of candidate edges, ordered by cost.
+		 */
+		private double[] heapCost = new double[64];
+		private int[] heapA = new int[64], heapB = new int[64];
+		private int[] heapVersionA = new int[64], heapVersionB = new int[64];
+		private int heapSize;
+
+		/**
+		 * The number of triangles which have not been removed.
+		 */
+		private int liveTriangles;
+
+		/**
+		 * Scratch space for a sum of two quadrics and a collapse position.
+		 */
+		private final double[] sum = new double[10];
+		private final double[] point = new double[3];
+
+		/**
+		 * Triangulates the source mesh and sets up the quadrics, triangle
+		 * lists and heap.
+		 * 
+		 * @param source
+		 *            The mesh to simplify.
+		 */
+		public Collapser(Mesh source) {
+			positions = source.getPositions().clone();
+			int vertexCount = source.getVertexCount();
+
+			// Split the entities into triangles
+			int[] faces = new TriangleMeshConverter(pool).convertFaces(source);
+			int triangleCount = faces.length / 6;
+			triangles = new int[triangleCount * 3];
+			for (int i = 0; i < triangles.length; i++) {
+				triangles[i] = faces[i * 2];
+			}
+			int[] offsets = new int[triangleCount + 1];
+			for (int i = 0; i <= triangleCount; i++) {
+				offsets[i] = i * 3;
+			}
+			Mesh triangleMesh = new Mesh(positions, offsets, triangles);
+			deadTriangle = new boolean[triangleCount];
+			deadVertex = new boolean[vertexCount];
+			version = new int[vertexCount];
+			liveTriangles = triangleCount;
+
+			// List the triangles around each vertex
+			head = new int[vertexCount];
+			tail = new int[vertexCount];
+			Arrays.fill(head, -1);
+			Arrays.fill(tail, -1);
+			entryTriangle = new int[triangles.length];
+			entryNext = new int[triangles.length];
+			for (int i = 0; i < triangles.length; i++) {
+				int v = triangles[i];
+				entryTriangle[i] = i / 3;
+				entryNext[i] = -1;
+				if (head[v] < 0) {
+					head[v] = i;
+				} else {
+					entryNext[tail[v]] = i;
+				}
+				tail[v] = i;
+			}
+
+			// Sum the area weighted plane of each triangle into its vertices
+			quadrics = new double[vertexCount * 10];
+			double[] normal = new double[3];
+			for (int t = 0; t < triangleCount; t++) {
+				int a = triangles[t * 3];
+				int b = triangles[t * 3 + 1];
+				int c = triangles[t * 3 + 2];
+				double area = normal(a, b, c, normal);
+				if (area == 0) {
+					continue;
+				}
+				double d = -(normal[0] * positions[a * 3] + normal[1]
+						* positions[a * 3 + 1] + normal[2] * positions[a * 3 + 2]);
+				addPlane(a, normal, d, area);
+				addPlane(b, normal, d, area);
+				addPlane(c, normal, d, area);
+			}
+
+			// Hold boundary edges in place with planes at right angles to
+			// their triangles
+			HalfEdgeMesh halfEdges = new HalfEdgeMesh(triangleMesh);
+			for (int h = 0; h < halfEdges.getHalfEdgeCount(); h++) {
+				if (!halfEdges.isBoundary(h)) {
+					continue;
+				}
+				int t = halfEdges.getFace(h);
+				if (normal(triangles[t * 3], triangles[t * 3 + 1],
+						triangles[t * 3 + 2], normal) == 0) {
+					continue;
+				}
+				int a = halfEdges.getOrigin(h);
+				int b = halfEdges.getTarget(h);
+				double ex = positions[b * 3] - positions[a * 3];
+				double ey = positions[b * 3 + 1] - positions[a * 3 + 1];
+				double ez = positions[b * 3 + 2] - positions[a * 3 + 2];
+				double[] side = { ey * normal[2] - ez * normal[1],
+						ez * normal[0] - ex * normal[2],
+						ex * normal[1] - ey * normal[0] };
+				double length = Math.sqrt(side[0] * side[0] + side[1]
+						* side[1] + side[2] * side[2]);
+				if (length == 0) {
+					continue;
+				}
+				side[0] /= length;
+				side[1] /= length;
+				side[2] /= length;
+				double d = -(side[0] * positions[a * 3] + side[1]
+						* positions[a * 3 + 1] + side[2] * positions[a * 3 + 2]);
+				double weight = BOUNDARY_WEIGHT * (ex * ex + ey * ey + ez * ez);
+				addPlane(a, side, d, weight);
+				addPlane(b, side, d, weight);
+			}
+
+			// Queue every edge
+			int[] edges = MeshEdges.extractUniqueEdges(triangleMesh);
+			for (int i = 0; i < edges.length; i += 2) {
+				push(edges[i], edges[i + 1]);
+			}
+		}
+
+		/**
+		 * Collapses the cheapest edges until the target is reached or no
+		 * edges remain.
+		 * 
+		 * @param targetTriangles
+		 *            The number of triangles to stop at.
+		 * @return The simplified mesh.
+		 */
+		public Mesh run(int targetTriangles) {
+			while (liveTriangles > targetTriangles && heapSize > 0) {
+				int a = heapA[0], b = heapB[0];
+				boolean current = !deadVertex[a] && !deadVertex[b]
+						&& version[a] == heapVersionA[0]
+						&& version[b] == heapVersionB[0];
+				pop();
+				if (!current) {
+					continue;
+				}
+
+				cost(a, b);
+				if (flips(a, b) || flips(b, a)) {
+					continue;
+				}
+				collapse(a, b);
+			}
+			return buildMesh();
+		}
+
+		/**
+		 * Moves a to the collapse position and removes b, along with the
+		 * triangles which held both.
+		 */
+		private void collapse(int a, int b) {
+			positions[a * 3] = (float) point[0];
+			positions[a * 3 + 1] = (float) point[1];
+			positions[a * 3 + 2] = (float) point[2];
+			for (int i = 0; i < 10; i++) {
+				quadrics[a * 10 + i] += quadrics[b * 10 + i];
+			}
+			deadVertex[b] = true;
+			version[a]++;
+
+			// Remove the triangles on the edge and give b's others to a
+			for (int e = head[b]; e >= 0; e = entryNext[e]) {
+				int t = entryTriangle[e];
+				if (deadTriangle[t]) {
+					continue;
+				}
+				int slotB = -1;
+				boolean hasA = false;
+				for (int k = 0; k < 3; k++) {
+					if (triangles[t * 3 + k] == b) {
+						slotB = k;
+					} else if (triangles[t * 3 + k] == a) {
+						hasA = true;
+					}
+				}
+				if (hasA) {
+					deadTriangle[t] = true;
+					liveTriangles--;
+				} else if (slotB >= 0) {
+					triangles[t * 3 + slotB] = a;
+				}
+			}
+			if (head[b] >= 0) {
+				if (head[a] < 0) {
+					head[a] = head[b];
+				} else {
+					entryNext[tail[a]] = head[b];
+				}
+				tail[a] = tail[b];
+			}
+
+			// Queue the edges around the moved vertex at their new costs
+			for (int e = head[a]; e >= 0; e = entryNext[e]) {
+				int t = entryTriangle[e];
+				if (deadTriangle[t]) {
+					continue;
+				}
+				for (int k = 0; k < 3; k++) {
+					int other = triangles[t * 3 + k];
+					if (other != a) {
+						push(a, other);
+					}
+				}
+			}
+		}
+
+		/**
+		 * Checks whether moving vertex v to the collapse position would turn
+		 * over any of its triangles which do not also hold the other vertex.
+		 */
+		private boolean flips(int v, int other) {
+			double[] before = new double[3];
+			for (int e = head[v]; e >= 0; e = entryNext[e]) {
+				int t = entryTriangle[e];
+				if (deadTriangle[t]) {
+					continue;
+				}
+
+				// Find the triangle's other vertices, in order after v
+				int slot = 0;
+				while (triangles[t * 3 + slot] != v) {
+					slot++;
+				}
+				int p = triangles[t * 3 + (slot + 1) % 3];
+				int q = triangles[t * 3 + (slot + 2) % 3];
+				if (p == other || q == other) {
+					continue;
+				}
+
+				if (normal(v, p, q, before) == 0) {
+					continue;
+				}
+				double px = positions[p * 3] - point[0];
+				double py = positions[p * 3 + 1] - point[1];
+				double pz = positions[p * 3 + 2] - point[2];
+				double qx = positions[q * 3] - point[0];
+				double qy = positions[q * 3 + 1] - point[1];
+				double qz = positions[q * 3 + 2] - point[2];
+				double nx = py * qz - pz * qy;
+				double ny = pz * qx - px * qz;
+				double nz = px * qy - py * qx;
+				if (nx * before[0] + ny * before[1] + nz * before[2] <= 0) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		/**
+		 * Finds the cost of collapsing an edge, leaving the best position in
+		 * point. The position minimizing the summed quadric is used when it
+		 * is well defined; otherwise the best of the two ends and the middle.
+		 * 
+		 * @return The quadric error at the chosen position.
+		 */
+		private double cost(int a, int b) {
+			for (int i = 0; i < 10; i++) {
+				sum[i] = quadrics[a * 10 + i] + quadrics[b * 10 + i];
+			}
+			double q00 = sum[0], q01 = sum[1], q02 = sum[2], q03 = sum[3];
+			double q11 = sum[4], q12 = sum[5], q13 = sum[6];
+			double q22 = sum[7], q23 = sum[8];
+
+			// Solve the 3x3 system by Cramer's rule if it is well conditioned
+			double c00 = q11 * q22 - q12 * q12;
+			double c01 = q02 * q12 - q01 * q22;
+			double c02 = q01 * q12 - q02 * q11;
+			double determinant = q00 * c00 + q01 * c01 + q02 * c02;
+			double trace = (q00 + q11 + q22) / 3;
+			if (Math.abs(determinant) > 1e-9 * trace * trace * trace) {
+				double c11 = q00 * q22 - q02 * q02;
+				double c12 = q01 * q02 - q00 * q12;
+				double c22 = q00 * q11 - q01 * q01;
+				point[0] = -(c00 * q03 + c01 * q13 + c02 * q23) / determinant;
+				point[1] = -(c01 * q03 + c11 * q13 + c12 * q23) / determinant;
+				point[2] = -(c02 * q03 + c12 * q13 + c22 * q23) / determinant;
+				return error(point[0], point[1], point[2]);
+			}
+
+			// Otherwise try the ends and the middle
+			double best = Double.POSITIVE_INFINITY;
+			for (int option = 0; option < 3; option++) {
+				double x, y, z;
+				if (option < 2) {
+					int v = (option == 0) ? a : b;
+					x = positions[v * 3];
+					y = positions[v * 3 + 1];
+					z = positions[v * 3 + 2];
+				} else {
+					x = (positions[a * 3] + positions[b * 3]) / 2.0;
+					y = (positions[a * 3 + 1] + positions[b * 3 + 1]) / 2.0;
+					z = (positions[a * 3 + 2] + positions[b * 3 + 2]) / 2.0;
+				}
+				double error = error(x, y, z);
+				if (error < best) {
+					best = error;
+					point[0] = x;
+					point[1] = y;
+					point[2] = z;
+				}
+			}
+			return best;
+		}
+
+		/**
+		 * Evaluates the summed quadric at a point.
+		 */
+		private double error(double x, double y, double z) {
+			return sum[0] * x * x + 2 * sum[1] * x * y + 2 * sum[2] * x * z
+					+ 2 * sum[3] * x + sum[4] * y * y + 2 * sum[5] * y * z + 2
+					* sum[6] * y + sum[7] * z * z + 2 * sum[8] * z + sum[9];
+		}
+
+		/**
+		 * Adds a weighted plane, n . p + d = 0, to a vertex's quadric.
+		 */
+		private void addPlane(int v, double[] n, double d, double weight) {
+			int q = v * 10;
+			quadrics[q] += weight * n[0] * n[0];
+			quadrics[q + 1] += weight * n[0] * n[1];
+			quadrics[q + 2] += weight * n[0] * n[2];
+			quadrics[q + 3] += weight * n[0] * d;
+			quadrics[q + 4] += weight * n[1] * n[1];
+			quadrics[q + 5] += weight * n[1] * n[2];
+			quadrics[q + 6] += weight * n[1] * d;
+			quadrics[q + 7] += weight * n[2] * n[2];
+			quadrics[q + 8] += weight * n[2] * d;
+			quadrics[q + 9] += weight * d * d;
+		}
+
+		/**
+		 * Finds the unit normal of a triangle.
+		 * 
+		 * @return The triangle's area, or 0 if it is degenerate, in which
+		 *         case the normal is not set.
+		 */
+		private double normal(int a, int b, int c, double[] normal) {
+			double abx = positions[b * 3] - positions[a * 3];
+			double aby = positions[b * 3 + 1] - positions[a * 3 + 1];
+			double abz = positions[b * 3 + 2] - positions[a * 3 + 2];
+			double acx = positions[c * 3] - positions[a * 3];
+			double acy = positions[c * 3 + 1] - positions[a * 3 + 1];
+			double acz = positions[c * 3 + 2] - positions[a * 3 + 2];
+			double nx = aby * acz - abz * acy;
+			double ny = abz * acx - abx * acz;
+			double nz = abx * acy - aby * acx;
+			double length = Math.sqrt(nx * nx + ny * ny + nz * nz);
+			if (length == 0) {
+				return 0;
+			}
+			normal[0] = nx / length;
+			normal[1] = ny / length;
+			normal[2] = nz / length;
+			return length / 2;
+		}
+
+		/**
+		 * Adds an edge to the heap at its current cost.
+		 */
+		private void push(int a, int b) {
+			if (heapSize == heapCost.length) {
+				int capacity = heapSize * 2;
+				heapCost = Arrays.copyOf(heapCost, capacity);
+				heapA = Arrays.copyOf(heapA, capacity);
+				heapB = Arrays.copyOf(heapB, capacity);
+				heapVersionA = Arrays.copyOf(heapVersionA, capacity);
+				heapVersionB = Arrays.copyOf(heapVersionB, capacity);
+			}
+			double cost = cost(a, b);
+
+			// Sift the new entry up from the bottom
+			int i = heapSize++;
+			while (i > 0) {
+				int parent = (i - 1) >>> 1;
+				if (heapCost[parent] <= cost) {
+					break;
+				}
+				moveEntry(parent, i);
+				i = parent;
+			}
+			heapCost[i] = cost;
+			heapA[i] = a;
+			heapB[i] = b;
+			heapVersionA[i] = version[a];
+			heapVersionB[i] = version[b];
+		}
+
+		/**
+		 * Removes the cheapest edge from the heap.
+		 */
+		private void pop() {
+			heapSize--;
+			if (heapSize == 0) {
+				return;
+			}
+
+			// Sift the last entry down from the top
+			double cost = heapCost[heapSize];
+			int a = heapA[heapSize], b = heapB[heapSize];
+			int versionA = heapVersionA[heapSize];
+			int versionB = heapVersionB[heapSize];
+			int i = 0;
+			while (true) {
+				int child = i * 2 + 1;
+				if (child >= heapSize) {
+					break;
+				}
+				if (child + 1 < heapSize
+						&& heapCost[child + 1] < heapCost[child]) {
+					child++;
+				}
+				if (cost <= heapCost[child]) {
+					break;
+				}
+				moveEntry(child, i);
+				i = child;
+			}
+			heapCost[i] = cost;
+			heapA[i] = a;
+			heapB[i] = b;
+			heapVersionA[i] = versionA;
+			heapVersionB[i] = versionB;
+		}
+
+		/**
+		 * Copies a heap entry from one position to another.
+		 */
+		private void moveEntry(int from, int to) {
+			heapCost[to] = heapCost[from];
+			heapA[to] = heapA[from];
+			heapB[to] = heapB[from];
+			heapVersionA[to] = heapVersionA[from];
+			heapVersionB[to] = heapVersionB[from];
+		}
+
+		/**
+		 * Gathers the remaining triangles and the vertices they use into a new
+		 * mesh.
+		 */
+		private Mesh buildMesh() {
+			int[] remap = new int[deadVertex.length];
+			Arrays.fill(remap, -1);
+			int vertexCount = 0;
+			int[] indices = new int[liveTriangles * 3];
+			int[] offsets = new int[liveTriangles + 1];
+			int next = 0;
+			for (int t = 0; t < deadTriangle.length; t++) {
+				if (deadTriangle[t]) {
+					continue;
+				}
+				offsets[next / 3] = next;
+				for (int k = 0; k < 3; k++) {
+					int v = triangles[t * 3 + k];
+					if (remap[v] < 0) {
+						remap[v] = vertexCount++;
+					}
+					indices[next++] = remap[v];
+				}
+			}
+			offsets[liveTriangles] = next;
+
+			float[] compacted = new float[vertexCount * 3];
+			for (int v = 0; v < remap.length; v++) {
+				if (remap[v] >= 0) {
+					System.arraycopy(positions, v * 3, compacted,
+							remap[v] * 3, 3);
+				}
+			}
+			return new Mesh(compacted, offsets, indices);
+		}
+	}
+}
@@ -0,0 +1,286 @@
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Welds together the vertices of a custom Mesh which lie within a small
+ * distance of one another, such as the copies of a shared corner that CAD
+ * exports write out once per face. The duplicates are removed from the mesh's
+ * positions and the entity indices are remapped in place to the surviving
+ * vertices.
+ * 
+ * Vertices are sorted into a uniform spatial hash whose cells are as wide as
+ * the welding distance, so each vertex only needs to be compared with those in
+ * its own and the 26 surrounding cells. The cells are stored in compressed
+ * sparse row form, and searched in parallel on a ForkJoinPool. Each vertex is
+ * welded to the lowest numbered vertex within the welding distance of it,
+ * following chains of such vertices, so the result does not depend on how the
+ * search was scheduled.
+ * 
+ * @author Robert Smith
+ *
+ */
+public class MeshWelder {
+
+	/**
+	 * The number of hash cells below which a task searches its cells itself
+	 * rather than splitting.
+	 */
+	private static final int CELLS_PER_TASK = 1024;
+
+	/**
+	 * The largest distance between two vertices which are welded together.
+	 */
+	private final float epsilon;
+
+	/**
+	 * The pool on which the hash cells are searched.
+	 */
+	private final ForkJoinPool pool;
+
+	/**
+	 * Creates a welder which uses the common ForkJoinPool.
+	 * 
+	 * @param epsilon
+	 *            The largest distance between two vertices which are welded
+	 *            together. It must be positive.
+	 */
+	public MeshWelder(float epsilon) {
+		this(epsilon, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Creates a welder which uses the given pool.
+	 * 
+	 * @param epsilon
+	 *            The largest distance between two vertices which are welded
+	 *            together. It must be positive.
+	 * @param pool
+	 *            The pool on which to search the hash cells.
+	 */
+	public MeshWelder(float epsilon, ForkJoinPool pool) {
+		if (!(epsilon > 0)) {
+			throw new IllegalArgumentException(
+					"MeshWelder error: The welding distance must be positive.");
+		}
+		this.epsilon = epsilon;
+		this.pool = pool;
+	}
+
+	/**
+	 * Welds the mesh's vertices. The mesh's positions are replaced with the
+	 * surviving vertices, in their original order, and its entity indices are
+	 * rewritten to refer to them.
+	 * 
+	 * @param mesh
+	 *            A custom mesh.
+	 * @return For each of the mesh's original vertices, the index of the
+	 *         vertex it became, so that any per vertex data held elsewhere can
+	 *         be remapped in the same way.
+	 */
+	public int[] weld(Mesh mesh) {
+		float[] positions = mesh.getPositions();
+		int vertexCount = mesh.getVertexCount();
+
+		// Find each vertex's cell, numbering the cells as they are first seen
+		LongIntHashMap cellIds = new LongIntHashMap(vertexCount, -1);
+		int[] vertexCells = new int[vertexCount];
+		int cellCount = 0;
+		for (int v = 0; v < vertexCount; v++) {
+			long key = cellKey(cellCoordinate(positions[v * 3]),
+					cellCoordinate(positions[v * 3 + 1]),
+					cellCoordinate(positions[v * 3 + 2]));
+			int cell = cellIds.putIfAbsent(key, cellCount);
+			if (cell < 0) {
+				cell = cellCount++;
+			}
+			vertexCells[v] = cell;
+		}
+
+		// Lay the cells out end to end, each holding its vertices in order
+		int[] cellStart = new int[cellCount + 1];
+		for (int v = 0; v < vertexCount; v++) {
+			cellStart[vertexCells[v] + 1]++;
+		}
+		for (int cell = 0; cell < cellCount; cell++) {
+			cellStart[cell + 1] += cellStart[cell];
+		}
+		int[] cellItems = new int[vertexCount];
+		int[] fill = new int[cellCount];
+		for (int v = 0; v < vertexCount; v++) {
+			int cell = vertexCells[v];
+			cellItems[cellStart[cell] + fill[cell]++] = v;
+		}
+
+		// Find the lowest numbered vertex near each vertex
+		int[] target = new int[vertexCount];
+		pool.invoke(new SearchTask(positions, cellIds, cellStart, cellItems,
+				target, 0, cellCount));
+
+		// Follow each vertex's chain down to a surviving vertex, numbering
+		// the survivors as they are found. Targets are never above the vertex
+		// itself, so they are always resolved first.
+		int[] remap = new int[vertexCount];
+		int survivors = 0;
+		for (int v = 0; v < vertexCount; v++) {
+			remap[v] = (target[v] == v) ? survivors++ : remap[target[v]];
+		}
+
+		// Nothing to do if every vertex survived
+		if (survivors == vertexCount) {
+			return remap;
+		}
+
+		// Compact the positions and remap the entities in place
+		float[] welded = new float[survivors * 3];
+		for (int v = 0; v < vertexCount; v++) {
+			if (target[v] == v) {
+				System.arraycopy(positions, v * 3, welded, remap[v] * 3, 3);
+			}
+		}
+		int[] indices = mesh.getEntityIndices();
+		for (int i = 0; i < indices.length; i++) {
+			indices[i] = remap[indices[i]];
+		}
+		mesh.setPositions(welded);
+
+		return remap;
+	}
+
+	/**
+	 * Gets the cell holding a coordinate along one axis.
+	 */
+	private int cellCoordinate(float value) {
+		return (int) Math.floor(value / epsilon);
+	}
+
+	/**
+	 * Packs a cell's coordinates into a single key, 21 bits per axis. Cells
+	 * far enough apart to share a key are simply searched together, which is
+	 * harmless as distances are always checked exactly.
+	 */
+	private static long cellKey(int x, int y, int z) {
+		return ((x & 0x1fffffL) << 42) | ((y & 0x1fffffL) << 21)
+				| (z & 0x1fffffL);
+	}
+
+	/**
+	 * A task which searches a range of hash cells for vertices to weld,
+	 * splitting the range in half until it is small enough to handle
+	 * directly.
+	 */
+	private class SearchTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final float[] positions;
+		private final LongIntHashMap cellIds;
+		private final int[] cellStart;
+		private final int[] cellItems;
+
+		/**
+		 * For each vertex, the lowest numbered vertex within the welding
+		 * distance of it, which may be itself.
+		 */
+		private final int[] target;
+
+		/**
+		 * The first cell in the range.
+		 */
+		private final int first;
+
+		/**
+		 * One past the last cell in the range.
+		 */
+		private final int last;
+
+		/**
+		 * The default constructor.
+		 * 
+		 * @param positions
+		 *            The mesh's packed positions.
+		 * @param cellIds
+		 *            The number of each cell, by its key.
+		 * @param cellStart
+		 *            The start of each cell in cellItems.
+		 * @param cellItems
+		 *            The vertices in each cell.
+		 * @param target
+		 *            The array to receive each vertex's target.
+		 * @param first
+		 *            The first cell in the range.
+		 * @param last
+		 *            One past the last cell in the range.
+		 */
+		public SearchTask(float[] positions, LongIntHashMap cellIds,
+				int[] cellStart, int[] cellItems, int[] target, int first,
+				int last) {
+			this.positions = positions;
+			this.cellIds = cellIds;
+			this.cellStart = cellStart;
+			this.cellItems = cellItems;
+			this.target = target;
+			this.first = first;
+			this.last = last;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * @see java.util.concurrent.RecursiveAction#compute()
+		 */
+		@Override
+		protected void compute() {
+
+			// Split large ranges in half
+			if (last - first > CELLS_PER_TASK) {
+				int middle = (first + last) >>> 1;
+				invokeAll(new SearchTask(positions, cellIds, cellStart,
+						cellItems, target, first, middle), new SearchTask(
+						positions, cellIds, cellStart, cellItems, target,
+						middle, last));
+				return;
+			}
+
+			float limit = epsilon * epsilon;
+			for (int cell = first; cell < last; cell++) {
+				for (int i = cellStart[cell]; i < cellStart[cell + 1]; i++) {
+					int v = cellItems[i];
+					float x = positions[v * 3];
+					float y = positions[v * 3 + 1];
+					float z = positions[v * 3 + 2];
+					int cx = cellCoordinate(x);
+					int cy = cellCoordinate(y);
+					int cz = cellCoordinate(z);
+					int best = v;
+
+					// Check every vertex numbered below the best so far in the
+					// surrounding cells
+					for (int dx = -1; dx <= 1; dx++) {
+						for (int dy = -1; dy <= 1; dy++) {
+							for (int dz = -1; dz <= 1; dz++) {
+								int neighbor = cellIds.get(cellKey(cx + dx, cy
+										+ dy, cz + dz));
+								if (neighbor < 0) {
+									continue;
+								}
+								for (int j = cellStart[neighbor]; j < cellStart[neighbor + 1]; j++) {
+									int u = cellItems[j];
+									if (u >= best) {
+										break;
+									}
+									float ex = positions[u * 3] - x;
+									float ey = positions[u * 3 + 1] - y;
+									float ez = positions[u * 3 + 2] - z;
+									if (ex * ex + ey * ey + ez * ez <= limit) {
+										best = u;
+										break;
+									}
+								}
+							}
+						}
+					}
+					target[v] = best;
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,434 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+
+/**
+ * Streams meshes to and from the XML which JAXB binds to Polygons, Edges and
+ * Vertices, so that files shared with other tools can be read and written
+ * without building the whole object graph in memory.
+ * 
+ * Reading walks the document with StAX and emits into a MeshBuilder as it
+ * goes. Each Vertex element outside an Edge becomes a vertex of the mesh,
+ * unless an earlier one is equal to it in the sense of Vertex.equals(), with
+ * the same id, name, description and location, in which case they share a
+ * vertex, as a Polygon's vertices are shared with its neighbours. As every
+ * Vertex has the same id until one is set, the id alone is not enough. Each
+ * Polygon becomes an entity made of its own Vertex children, in order. Edges
+ * only repeat their polygon's vertices, so they are skipped, as are any
+ * elements which are not understood. Beyond the mesh itself, the only memory
+ * used is a table of a few ints per vertex, for finding equal vertices.
+ * 
+ * Writing produces one Polygon element per entity, each with its Vertex and
+ * Edge children under the names the Polygon, Vertex and Edge bindings use.
+ * Vertices are given their index in the mesh as their id, so that shared
+ * vertices are shared again when read back. No JAXB class binds a list of
+ * Polygons, so they are wrapped in a Polygons element of this class's own.
+ * The document as a whole is only meant to be read back by read(), which
+ * accepts Polygon elements under any root, including a single JAXB Polygon
+ * document and the PlantComponent wrapper earlier versions wrote.
+ * 
+ * @author Robert Smith
+ *
+ */
+public class MeshXml {
+
+	/**
+	 * The root element written around the polygons. It is not part of the
+	 * JAXB schema.
+	 */
+	private static final String POLYGONS = "Polygons";
+
+	/**
+	 * The element names and attribute names of the JAXB schema.
+	 */
+	private static final String POLYGON = "Polygon";
+	private static final String EDGE = "Edge";
+	private static final String VERTEX = "Vertex";
+	private static final String ID = "id";
+	private static final String NAME = "name";
+	private static final String DESCRIPTION = "description";
+	private static final String LOCATION = "location";
+	private static final String LENGTH = "length";
+
+	/**
+	 * This class only holds static operations.
+	 */
+	private MeshXml() {
+	}
+
+	/**
+	 * Reads a mesh from a file.
+	 * 
+	 * @param path
+	 *            The file to read.
+	 * @return The mesh.
+	 * @throws IOException
+	 *             If the file cannot be read or is not well formed.
+	 */
+	public static Mesh read(Path path) throws IOException {
+		MeshBuilder builder = new MeshBuilder();
+		try (InputStream input = new BufferedInputStream(
+				Files.newInputStream(path))) {
+			read(input, builder);
+		}
+		return builder.build();
+	}
+
+	/**
+	 * Reads the vertices and polygons of a document into a builder. The
+	 * stream is not closed.
+	 * 
+	 * @param input
+	 *            The document to read.
+	 * @param builder
+	 *            The builder to add the vertices and entities to.
+	 * @throws IOException
+	 *             If the document cannot be read or is not well formed.
+	 */
+	public static void read(InputStream input, MeshBuilder builder)
+			throws IOException {
+		XMLInputFactory factory = XMLInputFactory.newInstance();
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES,
+				false);
+
+		// The mesh's vertices seen so far, by id
+		VertexTable vertices = new VertexTable();
+
+		XMLStreamReader reader = null;
+		try {
+			reader = factory.createXMLStreamReader(input);
+			int depth = 0;
+			int polygonDepth = -1;
+			int edgeCount = 0;
+			while (reader.hasNext()) {
+				int event = reader.next();
+				if (event == XMLStreamConstants.START_ELEMENT) {
+					depth++;
+					String name = reader.getLocalName();
+					if (POLYGON.equals(name) && polygonDepth < 0) {
+						polygonDepth = depth;
+					} else if (EDGE.equals(name)) {
+						edgeCount++;
+					} else if (VERTEX.equals(name) && edgeCount == 0) {
+						int vertex = readVertex(reader, vertices, builder);
+						if (depth == polygonDepth + 1) {
+							builder.addIndex(vertex);
+						}
+					}
+				} else if (event == XMLStreamConstants.END_ELEMENT) {
+					String name = reader.getLocalName();
+					if (depth == polygonDepth) {
+						builder.endEntity();
+						polygonDepth = -1;
+					} else if (EDGE.equals(name)) {
+						edgeCount--;
+					}
+					depth--;
+				}
+			}
+		} catch (XMLStreamException e) {
+			throw new IOException("MeshXml error: The document is not valid.",
+					e);
+		} finally {
+			if (reader != null) {
+				try {
+					reader.close();
+				} catch (XMLStreamException e) {
+					// The document has already been read
+				}
+			}
+		}
+	}
+
+	/**
+	 * Finds the mesh's vertex for a Vertex element, adding it to the builder
+	 * unless an equal vertex has been seen before. Vertices without an id are
+	 * never shared.
+	 * 
+	 * @return The vertex's index in the builder.
+	 */
+	private static int readVertex(XMLStreamReader reader,
+			VertexTable vertices, MeshBuilder builder) throws IOException {
+		String id = reader.getAttributeValue(null, ID);
+		long key = 0;
+		if (id != null) {
+			try {
+				key = Integer.parseInt(id.trim());
+			} catch (NumberFormatException e) {
+				throw new IOException("MeshXml error: Vertex id \"" + id
+						+ "\" is not an integer.", e);
+			}
+		}
+		String name = reader.getAttributeValue(null, NAME);
+		String description = reader.getAttributeValue(null, DESCRIPTION);
+
+		// Parse the location's three whitespace separated coordinates
+		String location = reader.getAttributeValue(null, LOCATION);
+		float[] coordinates = new float[3];
+		int end = 0;
+		for (int i = 0; i < 3 && location != null; i++) {
+			int start = end;
+			while (start < location.length()
+					&& Character.isWhitespace(location.charAt(start))) {
+				start++;
+			}
+			end = start;
+			while (end < location.length()
+					&& !Character.isWhitespace(location.charAt(end))) {
+				end++;
+			}
+			if (start == end) {
+				break;
+			}
+			try {
+				coordinates[i] = Float.parseFloat(location.substring(start,
+						end));
+			} catch (NumberFormatException e) {
+				throw new IOException("MeshXml error: Vertex location \""
+						+ location + "\" is not three numbers.", e);
+			}
+		}
+
+		int vertex = -1;
+		if (id != null) {
+			vertex = vertices.find(key, name, description, coordinates,
+					builder);
+		}
+		if (vertex < 0) {
+			vertex = builder.addVertex(coordinates[0], coordinates[1],
+					coordinates[2]);
+			if (id != null) {
+				vertices.add(key, name, description, vertex);
+			}
+		}
+		return vertex;
+	}
+
+	/**
+	 * Writes a custom mesh to a file, replacing any existing file.
+	 * 
+	 * @param mesh
+	 *            A custom mesh.
+	 * @param path
+	 *            The file to write.
+	 * @throws IOException
+	 *             If the file cannot be written.
+	 */
+	public static void write(Mesh mesh, Path path) throws IOException {
+		try (OutputStream output = new BufferedOutputStream(
+				Files.newOutputStream(path))) {
+			write(mesh, output);
+		}
+	}
+
+	/**
+	 * Writes a custom mesh as a document. The stream is not closed.
+	 * 
+	 * @param mesh
+	 *            A custom mesh.
+	 * @param output
+	 *            The stream to write the document to.
+	 * @throws IOException
+	 *             If the document cannot be written.
+	 */
+	public static void write(Mesh mesh, OutputStream output)
+			throws IOException {
+		if (!"custom".equals(mesh.getType())) {
+			throw new IllegalArgumentException(
+					"MeshXml error: Only custom meshes can be written.");
+		}
+		float[] positions = mesh.getPositions();
+		int[] offsets = mesh.getEntityOffsets();
+		int[] indices = mesh.getEntityIndices();
+
+		try {
+			XMLStreamWriter writer = XMLOutputFactory.newInstance()
+					.createXMLStreamWriter(output, "UTF-8");
+			writer.writeStartDocument("UTF-8", "1.0");
+			writer.writeStartElement(POLYGONS);
+
+			int edgeId = 0;
+			for (int entity = 0; entity < mesh.getEntityCount(); entity++) {
+				int start = offsets[entity];
+				int size = offsets[entity + 1] - start;
+				writer.writeCharacters("\n");
+				writer.writeStartElement(POLYGON);
+				writeIdentity(writer, entity, POLYGON, "");
+				for (int i = 0; i < size; i++) {
+					writeVertex(writer, positions, indices[start + i]);
+				}
+
+				// Each edge joins a vertex to the next, closing the loop
+				for (int i = 0; i < size; i++) {
+					int first = indices[start + i];
+					int second = indices[start + (i + 1) % size];
+					writer.writeStartElement(EDGE);
+					writeIdentity(writer, edgeId++, EDGE, "");
+					writer.writeAttribute(LENGTH, Float.toString(distance(
+							positions, first, second)));
+					writeVertex(writer, positions, first);
+					writeVertex(writer, positions, second);
+					writer.writeEndElement();
+				}
+				writer.writeEndElement();
+			}
+
+			writer.writeCharacters("\n");
+			writer.writeEndElement();
+			writer.writeEndDocument();
+			writer.close();
+		} catch (XMLStreamException e) {
+			throw new IOException("MeshXml error: The document could not be "
+					+ "written.", e);
+		}
+	}
+
+	/**
+	 * Writes the id, name and description attributes every VizObject has.
+	 */
+	private static void writeIdentity(XMLStreamWriter writer, int id,
+			String name, String description) throws XMLStreamException {
+		writer.writeAttribute(DESCRIPTION, description);
+		writer.writeAttribute(ID, Integer.toString(id));
+		writer.writeAttribute(NAME, name);
+	}
+
+	/**
+	 * Writes a Vertex element for one of the mesh's vertices.
+	 */
+	private static void writeVertex(XMLStreamWriter writer, float[] positions,
+			int vertex) throws XMLStreamException {
+		writer.writeEmptyElement(VERTEX);
+		writeIdentity(writer, vertex, VERTEX, "");
+		writer.writeAttribute(LOCATION, positions[vertex * 3] + " "
+				+ positions[vertex * 3 + 1] + " " + positions[vertex * 3 + 2]);
+	}
+
+	/**
+	 * Gets the distance between two of the mesh's vertices.
+	 */
+	private static float distance(float[] positions, int first, int second) {
+		float x = positions[second * 3] - positions[first * 3];
+		float y = positions[second * 3 + 1] - positions[first * 3 + 1];
+		float z = positions[second * 3 + 2] - positions[first * 3 + 2];
+		return (float) Math.sqrt(x * x + y * y + z * z);
+	}
+	/**
+	 * The vertices read so far, in a form in which equal vertices can be
+	 * found quickly. Vertices are chained by id, and each holds its name and
+	 * description as numbers in a table of the distinct strings seen, while
+	 * its location is read back from the builder.
+	 */
+	private static class VertexTable {
+
+		/**
+		 * The latest entry for each id.
+		 */
+		private final LongIntHashMap latest = new LongIntHashMap(1024, -1);
+
+		/**
+		 * The number of each distinct name or description seen.
+		 */
+		private final HashMap<String, Integer> strings = new HashMap<String, Integer>();
+
+		/**
+		 * For each entry, its vertex in the builder, the previous entry with
+		 * the same id or -1, and the numbers of its name and description, or
+		 * -1 where they were missing.
+		 */
+		private int[] vertices = new int[1024];
+		private int[] previous = new int[1024];
+		private int[] names = new int[1024];
+		private int[] descriptions = new int[1024];
+
+		/**
+		 * The number of entries.
+		 */
+		private int size;
+
+		/**
+		 * A location read back from the builder.
+		 */
+		private final float[] location = new float[3];
+
+		/**
+		 * Finds a vertex with the same id, name, description and location.
+		 * 
+		 * @return The vertex's index in the builder, or -1 if there is none.
+		 */
+		public int find(long id, String name, String description,
+				float[] coordinates, MeshBuilder builder) {
+			int nameNumber = lookup(name);
+			int descriptionNumber = lookup(description);
+			for (int entry = latest.get(id); entry >= 0; entry = previous[entry]) {
+				if (names[entry] == nameNumber
+						&& descriptions[entry] == descriptionNumber
+						&& Arrays.equals(coordinates,
+								builder.getPosition(vertices[entry], location))) {
+					return vertices[entry];
+				}
+			}
+			return -1;
+		}
+
+		/**
+		 * Adds a vertex which is not equal to any already added.
+		 */
+		public void add(long id, String name, String description, int vertex) {
+			if (size == vertices.length) {
+				int length = vertices.length * 2;
+				vertices = Arrays.copyOf(vertices, length);
+				previous = Arrays.copyOf(previous, length);
+				names = Arrays.copyOf(names, length);
+				descriptions = Arrays.copyOf(descriptions, length);
+			}
+			vertices[size] = vertex;
+			previous[size] = latest.get(id);
+			names[size] = number(name);
+			descriptions[size] = number(description);
+			latest.put(id, size++);
+		}
+
+		/**
+		 * Gets the number of a string, or -1 if it is missing. A string not
+		 * seen before gets -2, which matches no entry.
+		 */
+		private int lookup(String string) {
+			if (string == null) {
+				return -1;
+			}
+			Integer number = strings.get(string);
+			return (number != null) ? number : -2;
+		}
+
+		/**
+		 * Gets the number of a string, numbering it if it has not been seen
+		 * before, or -1 if it is missing.
+		 */
+		private int number(String string) {
+			if (string == null) {
+				return -1;
+			}
+			Integer number = strings.get(string);
+			if (number == null) {
+				number = strings.size();
+				strings.put(string, number);
+			}
+			return number;
+		}
+	}
+}
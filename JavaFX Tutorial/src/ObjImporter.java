@@ -0,0 +1,105 @@
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Imports custom Meshes from Wavefront OBJ files. Each "v" line becomes a
+ * vertex and each "f" line an entity. Texture coordinates, normals, groups,
+ * materials and any other statements are skipped.
+ * 
+ * The file is parsed in chunks of lines in parallel, as described by
+ * MeshImporter. Faces may refer to vertices by their position from the start
+ * of the file, or from the end of the vertices read so far with negative
+ * numbers. As a chunk does not know how many vertices came before it, the
+ * second kind are recorded relative to the chunk's own vertices and moved
+ * into place once the chunks are joined.
+ * 
+ * @author Robert Smith
+ *
+ */
+public class ObjImporter {
+
+	/**
+	 * This class only holds static operations.
+	 */
+	private ObjImporter() {
+	}
+
+	/**
+	 * Imports a mesh from an OBJ file.
+	 * 
+	 * @param path
+	 *            The file to read.
+	 * @return The mesh.
+	 * @throws IOException
+	 *             If the file cannot be read or is malformed.
+	 */
+	public static Mesh read(Path path) throws IOException {
+		try (FileChannel channel = FileChannel.open(path,
+				StandardOpenOption.READ)) {
+			long[] bounds = MeshImporter.splitLines(channel, 0, channel.size());
+			final List<BitSet> local = new ArrayList<BitSet>();
+			for (int i = 1; i < bounds.length; i++) {
+				local.add(new BitSet());
+			}
+			List<Mesh> parts = MeshImporter.parseChunks(channel, bounds,
+					new MeshImporter.ChunkParser<Mesh>() {
+						@Override
+						public Mesh parse(ByteScanner scanner, int chunk)
+								throws IOException {
+							return parseChunk(scanner, local.get(chunk));
+						}
+					});
+			return MeshImporter.join(parts, local);
+		}
+	}
+
+	/**
+	 * Parses the vertices and faces in a chunk of lines.
+	 * 
+	 * @param scanner
+	 *            A scanner over the chunk.
+	 * @param local
+	 *            The set to mark the entity indices which are relative to the
+	 *            chunk's own vertices in.
+	 * @return The chunk's vertices and faces.
+	 */
+	private static Mesh parseChunk(ByteScanner scanner, BitSet local)
+			throws IOException {
+		MeshBuilder builder = new MeshBuilder();
+		int indexCount = 0;
+		while (scanner.hasRemaining()) {
+			scanner.skipSpaces();
+			if (scanner.skipWord("v")) {
+				float x = scanner.nextFloat();
+				float y = scanner.nextFloat();
+				float z = scanner.nextFloat();
+				builder.addVertex(x, y, z);
+			} else if (scanner.skipWord("f")) {
+				while (!scanner.atLineEnd()) {
+
+					// Keep the vertex of "v/vt/vn" and skip the rest
+					int vertex = scanner.nextInt();
+					scanner.skipToken();
+					if (vertex > 0) {
+						builder.addIndex(vertex - 1);
+					} else if (vertex < 0) {
+						local.set(indexCount);
+						builder.addIndex(builder.getVertexCount() + vertex);
+					} else {
+						throw new IOException(
+								"ObjImporter error: Faces cannot refer to vertex 0.");
+					}
+					indexCount++;
+				}
+				builder.endEntity();
+			}
+			scanner.nextLine();
+		}
+		return builder.build();
+	}
+}
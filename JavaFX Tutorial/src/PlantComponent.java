@@ -14,10 +14,12 @@
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 import javax.xml.bind.annotation.XmlAccessType;
 import javax.xml.bind.annotation.XmlAccessorType;
 import javax.xml.bind.annotation.XmlRootElement;
+import javax.xml.bind.annotation.XmlTransient;
 
 /**
  * <p>
@@ -32,6 +34,25 @@ public class PlantComponent extends VizObject implements IReactorComponent {
 
 	Mesh mesh;
 
+	/**
+	 * The mesh's levels of detail, once they have been requested.
+	 */
+	@XmlTransient
+	private CompletableFuture<List<Mesh>> levelsOfDetail;
+
+	/**
+	 * The mesh's position version when the levels of detail were built.
+	 */
+	@XmlTransient
+	private int levelsVersion;
+
+	/**
+	 * The slots in the mesh of the vertices the component was built from,
+	 * used to write their moves into the mesh.
+	 */
+	@XmlTransient
+	private VertexIndex vertexIndex;
+
 	/**
 	 * <p>
 	 * Nullary constructor.
@@ -79,20 +100,52 @@ public class PlantComponent extends VizObject implements IReactorComponent {
 	public PlantComponent(List<Vertex> vertices, List<Polygon> entities) {
 		this();
 		
+		// Index the vertex list once so that each lookup is constant time.
+		VertexIndex index = new VertexIndex(vertices);
+		vertexIndex = index;
+
 		//Convert the polygons into a list of indices into the vertex list.
 		ArrayList<List<Integer>> indexedEntities = new ArrayList<List<Integer>>();
 		for (Polygon entity : entities) {
 			ArrayList<Integer> newEntity = new ArrayList<Integer>();
 			ArrayList<Vertex> tempVertices = entity.getVertices();
 			for (Vertex currVertex : tempVertices) {
-				if (vertices.contains(currVertex)) {
-					newEntity.add(vertices.indexOf(currVertex));
+				int slot = index.indexOf(currVertex);
+				if (slot >= 0) {
+					newEntity.add(slot);
 				}
 			}
 			indexedEntities.add(newEntity);
 		}
 		mesh = new Mesh(vertices, indexedEntities);
 
+		// Follow the vertices, so that moving one moves the mesh. They share
+		// one listener, which finds each moved vertex's slot by reference.
+		IVizUpdateableListener vertexListener = new IVizUpdateableListener() {
+			@Override
+			public void update(IVizUpdateable component) {
+				vertexMoved((Vertex) component);
+			}
+		};
+		for (Vertex vertex : vertices) {
+			vertex.register(vertexListener);
+		}
+	}
+
+	/**
+	 * Copies a moved vertex's location into the mesh, then notifies the
+	 * component's listeners.
+	 * 
+	 * @param vertex
+	 *            One of the vertices the component was built from.
+	 */
+	private void vertexMoved(Vertex vertex) {
+		int slot = vertexIndex.indexOf(vertex);
+		if (slot >= 0) {
+			float[] location = vertex.getLocation();
+			mesh.setPosition(slot, location[0], location[1], location[2]);
+			notifyListeners();
+		}
 	}
 
 	/**
@@ -122,6 +175,26 @@ public class PlantComponent extends VizObject implements IReactorComponent {
 		return mesh;
 	}
 
+	/**
+	 * Gets the mesh's levels of detail. The first request starts building them
+	 * in the background with the given simplifier, and later requests return
+	 * the same cached result until the mesh's vertices change, when the next
+	 * request builds them again.
+	 * 
+	 * @param simplifier
+	 *            The simplifier used to build the levels on the first request.
+	 * @return A future holding the levels, from the full mesh to the coarsest.
+	 */
+	public synchronized CompletableFuture<List<Mesh>> getLevelsOfDetail(
+			MeshSimplifier simplifier) {
+		int version = mesh.getPositionVersion();
+		if (levelsOfDetail == null || levelsVersion != version) {
+			levelsOfDetail = simplifier.buildLevelsAsync(mesh);
+			levelsVersion = version;
+		}
+		return levelsOfDetail;
+	}
+
 	/**
 	 * <p>
 	 * Performs an equality check between two Objects.
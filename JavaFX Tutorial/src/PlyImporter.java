@@ -0,0 +1,496 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Imports custom Meshes from PLY files, in ASCII or either binary byte order.
+ * The x, y and z properties of the "vertex" element give the vertices, and
+ * the "vertex_indices" list of the "face" element gives the entities. Every
+ * other element and property is skipped.
+ * 
+ * ASCII files hold one element per line. They are parsed in chunks of lines
+ * in parallel, as described by MeshImporter, after a first parallel pass
+ * which counts the lines in each chunk so that every chunk knows which
+ * element its lines belong to. Binary files are read from start to finish
+ * through a window mapped onto the file, as their records cannot be found
+ * without reading those before them.
+ * 
+ * @author Robert Smith
+ *
+ */
+public class PlyImporter {
+
+	/**
+	 * The longest header read, in bytes.
+	 */
+	private static final int MAX_HEADER_SIZE = 1 << 20;
+
+	/**
+	 * The most bytes mapped at once while reading a binary file.
+	 */
+	private static final int WINDOW_SIZE = 64 << 20;
+
+	/**
+	 * The property types, in the order of TYPE_NAMES.
+	 */
+	private static final int CHAR = 0;
+	private static final int UCHAR = 1;
+	private static final int SHORT = 2;
+	private static final int USHORT = 3;
+	private static final int INT = 4;
+	private static final int UINT = 5;
+	private static final int FLOAT = 6;
+	private static final int DOUBLE = 7;
+
+	/**
+	 * The names of each property type, first in the original style and then
+	 * in the sized style.
+	 */
+	private static final String[][] TYPE_NAMES = { { "char", "int8" },
+			{ "uchar", "uint8" }, { "short", "int16" }, { "ushort", "uint16" },
+			{ "int", "int32" }, { "uint", "uint32" }, { "float", "float32" },
+			{ "double", "float64" } };
+
+	/**
+	 * The size of each property type, in bytes.
+	 */
+	private static final int[] TYPE_SIZES = { 1, 1, 2, 2, 4, 4, 4, 8 };
+
+	/**
+	 * This class only holds static operations.
+	 */
+	private PlyImporter() {
+	}
+
+	/**
+	 * Imports a mesh from a PLY file.
+	 * 
+	 * @param path
+	 *            The file to read.
+	 * @return The mesh.
+	 * @throws IOException
+	 *             If the file cannot be read or is malformed.
+	 */
+	public static Mesh read(Path path) throws IOException {
+		try (FileChannel channel = FileChannel.open(path,
+				StandardOpenOption.READ)) {
+			Header header = new Header(channel);
+			if (header.format == null) {
+				return readAscii(channel, header);
+			}
+			return readBinary(channel, header);
+		}
+	}
+
+	/**
+	 * Reads the body of an ASCII file.
+	 */
+	private static Mesh readAscii(FileChannel channel, final Header header)
+			throws IOException {
+		long[] bounds = MeshImporter.splitLines(channel, header.size,
+				channel.size());
+
+		// Count the lines in each chunk, to find the line each one starts on
+		List<Long> lineCounts = MeshImporter.parseChunks(channel, bounds,
+				new MeshImporter.ChunkParser<Long>() {
+					@Override
+					public Long parse(ByteScanner scanner, int chunk) {
+						long lines = 0;
+						while (scanner.hasRemaining()) {
+							scanner.nextLine();
+							lines++;
+						}
+						return lines;
+					}
+				});
+		final long[] firstLines = new long[lineCounts.size()];
+		for (int i = 1; i < firstLines.length; i++) {
+			firstLines[i] = firstLines[i - 1] + lineCounts.get(i - 1);
+		}
+
+		List<Mesh> parts = MeshImporter.parseChunks(channel, bounds,
+				new MeshImporter.ChunkParser<Mesh>() {
+					@Override
+					public Mesh parse(ByteScanner scanner, int chunk)
+							throws IOException {
+						return parseChunk(scanner, header, firstLines[chunk]);
+					}
+				});
+		return MeshImporter.join(parts, null);
+	}
+
+	/**
+	 * Parses the elements on a chunk of an ASCII file's lines.
+	 * 
+	 * @param scanner
+	 *            A scanner over the chunk.
+	 * @param header
+	 *            The file's header.
+	 * @param line
+	 *            The number of the chunk's first line within the body.
+	 * @return The chunk's vertices and faces.
+	 */
+	private static Mesh parseChunk(ByteScanner scanner, Header header,
+			long line) throws IOException {
+		MeshBuilder builder = new MeshBuilder();
+		float[] location = new float[3];
+
+		// Find the element the chunk starts in
+		int element = 0;
+		long elementEnd = 0;
+		while (element < header.elements.size()) {
+			elementEnd += header.elements.get(element).count;
+			if (line < elementEnd) {
+				break;
+			}
+			element++;
+		}
+
+		while (scanner.hasRemaining() && element < header.elements.size()) {
+			Element current = header.elements.get(element);
+			for (Property property : current.properties) {
+				if (property.countType >= 0) {
+					long count = scanner.nextLong();
+					boolean indices = property == header.faceIndices;
+					for (long i = 0; i < count; i++) {
+						if (indices) {
+							builder.addIndex(scanner.nextInt());
+						} else {
+							scanner.nextFloat();
+						}
+					}
+					if (indices) {
+						builder.endEntity();
+					}
+				} else if (property.axis >= 0 && current == header.vertex) {
+					location[property.axis] = scanner.nextFloat();
+				} else {
+					scanner.skipSpaces();
+					scanner.skipToken();
+				}
+			}
+			if (current == header.vertex) {
+				builder.addVertex(location[0], location[1], location[2]);
+			}
+			scanner.nextLine();
+
+			// Move on to the next element after its last line
+			line++;
+			while (element < header.elements.size() && line >= elementEnd) {
+				element++;
+				if (element < header.elements.size()) {
+					elementEnd += header.elements.get(element).count;
+				}
+			}
+		}
+		return builder.build();
+	}
+
+	/**
+	 * Reads the body of a binary file.
+	 */
+	private static Mesh readBinary(FileChannel channel, Header header)
+			throws IOException {
+		MeshBuilder builder = new MeshBuilder();
+		Window window = new Window(channel, header.size, header.format);
+		float[] location = new float[3];
+		for (Element element : header.elements) {
+			for (long e = 0; e < element.count; e++) {
+				for (Property property : element.properties) {
+					if (property.countType >= 0) {
+						long count = (long) window.read(property.countType);
+						boolean indices = property == header.faceIndices;
+						for (long i = 0; i < count; i++) {
+							double value = window.read(property.type);
+							if (indices) {
+								builder.addIndex((int) value);
+							}
+						}
+						if (indices) {
+							builder.endEntity();
+						}
+					} else {
+						double value = window.read(property.type);
+						if (property.axis >= 0 && element == header.vertex) {
+							location[property.axis] = (float) value;
+						}
+					}
+				}
+				if (element == header.vertex) {
+					builder.addVertex(location[0], location[1], location[2]);
+				}
+			}
+		}
+
+		// Check the indices, as the ASCII path does when joining its chunks
+		Mesh mesh = builder.build();
+		for (int index : mesh.getEntityIndices()) {
+			if (index < 0 || index >= mesh.getVertexCount()) {
+				throw new IOException("PlyImporter error: A face refers to a "
+						+ "vertex which does not exist.");
+			}
+		}
+		return mesh;
+	}
+
+	/**
+	 * Finds a property type by name.
+	 */
+	private static int parseType(String name) throws IOException {
+		for (int type = 0; type < TYPE_NAMES.length; type++) {
+			if (TYPE_NAMES[type][0].equals(name)
+					|| TYPE_NAMES[type][1].equals(name)) {
+				return type;
+			}
+		}
+		throw new IOException("PlyImporter error: Unknown property type \""
+				+ name + "\".");
+	}
+
+	/**
+	 * A PLY file's header.
+	 */
+	private static class Header {
+
+		/**
+		 * The byte order of a binary file, or null for an ASCII file.
+		 */
+		private ByteOrder format;
+
+		/**
+		 * The elements, in the order they are stored.
+		 */
+		private final List<Element> elements = new ArrayList<Element>();
+
+		/**
+		 * The vertex element, or null if there is none.
+		 */
+		private Element vertex;
+
+		/**
+		 * The face element's list of vertex indices, or null if there is
+		 * none.
+		 */
+		private Property faceIndices;
+
+		/**
+		 * The size of the header, which is where the body starts.
+		 */
+		private long size;
+
+		/**
+		 * Reads the header from the start of a file.
+		 * 
+		 * @param channel
+		 *            The file.
+		 * @throws IOException
+		 *             If the header cannot be read or is malformed.
+		 */
+		public Header(FileChannel channel) throws IOException {
+
+			// Read until the end of the header line
+			ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(
+					MAX_HEADER_SIZE, channel.size()));
+			while (buffer.hasRemaining()
+					&& channel.read(buffer, buffer.position()) > 0) {
+			}
+			String text = new String(buffer.array(), 0, buffer.position(),
+					StandardCharsets.US_ASCII);
+			int end = text.indexOf("end_header");
+			int lineEnd = (end >= 0) ? text.indexOf('\n', end) : -1;
+			if (!text.startsWith("ply") || lineEnd < 0) {
+				throw new IOException(
+						"PlyImporter error: The file does not have a PLY header.");
+			}
+			size = lineEnd + 1;
+
+			Element element = null;
+			for (String line : text.substring(0, end).split("\r?\n")) {
+				String[] words = line.trim().split("\\s+");
+				if ("format".equals(words[0]) && words.length > 1) {
+					if ("binary_little_endian".equals(words[1])) {
+						format = ByteOrder.LITTLE_ENDIAN;
+					} else if ("binary_big_endian".equals(words[1])) {
+						format = ByteOrder.BIG_ENDIAN;
+					} else if (!"ascii".equals(words[1])) {
+						throw new IOException("PlyImporter error: Unknown "
+								+ "format \"" + words[1] + "\".");
+					}
+				} else if ("element".equals(words[0]) && words.length > 2) {
+					element = new Element();
+					element.name = words[1];
+					try {
+						element.count = Long.parseLong(words[2]);
+					} catch (NumberFormatException e) {
+						throw new IOException("PlyImporter error: Element \""
+								+ words[1] + "\" has no count.", e);
+					}
+					elements.add(element);
+					if ("vertex".equals(element.name)) {
+						vertex = element;
+					}
+				} else if ("property".equals(words[0]) && element != null) {
+					element.properties.add(parseProperty(element, words));
+				}
+			}
+		}
+
+		/**
+		 * Parses a property line of an element.
+		 */
+		private Property parseProperty(Element element, String[] words)
+				throws IOException {
+			Property property = new Property();
+			if ("list".equals(words[1]) && words.length > 4) {
+				property.countType = parseType(words[2]);
+				property.type = parseType(words[3]);
+				if ("face".equals(element.name)
+						&& ("vertex_indices".equals(words[4]) || "vertex_index"
+								.equals(words[4]))) {
+					faceIndices = property;
+				}
+			} else if (words.length > 2) {
+				property.type = parseType(words[1]);
+				property.axis = "xyz".indexOf(words[2]);
+				if (words[2].length() != 1) {
+					property.axis = -1;
+				}
+			} else {
+				throw new IOException(
+						"PlyImporter error: A property is malformed.");
+			}
+			return property;
+		}
+	}
+
+	/**
+	 * An element of a PLY file.
+	 */
+	private static class Element {
+
+		/**
+		 * The element's name.
+		 */
+		private String name;
+
+		/**
+		 * The number of records of the element.
+		 */
+		private long count;
+
+		/**
+		 * The properties of each record, in order.
+		 */
+		private final List<Property> properties = new ArrayList<Property>();
+	}
+
+	/**
+	 * A property of an element.
+	 */
+	private static class Property {
+
+		/**
+		 * The type of the property, or of its items if it is a list.
+		 */
+		private int type;
+
+		/**
+		 * The type of a list's count, or -1 if the property is not a list.
+		 */
+		private int countType = -1;
+
+		/**
+		 * The axis, 0 to 2, of a vertex coordinate, or -1 for anything else.
+		 */
+		private int axis = -1;
+	}
+
+	/**
+	 * A window mapped onto a binary file, moved along as it is read.
+	 */
+	private static class Window {
+
+		private final FileChannel channel;
+		private final ByteOrder order;
+
+		/**
+		 * The mapped part of the file.
+		 */
+		private ByteBuffer mapping;
+
+		/**
+		 * The position in the file of the mapping's start.
+		 */
+		private long start;
+
+		/**
+		 * The default constructor.
+		 * 
+		 * @param channel
+		 *            The file.
+		 * @param position
+		 *            The position in the file to start reading from.
+		 * @param order
+		 *            The file's byte order.
+		 */
+		public Window(FileChannel channel, long position, ByteOrder order) {
+			this.channel = channel;
+			this.order = order;
+			start = position;
+			mapping = ByteBuffer.allocate(0);
+		}
+
+		/**
+		 * Reads a value of a property type.
+		 * 
+		 * @param type
+		 *            The type.
+		 * @return The value.
+		 * @throws IOException
+		 *             If the file ends first.
+		 */
+		public double read(int type) throws IOException {
+			int size = TYPE_SIZES[type];
+			if (mapping.remaining() < size) {
+				move(size);
+			}
+			switch (type) {
+			case CHAR:
+				return mapping.get();
+			case UCHAR:
+				return mapping.get() & 0xff;
+			case SHORT:
+				return mapping.getShort();
+			case USHORT:
+				return mapping.getShort() & 0xffff;
+			case INT:
+				return mapping.getInt();
+			case UINT:
+				return mapping.getInt() & 0xffffffffL;
+			case FLOAT:
+				return mapping.getFloat();
+			default:
+				return mapping.getDouble();
+			}
+		}
+
+		/**
+		 * Maps the window onto the file from the next unread byte.
+		 */
+		private void move(int needed) throws IOException {
+			start += mapping.position();
+			long length = Math.min(WINDOW_SIZE, channel.size() - start);
+			if (length < needed) {
+				throw new IOException("PlyImporter error: The file is truncated.");
+			}
+			mapping = channel.map(FileChannel.MapMode.READ_ONLY, start, length)
+					.order(order);
+		}
+	}
+}
@@ -0,0 +1,389 @@
+/**
+ * Splits simple polygons, convex or concave, into triangles by ear clipping.
+ * It works directly on a mesh's packed arrays: the polygon is given as a range
+ * of indices into a float array of (x, y, z) positions, and the triangles are
+ * written as index triples into an int array. A polygon with n vertices always
+ * produces n - 2 triangles, so callers can size their output in advance.
+ * 
+ * The polygon is projected onto the coordinate plane most nearly parallel to
+ * it, and its vertices are kept in a linked ring stored in int arrays. Only
+ * reflex vertices can lie inside a candidate ear, so only they are tested. The
+ * reflex vertices are bucketed into a uniform grid with about one cell per
+ * reflex vertex, so that each ear test only looks at the cells the ear
+ * overlaps. Since clipping an ear can only turn reflex vertices convex, never
+ * the reverse, the grid is built once and stale entries are skipped.
+ * 
+ * A triangulator keeps its working arrays between calls so that triangulating
+ * many faces does not allocate per face or per vertex. It is therefore not
+ * safe to share one instance between threads.
+ * 
+ * Input which is not a simple polygon (for example, self intersecting) still
+ * produces n - 2 triangles, but they may overlap.
+ * 
+ * @author Robert Smith
+ *
+ */
+public class PolygonTriangulator {
+
+	/**
+	 * The projected 2D coordinates of each polygon vertex.
+	 */
+	private double[] xs = new double[0];
+
+	/**
+	 * The projected 2D coordinates of each polygon vertex.
+	 */
+	private double[] ys = new double[0];
+
+	/**
+	 * The previous vertex of each vertex in the ring.
+	 */
+	private int[] prev = new int[0];
+
+	/**
+	 * The next vertex of each vertex in the ring.
+	 */
+	private int[] next = new int[0];
+
+	/**
+	 * Whether each vertex is currently reflex (or collinear with its
+	 * neighbors). Vertices which have been clipped are never reflex.
+	 */
+	private boolean[] reflex = new boolean[0];
+
+	/**
+	 * The start of each grid cell in cellItems, followed by the number of
+	 * items.
+	 */
+	private int[] cellStart = new int[0];
+
+	/**
+	 * The reflex vertices in each grid cell, stored end to end.
+	 */
+	private int[] cellItems = new int[0];
+
+	/**
+	 * The number of grid cells along each axis.
+	 */
+	private int gridSize;
+
+	/**
+	 * The grid's lower corner.
+	 */
+	private double gridMinX, gridMinY;
+
+	/**
+	 * The reciprocal of the grid's cell dimensions.
+	 */
+	private double gridScaleX, gridScaleY;
+
+	/**
+	 * Triangulates a single polygon.
+	 * 
+	 * @param positions
+	 *            The vertex positions as consecutive (x, y, z) triples.
+	 * @param indices
+	 *            An array holding the polygon's vertex indices.
+	 * @param start
+	 *            The first of the polygon's indices in the array.
+	 * @param end
+	 *            One past the last of the polygon's indices in the array.
+	 * @param out
+	 *            The array to receive the triangles, as triples of vertex
+	 *            indices. It must have room for (end - start - 2) * 3 values
+	 *            starting at outOffset.
+	 * @param outOffset
+	 *            The position in out at which to write the first triangle.
+	 * @return The number of triangles written.
+	 */
+	public int triangulate(float[] positions, int[] indices, int start,
+			int end, int[] out, int outOffset) {
+
+		int n = end - start;
+		if (n < 3) {
+			return 0;
+		}
+
+		// Triangles need no work
+		if (n == 3) {
+			out[outOffset] = indices[start];
+			out[outOffset + 1] = indices[start + 1];
+			out[outOffset + 2] = indices[start + 2];
+			return 1;
+		}
+
+		ensureCapacity(n);
+		double orientation = project(positions, indices, start, n);
+
+		// Link the vertices into a ring and classify them
+		int reflexCount = 0;
+		for (int i = 0; i < n; i++) {
+			prev[i] = (i == 0 ? n - 1 : i - 1);
+			next[i] = (i == n - 1 ? 0 : i + 1);
+		}
+		for (int i = 0; i < n; i++) {
+			reflex[i] = !isConvex(prev[i], i, next[i], orientation);
+			if (reflex[i]) {
+				reflexCount++;
+			}
+		}
+		buildGrid(n, reflexCount);
+
+		// Clip ears until a single triangle is left
+		int written = 0;
+		int remaining = n;
+		int current = 0;
+		int sinceLastEar = 0;
+		while (remaining > 3) {
+			int a = prev[current];
+			int c = next[current];
+
+			// If a whole loop passed without an ear, the polygon is not simple
+			// or is degenerate, so clip the current vertex regardless.
+			boolean force = sinceLastEar > remaining;
+			if (force || (!reflex[current] && isEar(a, current, c))) {
+				int o = outOffset + written * 3;
+				out[o] = indices[start + a];
+				out[o + 1] = indices[start + current];
+				out[o + 2] = indices[start + c];
+				written++;
+
+				// Unlink the ear tip
+				next[a] = c;
+				prev[c] = a;
+				reflex[current] = false;
+				remaining--;
+				sinceLastEar = 0;
+
+				// The neighbors may have become convex
+				if (reflex[a]) {
+					reflex[a] = !isConvex(prev[a], a, c, orientation);
+				}
+				if (reflex[c]) {
+					reflex[c] = !isConvex(a, c, next[c], orientation);
+				}
+
+				// Continue from the previous vertex, which is the most likely
+				// new ear
+				current = a;
+			} else {
+				current = c;
+				sinceLastEar++;
+			}
+		}
+
+		// Emit the final triangle
+		int o = outOffset + written * 3;
+		out[o] = indices[start + prev[current]];
+		out[o + 1] = indices[start + current];
+		out[o + 2] = indices[start + next[current]];
+		written++;
+
+		return written;
+	}
+
+	/**
+	 * Projects the polygon onto the coordinate plane most nearly parallel to
+	 * it, filling xs and ys.
+	 * 
+	 * @return 1 if the projected polygon winds counterclockwise, -1 if it
+	 *         winds clockwise.
+	 */
+	private double project(float[] positions, int[] indices, int start, int n) {
+
+		// Find the polygon's normal by Newell's method
+		double nx = 0, ny = 0, nz = 0;
+		for (int i = 0; i < n; i++) {
+			int p = indices[start + i] * 3;
+			int q = indices[start + (i + 1) % n] * 3;
+			nx += (positions[p + 1] - positions[q + 1])
+					* (positions[p + 2] + positions[q + 2]);
+			ny += (positions[p + 2] - positions[q + 2])
+					* (positions[p] + positions[q]);
+			nz += (positions[p] - positions[q])
+					* (positions[p + 1] + positions[q + 1]);
+		}
+
+		// Drop the axis along which the normal is largest
+		double ax = Math.abs(nx), ay = Math.abs(ny), az = Math.abs(nz);
+		int u, v;
+		double sign;
+		if (ax >= ay && ax >= az) {
+			u = 1;
+			v = 2;
+			sign = nx;
+		} else if (ay >= az) {
+			u = 2;
+			v = 0;
+			sign = ny;
+		} else {
+			u = 0;
+			v = 1;
+			sign = nz;
+		}
+		for (int i = 0; i < n; i++) {
+			int p = indices[start + i] * 3;
+			xs[i] = positions[p + u];
+			ys[i] = positions[p + v];
+		}
+
+		return (sign >= 0 ? 1 : -1);
+	}
+
+	/**
+	 * Checks whether vertex b turns in the polygon's winding direction.
+	 */
+	private boolean isConvex(int a, int b, int c, double orientation) {
+		return orientation * cross(a, b, c) > 0;
+	}
+
+	/**
+	 * Computes the z component of the cross product of (b - a) and (c - b).
+	 */
+	private double cross(int a, int b, int c) {
+		return (xs[b] - xs[a]) * (ys[c] - ys[b]) - (ys[b] - ys[a])
+				* (xs[c] - xs[b]);
+	}
+
+	/**
+	 * Checks whether the convex vertex b and its neighbors a and c form an ear,
+	 * that is, whether no reflex vertex lies inside or on triangle (a, b, c).
+	 */
+	private boolean isEar(int a, int b, int c) {
+
+		// Only test the reflex vertices in the cells the ear overlaps
+		double minX = Math.min(xs[a], Math.min(xs[b], xs[c]));
+		double maxX = Math.max(xs[a], Math.max(xs[b], xs[c]));
+		double minY = Math.min(ys[a], Math.min(ys[b], ys[c]));
+		double maxY = Math.max(ys[a], Math.max(ys[b], ys[c]));
+		int x0 = cellX(minX), x1 = cellX(maxX);
+		int y0 = cellY(minY), y1 = cellY(maxY);
+		for (int gy = y0; gy <= y1; gy++) {
+			for (int gx = x0; gx <= x1; gx++) {
+				int cell = gy * gridSize + gx;
+				for (int k = cellStart[cell]; k < cellStart[cell + 1]; k++) {
+					int p = cellItems[k];
+					if (reflex[p] && p != a && p != b && p != c
+							&& isInside(p, a, b, c)) {
+						return false;
+					}
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Checks whether vertex p lies inside or on the edges of triangle (a, b,
+	 * c). Points coinciding with a corner are not counted, so that repeated
+	 * vertices do not block every ear.
+	 */
+	private boolean isInside(int p, int a, int b, int c) {
+		double px = xs[p], py = ys[p];
+		if ((px == xs[a] && py == ys[a]) || (px == xs[b] && py == ys[b])
+				|| (px == xs[c] && py == ys[c])) {
+			return false;
+		}
+		double d1 = (xs[b] - xs[a]) * (py - ys[a]) - (ys[b] - ys[a])
+				* (px - xs[a]);
+		double d2 = (xs[c] - xs[b]) * (py - ys[b]) - (ys[c] - ys[b])
+				* (px - xs[b]);
+		double d3 = (xs[a] - xs[c]) * (py - ys[c]) - (ys[a] - ys[c])
+				* (px - xs[c]);
+		boolean hasNegative = d1 < 0 || d2 < 0 || d3 < 0;
+		boolean hasPositive = d1 > 0 || d2 > 0 || d3 > 0;
+		return !(hasNegative && hasPositive);
+	}
+
+	/**
+	 * Buckets the reflex vertices into a uniform grid with about one cell per
+	 * reflex vertex.
+	 */
+	private void buildGrid(int n, int reflexCount) {
+
+		// Find the bounds of the polygon
+		double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE;
+		double maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+		for (int i = 0; i < n; i++) {
+			minX = Math.min(minX, xs[i]);
+			maxX = Math.max(maxX, xs[i]);
+			minY = Math.min(minY, ys[i]);
+			maxY = Math.max(maxY, ys[i]);
+		}
+		gridSize = Math.max(1, (int) Math.sqrt(reflexCount));
+		gridMinX = minX;
+		gridMinY = minY;
+		gridScaleX = (maxX > minX ? gridSize / (maxX - minX) : 0);
+		gridScaleY = (maxY > minY ? gridSize / (maxY - minY) : 0);
+
+		// Count the reflex vertices in each cell, then place them
+		int cells = gridSize * gridSize;
+		if (cellStart.length < cells + 1) {
+			cellStart = new int[cells + 1];
+		}
+		if (cellItems.length < reflexCount) {
+			cellItems = new int[reflexCount];
+		}
+		for (int i = 0; i <= cells; i++) {
+			cellStart[i] = 0;
+		}
+		for (int i = 0; i < n; i++) {
+			if (reflex[i]) {
+				cellStart[cell(i) + 1]++;
+			}
+		}
+		for (int i = 0; i < cells; i++) {
+			cellStart[i + 1] += cellStart[i];
+		}
+		for (int i = 0; i < n; i++) {
+			if (reflex[i]) {
+				int cell = cell(i);
+				cellItems[cellStart[cell]++] = i;
+			}
+		}
+
+		// Placing the items advanced each start to the next cell's start, so
+		// shift them back
+		for (int i = cells; i > 0; i--) {
+			cellStart[i] = cellStart[i - 1];
+		}
+		cellStart[0] = 0;
+	}
+
+	/**
+	 * Gets the grid cell containing a vertex.
+	 */
+	private int cell(int i) {
+		return cellY(ys[i]) * gridSize + cellX(xs[i]);
+	}
+
+	/**
+	 * Gets the grid column containing an x coordinate.
+	 */
+	private int cellX(double x) {
+		int gx = (int) ((x - gridMinX) * gridScaleX);
+		return Math.min(Math.max(gx, 0), gridSize - 1);
+	}
+
+	/**
+	 * Gets the grid row containing a y coordinate.
+	 */
+	private int cellY(double y) {
+		int gy = (int) ((y - gridMinY) * gridScaleY);
+		return Math.min(Math.max(gy, 0), gridSize - 1);
+	}
+
+	/**
+	 * Grows the working arrays to hold a polygon of n vertices.
+	 */
+	private void ensureCapacity(int n) {
+		if (xs.length < n) {
+			int capacity = Math.max(n, xs.length * 2);
+			xs = new double[capacity];
+			ys = new double[capacity];
+			prev = new int[capacity];
+			next = new int[capacity];
+			reflex = new boolean[capacity];
+		}
+	}
+}
@@ -0,0 +1,128 @@
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A triple buffer of vertex positions, through which one writer thread, such
+ * as a physics solver, hands whole frames of positions to one reader thread,
+ * such as the JavaFX application thread, without either of them locking or
+ * waiting on the other.
+ * 
+ * The writer fills the back buffer and publishes it, which swaps it with the
+ * middle buffer in a single atomic step. The reader acquires the middle
+ * buffer, if a frame has been published since it last did, by swapping it
+ * with the front buffer in the same way. Each buffer is only ever touched by
+ * one thread at a time, so the reader always sees a complete frame, and the
+ * writer may publish as often as it likes, with frames the reader never
+ * acquired simply being overwritten.
+ * 
+ * As the back buffer handed to the writer after a publish holds an older
+ * frame, the writer should write every position of each frame.
+ * 
+ * The buffer of a Mesh is read through Mesh.acquireFrame(), which lets
+ * several views on the reader thread share each frame.
+ * 
+ * @author Robert Smith
+ *
+ */
+public class PositionBuffer {
+
+	/**
+	 * The bit set in the middle index when it holds a frame the reader has not
+	 * acquired.
+	 */
+	private static final int FRESH = 4;
+
+	/**
+	 * The three buffers.
+	 */
+	private final float[][] buffers;
+
+	/**
+	 * The index of the middle buffer, with the FRESH bit if it holds a new
+	 * frame.
+	 */
+	private final AtomicInteger middle;
+
+	/**
+	 * The index of the buffer the writer fills. Only the writer uses this.
+	 */
+	private int back;
+
+	/**
+	 * The index of the buffer the reader reads. Only the reader uses this.
+	 */
+	private int front;
+
+	/**
+	 * The default constructor. All three buffers start as copies of the
+	 * given positions.
+	 * 
+	 * @param positions
+	 *            The initial positions, as consecutive (x, y, z) triples.
+	 */
+	public PositionBuffer(float[] positions) {
+		buffers = new float[3][];
+		for (int i = 0; i < 3; i++) {
+			buffers[i] = positions.clone();
+		}
+		front = 0;
+		middle = new AtomicInteger(1);
+		back = 2;
+	}
+
+	/**
+	 * Gets the number of floats in each frame.
+	 * 
+	 * @return The length of each buffer.
+	 */
+	public int getLength() {
+		return buffers[0].length;
+	}
+
+	/**
+	 * Gets the buffer the writer fills with the next frame. It must only be
+	 * called from the writer thread.
+	 * 
+	 * @return The back buffer.
+	 */
+	public float[] getBackBuffer() {
+		return buffers[back];
+	}
+
+	/**
+	 * Publishes the back buffer as the latest frame, and takes a new back
+	 * buffer. It must only be called from the writer thread.
+	 * 
+	 * @return The new back buffer.
+	 */
+	public float[] publish() {
+		back = middle.getAndSet(back | FRESH) & ~FRESH;
+		return buffers[back];
+	}
+
+	/**
+	 * Makes the latest published frame the front buffer, if one has been
+	 * published since the last call. It must only be called from the reader
+	 * thread.
+	 * 
+	 * @return True if the front buffer now holds a new frame, false if no
+	 *         frame has been published since the last call.
+	 */
+	public boolean acquire() {
+		if ((middle.get() & FRESH) == 0) {
+			return false;
+		}
+		front = middle.getAndSet(front) & ~FRESH;
+		return true;
+	}
+
+	/**
+	 * Gets the buffer holding the frame last acquired by the reader. It must
+	 * only be called from the reader thread, and stays unchanged until the
+	 * next call to acquire().
+	 * 
+	 * @return The front buffer.
+	 */
+	public float[] getFrontBuffer() {
+		return buffers[front];
+	}
+}
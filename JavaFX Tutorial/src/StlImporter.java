@@ -0,0 +1,227 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Imports custom Meshes from binary and ASCII STL files. STL stores each
+ * triangle with its own three vertices, so the mesh has three vertices per
+ * triangle, and shared corners are repeated. MeshImporter welds them back
+ * together.
+ * 
+ * A file is binary if its size matches the triangle count in its header, and
+ * ASCII otherwise. Binary triangles are read in parallel ranges straight from
+ * mappings of the file. ASCII files are parsed in chunks of lines in
+ * parallel, as described by MeshImporter. As every triangle is just the next
+ * three vertices, only the "vertex" lines are read.
+ * 
+ * @author Robert Smith
+ *
+ */
+public class StlImporter {
+
+	/**
+	 * The size of a binary file's header, including the triangle count.
+	 */
+	private static final int HEADER_SIZE = 84;
+
+	/**
+	 * The size of a binary triangle record: a normal, three vertices and an
+	 * attribute word.
+	 */
+	private static final int TRIANGLE_SIZE = 50;
+
+	/**
+	 * The number of binary triangles below which a task reads them itself
+	 * rather than splitting.
+	 */
+	private static final int TRIANGLES_PER_TASK = 1 << 18;
+
+	/**
+	 * This class only holds static operations.
+	 */
+	private StlImporter() {
+	}
+
+	/**
+	 * Imports a mesh from an STL file, without welding its vertices.
+	 * 
+	 * @param path
+	 *            The file to read.
+	 * @return The mesh, with three vertices of its own per triangle.
+	 * @throws IOException
+	 *             If the file cannot be read or is malformed.
+	 */
+	public static Mesh read(Path path) throws IOException {
+		try (FileChannel channel = FileChannel.open(path,
+				StandardOpenOption.READ)) {
+			long size = channel.size();
+			if (size >= HEADER_SIZE) {
+				ByteBuffer count = ByteBuffer.allocate(4).order(
+						ByteOrder.LITTLE_ENDIAN);
+				while (count.hasRemaining()
+						&& channel.read(count, 80 + count.position()) > 0) {
+				}
+				long triangles = count.getInt(0) & 0xffffffffL;
+				if (HEADER_SIZE + triangles * TRIANGLE_SIZE == size) {
+					return readBinary(channel, triangles);
+				}
+			}
+			return readAscii(channel);
+		}
+	}
+
+	/**
+	 * Reads the triangles of a binary file.
+	 */
+	private static Mesh readBinary(FileChannel channel, long triangles)
+			throws IOException {
+		if (triangles * 9 > Integer.MAX_VALUE - 8) {
+			throw new IOException("StlImporter error: The mesh is too large.");
+		}
+		float[] positions = new float[(int) triangles * 9];
+		try {
+			ForkJoinPool.commonPool().invoke(
+					new TriangleTask(channel, positions, 0, (int) triangles));
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+		return triangulate(positions);
+	}
+
+	/**
+	 * Reads the vertices of an ASCII file.
+	 */
+	private static Mesh readAscii(FileChannel channel) throws IOException {
+		long[] bounds = MeshImporter.splitLines(channel, 0, channel.size());
+		List<Mesh> parts = MeshImporter.parseChunks(channel, bounds,
+				new MeshImporter.ChunkParser<Mesh>() {
+					@Override
+					public Mesh parse(ByteScanner scanner, int chunk)
+							throws IOException {
+						MeshBuilder builder = new MeshBuilder();
+						while (scanner.hasRemaining()) {
+							scanner.skipSpaces();
+							if (scanner.skipWord("vertex")) {
+								float x = scanner.nextFloat();
+								float y = scanner.nextFloat();
+								float z = scanner.nextFloat();
+								builder.addVertex(x, y, z);
+							}
+							scanner.nextLine();
+						}
+						return builder.build();
+					}
+				});
+		Mesh vertices = MeshImporter.join(parts, null);
+		if (vertices.getVertexCount() % 3 != 0) {
+			throw new IOException(
+					"StlImporter error: The file's vertices do not make whole triangles.");
+		}
+		return triangulate(vertices.getPositions());
+	}
+
+	/**
+	 * Creates a mesh whose every three consecutive vertices make a triangle.
+	 */
+	private static Mesh triangulate(float[] positions) {
+		int vertexCount = positions.length / 3;
+		int[] offsets = new int[vertexCount / 3 + 1];
+		for (int i = 0; i < offsets.length; i++) {
+			offsets[i] = i * 3;
+		}
+		int[] indices = new int[vertexCount];
+		for (int i = 0; i < indices.length; i++) {
+			indices[i] = i;
+		}
+		return new Mesh(positions, offsets, indices);
+	}
+
+	/**
+	 * A task which reads a range of binary triangles from a mapping of the
+	 * file, splitting the range in half until it is small enough to read
+	 * directly.
+	 */
+	private static class TriangleTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final FileChannel channel;
+
+		/**
+		 * The array to receive the triangles' vertices.
+		 */
+		private final float[] positions;
+
+		/**
+		 * The first triangle in the range.
+		 */
+		private final int first;
+
+		/**
+		 * One past the last triangle in the range.
+		 */
+		private final int last;
+
+		/**
+		 * The default constructor.
+		 * 
+		 * @param channel
+		 *            The file.
+		 * @param positions
+		 *            The array to receive the triangles' vertices.
+		 * @param first
+		 *            The first triangle in the range.
+		 * @param last
+		 *            One past the last triangle in the range.
+		 */
+		public TriangleTask(FileChannel channel, float[] positions,
+				int first, int last) {
+			this.channel = channel;
+			this.positions = positions;
+			this.first = first;
+			this.last = last;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * @see java.util.concurrent.RecursiveAction#compute()
+		 */
+		@Override
+		protected void compute() {
+			if (last - first > TRIANGLES_PER_TASK) {
+				int middle = (first + last) >>> 1;
+				invokeAll(new TriangleTask(channel, positions, first, middle),
+						new TriangleTask(channel, positions, middle, last));
+				return;
+			}
+
+			try {
+				MappedByteBuffer mapping = channel.map(
+						FileChannel.MapMode.READ_ONLY, HEADER_SIZE
+								+ (long) first * TRIANGLE_SIZE, (long) (last
+								- first)
+								* TRIANGLE_SIZE);
+				mapping.order(ByteOrder.LITTLE_ENDIAN);
+
+				// Skip each triangle's normal and attribute word
+				int target = first * 9;
+				for (int t = 0; t < last - first; t++) {
+					int record = t * TRIANGLE_SIZE + 12;
+					for (int i = 0; i < 9; i++) {
+						positions[target++] = mapping.getFloat(record + i * 4);
+					}
+				}
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+	}
+}
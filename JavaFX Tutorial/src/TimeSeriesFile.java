@@ -0,0 +1,310 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A memory mapped file of per vertex data recorded over a series of time
+ * steps, as written by TimeSeriesWriter.
+ * 
+ * The file is little endian. It starts with a header holding a magic number,
+ * the format version, the number of vertices, a flags word, the number of
+ * scalar fields and each field's name as a length prefixed UTF-8 string,
+ * padded to a multiple of eight bytes. The frames follow, all the same size,
+ * so frame i is found by arithmetic rather than by an index. Each frame holds
+ * its time as a double, then the vertex positions as (x, y, z) float triples
+ * if the file has them, then each field's value at every vertex as floats.
+ * 
+ * The frames are mapped in chunks of whole frames, as a single mapping cannot
+ * exceed two gigabytes. Reading a frame copies it straight from the mapping
+ * into arrays the caller provides, without allocating.
+ * 
+ * @author Robert Smith
+ *
+ */
+public class TimeSeriesFile implements Closeable {
+
+	/**
+	 * The number at the start of every time series file.
+	 */
+	static final int MAGIC = 0x4653544D;
+
+	/**
+	 * The version of the format this class reads.
+	 */
+	static final int VERSION = 1;
+
+	/**
+	 * The flag set when the frames hold vertex positions.
+	 */
+	static final int HAS_POSITIONS = 1;
+
+	/**
+	 * The channel the file is mapped from.
+	 */
+	private final FileChannel channel;
+
+	/**
+	 * The number of vertices in each frame.
+	 */
+	private final int vertexCount;
+
+	/**
+	 * Whether the frames hold vertex positions.
+	 */
+	private final boolean hasPositions;
+
+	/**
+	 * The names of the scalar fields.
+	 */
+	private final String[] fieldNames;
+
+	/**
+	 * The size of each frame, in bytes.
+	 */
+	private final int frameSize;
+
+	/**
+	 * The number of frames in each mapped chunk.
+	 */
+	private final int framesPerChunk;
+
+	/**
+	 * The number of frames in the file.
+	 */
+	private final int frameCount;
+
+	/**
+	 * Each frame's time.
+	 */
+	private final double[] times;
+
+	/**
+	 * The mapped chunks of frames.
+	 */
+	private final MappedByteBuffer[] chunks;
+
+	/**
+	 * A float view of each chunk, through which frames are read.
+	 */
+	private final FloatBuffer[] floats;
+
+	/**
+	 * Opens and maps a time series file.
+	 * 
+	 * @param path
+	 *            The file to open.
+	 * @throws IOException
+	 *             If the file cannot be read or is not a time series file.
+	 */
+	public TimeSeriesFile(Path path) throws IOException {
+		channel = FileChannel.open(path, StandardOpenOption.READ);
+		try {
+
+			// Read the fixed part of the header
+			ByteBuffer fixed = readHeader(0, 20);
+			if (fixed.getInt() != MAGIC) {
+				throw new IOException(
+						"TimeSeriesFile error: The file is not a time series file.");
+			} else if (fixed.getInt() != VERSION) {
+				throw new IOException(
+						"TimeSeriesFile error: The file's format version is not supported.");
+			}
+			vertexCount = fixed.getInt();
+			hasPositions = (fixed.getInt() & HAS_POSITIONS) != 0;
+			int fieldCount = fixed.getInt();
+			if (vertexCount < 0 || fieldCount < 0) {
+				throw new IOException(
+						"TimeSeriesFile error: The file's header is corrupt.");
+			}
+
+			// Read the field names
+			fieldNames = new String[fieldCount];
+			long position = 20;
+			for (int i = 0; i < fieldCount; i++) {
+				int length = readHeader(position, 4).getInt();
+				if (length < 0) {
+					throw new IOException(
+							"TimeSeriesFile error: The file's header is corrupt.");
+				}
+				ByteBuffer name = readHeader(position + 4, length);
+				fieldNames[i] = new String(name.array(), StandardCharsets.UTF_8);
+				position += 4 + length;
+			}
+			long headerSize = (position + 7) & ~7L;
+
+			// Find the frames
+			long floatCount = (long) vertexCount
+					* ((hasPositions ? 3 : 0) + fieldCount);
+			long size = 8 + floatCount * 4;
+			if (size > Integer.MAX_VALUE) {
+				throw new IOException(
+						"TimeSeriesFile error: The file's frames are too large to map.");
+			}
+			frameSize = (int) size;
+			long frames = (channel.size() - headerSize) / frameSize;
+			if (frames > Integer.MAX_VALUE) {
+				throw new IOException(
+						"TimeSeriesFile error: The file has too many frames.");
+			}
+			frameCount = (int) Math.max(0, frames);
+
+			// Map the frames in chunks, and read every frame's time
+			framesPerChunk = Math.max(1, Integer.MAX_VALUE / frameSize);
+			int chunkCount = (frameCount + framesPerChunk - 1) / framesPerChunk;
+			chunks = new MappedByteBuffer[chunkCount];
+			floats = new FloatBuffer[chunkCount];
+			times = new double[frameCount];
+			for (int c = 0; c < chunkCount; c++) {
+				int first = c * framesPerChunk;
+				int count = Math.min(framesPerChunk, frameCount - first);
+				chunks[c] = channel.map(FileChannel.MapMode.READ_ONLY,
+						headerSize + (long) first * frameSize, (long) count
+								* frameSize);
+				chunks[c].order(ByteOrder.LITTLE_ENDIAN);
+				floats[c] = chunks[c].asFloatBuffer();
+				for (int i = 0; i < count; i++) {
+					times[first + i] = chunks[c].getDouble(i * frameSize);
+				}
+			}
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Reads part of the header.
+	 */
+	private ByteBuffer readHeader(long position, int length) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(length).order(
+				ByteOrder.LITTLE_ENDIAN);
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, position + buffer.position()) < 0) {
+				throw new IOException(
+						"TimeSeriesFile error: The file's header is truncated.");
+			}
+		}
+		buffer.flip();
+		return buffer;
+	}
+
+	/**
+	 * Gets the number of vertices in each frame.
+	 * 
+	 * @return The vertex count.
+	 */
+	public int getVertexCount() {
+		return vertexCount;
+	}
+
+	/**
+	 * Checks whether the frames hold vertex positions.
+	 * 
+	 * @return True if they do, false if they only hold scalar fields.
+	 */
+	public boolean hasPositions() {
+		return hasPositions;
+	}
+
+	/**
+	 * Gets the names of the scalar fields, in the order they are stored.
+	 * 
+	 * @return The field names.
+	 */
+	public String[] getFieldNames() {
+		return fieldNames.clone();
+	}
+
+	/**
+	 * Gets the number of frames in the file.
+	 * 
+	 * @return The frame count.
+	 */
+	public int getFrameCount() {
+		return frameCount;
+	}
+
+	/**
+	 * Gets the time of a frame.
+	 * 
+	 * @param frame
+	 *            The frame's index.
+	 * @return The frame's time.
+	 */
+	public double getTime(int frame) {
+		return times[frame];
+	}
+
+	/**
+	 * Finds the last frame at or before a time.
+	 * 
+	 * @param time
+	 *            The time.
+	 * @return The frame's index, or 0 if the time is before the first frame.
+	 */
+	public int findFrame(double time) {
+		int low = 0;
+		int high = frameCount - 1;
+		while (low < high) {
+			int middle = (low + high + 1) >>> 1;
+			if (times[middle] <= time) {
+				low = middle;
+			} else {
+				high = middle - 1;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Copies a frame out of the file. This does not allocate, but it uses the
+	 * mapping's position, so frames must only be read by one thread at a
+	 * time.
+	 * 
+	 * @param frame
+	 *            The frame's index.
+	 * @param positions
+	 *            The array to receive the positions, or null to skip them.
+	 *            It is ignored if the file has no positions.
+	 * @param fields
+	 *            An array for each field to receive its values, in the order
+	 *            of getFieldNames(), or null to skip the fields. Individual
+	 *            arrays may also be null to skip those fields.
+	 */
+	public void readFrame(int frame, float[] positions, float[][] fields) {
+		int chunk = frame / framesPerChunk;
+		FloatBuffer view = floats[chunk];
+		int start = ((frame - chunk * framesPerChunk) * frameSize + 8) / 4;
+		if (hasPositions) {
+			if (positions != null) {
+				view.position(start);
+				view.get(positions, 0, vertexCount * 3);
+			}
+			start += vertexCount * 3;
+		}
+		if (fields != null) {
+			for (int i = 0; i < fieldNames.length; i++) {
+				if (fields[i] != null) {
+					view.position(start + i * vertexCount);
+					view.get(fields[i], 0, vertexCount);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Closes the file. The mappings are released once they are no longer
+	 * referenced.
+	 */
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+}
@@ -0,0 +1,471 @@
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import javafx.animation.AnimationTimer;
+
+/**
+ * Plays a TimeSeriesFile back onto a Mesh, driven by an AnimationTimer, so
+ * that recorded simulation results can be played and scrubbed through
+ * interactively. Each pulse, the frame for the playback time is pushed into
+ * the mesh: positions through its PositionBuffer, and fields through
+ * setScalarField(). Views drawn from the mesh pick the frame up on their next
+ * pulse.
+ * 
+ * Frames are read from the file ahead of time by a background thread into a
+ * small ring of slots, covering the frames just ahead of the playback
+ * position in the direction of play. Frame i always goes in slot i modulo the
+ * ring size. When looping, the frames ahead wrap around the end of the file,
+ * and the read ahead stops short of any frame whose slot an earlier frame of
+ * the same pass already holds, so that two frames never take turns evicting
+ * each other. Each slot is claimed by one thread at a time with a
+ * compare-and-set on its state, so the prefetcher never overwrites a slot
+ * while it is being copied, and nothing locks. After setup, playing a frame
+ * allocates nothing: the slots, the arrays handed to the mesh and the file's
+ * mappings are all reused.
+ * 
+ * If a frame has not been read by the time it is wanted, such as just after a
+ * seek, the previous frame stays on screen until it has.
+ * 
+ * @author Robert Smith
+ *
+ */
+public class TimeSeriesPlayer {
+
+	/**
+	 * The default number of frames read ahead of the playback position.
+	 */
+	public static final int DEFAULT_PREFETCH = 8;
+
+	/**
+	 * The longest time, in nanoseconds, the prefetcher sleeps when it has
+	 * nothing to read.
+	 */
+	private static final long IDLE_NANOS = 10000000L;
+
+	/**
+	 * Slot states: holding no frame, being read from the file, holding a
+	 * frame, and being copied into the mesh.
+	 */
+	private static final int EMPTY = 0;
+	private static final int LOADING = 1;
+	private static final int READY = 2;
+	private static final int COPYING = 3;
+
+	/**
+	 * The file being played.
+	 */
+	private final TimeSeriesFile file;
+
+	/**
+	 * The mesh the frames are pushed into.
+	 */
+	private final Mesh mesh;
+
+	/**
+	 * The mesh's position buffer, or null if the file has no positions.
+	 */
+	private final PositionBuffer positionBuffer;
+
+	/**
+	 * The ring of frames read ahead.
+	 */
+	private final Slot[] slots;
+
+	/**
+	 * The names of the file's fields.
+	 */
+	private final String[] fieldNames;
+
+	/**
+	 * Two arrays for each field, used in turn, so that the array the mesh
+	 * holds is never the one being filled.
+	 */
+	private final float[][][] fieldArrays;
+
+	/**
+	 * Which of each field's two arrays is filled next.
+	 */
+	private int fieldFlip;
+
+	/**
+	 * The timer which advances playback on each pulse.
+	 */
+	private final AnimationTimer timer;
+
+	/**
+	 * The thread which reads frames ahead.
+	 */
+	private final Thread prefetcher;
+
+	/**
+	 * The first frame the prefetcher should read.
+	 */
+	private volatile int requestedFrame;
+
+	/**
+	 * The direction, 1 or -1, in which the prefetcher reads ahead.
+	 */
+	private volatile int direction;
+
+	/**
+	 * Whether the prefetcher should keep running.
+	 */
+	private volatile boolean running;
+
+	/**
+	 * The playback time.
+	 */
+	private double time;
+
+	/**
+	 * The rate at which playback time passes, relative to real time.
+	 */
+	private double speed;
+
+	/**
+	 * Whether playback time is advancing.
+	 */
+	private boolean playing;
+
+	/**
+	 * Whether playback starts again at the other end after the last frame.
+	 */
+	private volatile boolean looping;
+
+	/**
+	 * The pulse time of the last update, or -1 before the first.
+	 */
+	private long lastPulse;
+
+	/**
+	 * The frame last pushed into the mesh, or -1 if there has been none.
+	 */
+	private int shownFrame;
+
+	/**
+	 * Creates a player which reads the default number of frames ahead.
+	 * 
+	 * @param file
+	 *            The file to play.
+	 * @param mesh
+	 *            The mesh to push frames into. It must have as many vertices
+	 *            as the file's frames.
+	 */
+	public TimeSeriesPlayer(TimeSeriesFile file, Mesh mesh) {
+		this(file, mesh, DEFAULT_PREFETCH);
+	}
+
+	/**
+	 * Creates a player.
+	 * 
+	 * @param file
+	 *            The file to play.
+	 * @param mesh
+	 *            The mesh to push frames into. It must have as many vertices
+	 *            as the file's frames.
+	 * @param prefetch
+	 *            The number of frames to read ahead.
+	 */
+	public TimeSeriesPlayer(TimeSeriesFile file, Mesh mesh, int prefetch) {
+		if (file.getVertexCount() != mesh.getVertexCount() || prefetch < 1) {
+			throw new IllegalArgumentException(
+					"TimeSeriesPlayer error: The file must have one value per vertex of the mesh.");
+		}
+		this.file = file;
+		this.mesh = mesh;
+		positionBuffer = file.hasPositions() ? mesh.createPositionBuffer()
+				: null;
+
+		int vertexCount = file.getVertexCount();
+		fieldNames = file.getFieldNames();
+		fieldArrays = new float[fieldNames.length][2][vertexCount];
+		slots = new Slot[Math.min(prefetch, Math.max(1, file.getFrameCount()))];
+		for (int i = 0; i < slots.length; i++) {
+			slots[i] = new Slot(file.hasPositions() ? vertexCount * 3 : 0,
+					fieldNames.length, vertexCount);
+		}
+
+		speed = 1;
+		direction = 1;
+		lastPulse = -1;
+		shownFrame = -1;
+
+		timer = new AnimationTimer() {
+			@Override
+			public void handle(long now) {
+				pulse(now);
+			}
+		};
+		prefetcher = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				prefetch();
+			}
+		}, "Time series prefetch");
+		prefetcher.setDaemon(true);
+	}
+
+	/**
+	 * Starts the prefetcher and the timer which pushes frames into the mesh.
+	 * Playback starts paused at the first frame. This must be called on the
+	 * JavaFX application thread.
+	 */
+	public void start() {
+		if (!running) {
+			running = true;
+			prefetcher.start();
+			timer.start();
+		}
+	}
+
+	/**
+	 * Stops the timer and the prefetcher. The player cannot be started again.
+	 */
+	public void stop() {
+		timer.stop();
+		running = false;
+		LockSupport.unpark(prefetcher);
+	}
+
+	/**
+	 * Starts advancing playback time.
+	 */
+	public void play() {
+		playing = true;
+	}
+
+	/**
+	 * Stops advancing playback time, leaving the current frame on screen.
+	 */
+	public void pause() {
+		playing = false;
+	}
+
+	/**
+	 * Checks whether playback time is advancing.
+	 * 
+	 * @return True if playing, false if paused.
+	 */
+	public boolean isPlaying() {
+		return playing;
+	}
+
+	/**
+	 * Sets the rate at which playback time passes. Negative speeds play
+	 * backwards, and frames are then read ahead backwards too.
+	 * 
+	 * @param speed
+	 *            The playback speed relative to real time.
+	 */
+	public void setSpeed(double speed) {
+		this.speed = speed;
+		direction = (speed < 0) ? -1 : 1;
+	}
+
+	/**
+	 * Sets whether playback starts again at the other end after passing the
+	 * last frame.
+	 * 
+	 * @param looping
+	 *            True to loop, false to stop at the end.
+	 */
+	public void setLooping(boolean looping) {
+		this.looping = looping;
+	}
+
+	/**
+	 * Moves playback to a time. The frame is shown as soon as it has been
+	 * read.
+	 * 
+	 * @param time
+	 *            The time to show.
+	 */
+	public void seek(double time) {
+		this.time = time;
+		request(file.findFrame(time));
+	}
+
+	/**
+	 * Gets the playback time.
+	 * 
+	 * @return The time.
+	 */
+	public double getTime() {
+		return time;
+	}
+
+	/**
+	 * Gets the frame on screen.
+	 * 
+	 * @return The index of the frame last pushed into the mesh, or -1 if
+	 *         there has been none.
+	 */
+	public int getShownFrame() {
+		return shownFrame;
+	}
+
+	/**
+	 * Advances playback time and pushes the frame for it into the mesh, if it
+	 * has been read.
+	 * 
+	 * @param now
+	 *            The pulse's time, in nanoseconds.
+	 */
+	private void pulse(long now) {
+		int frameCount = file.getFrameCount();
+		if (frameCount == 0) {
+			return;
+		}
+
+		// Advance the playback time, wrapping or stopping at the ends
+		if (playing && lastPulse >= 0) {
+			time += (now - lastPulse) * 1e-9 * speed;
+			double first = file.getTime(0);
+			double last = file.getTime(frameCount - 1);
+			if (time > last || time < first) {
+				if (looping && last > first) {
+					double length = last - first;
+					time = first + ((time - first) % length + length) % length;
+				} else {
+					time = Math.max(first, Math.min(last, time));
+					playing = false;
+				}
+			}
+		}
+		lastPulse = now;
+
+		int frame = file.findFrame(time);
+		request(frame);
+		if (frame == shownFrame) {
+			return;
+		}
+
+		// Copy the frame out of its slot, unless the prefetcher is still
+		// reading it
+		Slot slot = slots[frame % slots.length];
+		if (slot.frame != frame
+				|| !slot.state.compareAndSet(READY, COPYING)) {
+			return;
+		}
+		if (slot.frame == frame) {
+			if (positionBuffer != null) {
+				System.arraycopy(slot.positions, 0,
+						positionBuffer.getBackBuffer(), 0,
+						slot.positions.length);
+				positionBuffer.publish();
+			}
+			for (int i = 0; i < fieldNames.length; i++) {
+				float[] values = fieldArrays[i][fieldFlip];
+				System.arraycopy(slot.fields[i], 0, values, 0, values.length);
+				mesh.setScalarField(fieldNames[i], values);
+			}
+			fieldFlip ^= 1;
+			shownFrame = frame;
+		}
+		slot.state.set(READY);
+	}
+
+	/**
+	 * Asks the prefetcher to read ahead from a frame.
+	 */
+	private void request(int frame) {
+		if (frame != requestedFrame) {
+			requestedFrame = frame;
+			LockSupport.unpark(prefetcher);
+		}
+	}
+
+	/**
+	 * Reads the frames ahead of the requested frame into their slots, then
+	 * sleeps until another frame is requested.
+	 */
+	private void prefetch() {
+		int frameCount = file.getFrameCount();
+		boolean[] claimed = new boolean[slots.length];
+		while (running) {
+			int base = requestedFrame;
+			int step = direction;
+			boolean idle = true;
+			Arrays.fill(claimed, false);
+			for (int i = 0; i < slots.length && base == requestedFrame; i++) {
+				int frame = base + i * step;
+				if (looping) {
+					frame = (frame % frameCount + frameCount) % frameCount;
+				} else if (frame < 0 || frame >= frameCount) {
+					break;
+				}
+
+				// Stop where the window has wrapped onto a slot it already
+				// holds a nearer frame in
+				int index = frame % slots.length;
+				if (claimed[index]) {
+					break;
+				}
+				claimed[index] = true;
+
+				// Skip slots already holding their frame, or being copied
+				Slot slot = slots[index];
+				if (slot.frame == frame && slot.state.get() == READY) {
+					continue;
+				}
+				if (!slot.state.compareAndSet(READY, LOADING)
+						&& !slot.state.compareAndSet(EMPTY, LOADING)) {
+					idle = false;
+					continue;
+				}
+				slot.frame = -1;
+				file.readFrame(frame, slot.positions, slot.fields);
+				slot.frame = frame;
+				slot.state.set(READY);
+				idle = false;
+			}
+			if (idle) {
+				LockSupport.parkNanos(this, IDLE_NANOS);
+			}
+		}
+	}
+
+	/**
+	 * A frame read ahead of playback.
+	 */
+	private static class Slot {
+
+		/**
+		 * The frame's positions.
+		 */
+		private final float[] positions;
+
+		/**
+		 * The frame's fields.
+		 */
+		private final float[][] fields;
+
+		/**
+		 * The index of the frame held, or -1 if none is.
+		 */
+		private volatile int frame;
+
+		/**
+		 * The slot's state, which decides which thread may touch it.
+		 */
+		private final AtomicInteger state;
+
+		/**
+		 * The default constructor.
+		 * 
+		 * @param positionCount
+		 *            The number of floats of positions in a frame.
+		 * @param fieldCount
+		 *            The number of fields in a frame.
+		 * @param vertexCount
+		 *            The number of vertices in a frame.
+		 */
+		public Slot(int positionCount, int fieldCount, int vertexCount) {
+			positions = new float[positionCount];
+			fields = new float[fieldCount][vertexCount];
+			frame = -1;
+			state = new AtomicInteger(EMPTY);
+		}
+	}
+}
@@ -0,0 +1,160 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Records per vertex data over a series of time steps into a file which
+ * TimeSeriesFile can map, appending one frame at a time so that a running
+ * simulation can write its results as it goes. The format is described by
+ * TimeSeriesFile.
+ * 
+ * @author Robert Smith
+ *
+ */
+public class TimeSeriesWriter implements Closeable {
+
+	/**
+	 * The channel frames are written to.
+	 */
+	private final FileChannel channel;
+
+	/**
+	 * The number of vertices in each frame.
+	 */
+	private final int vertexCount;
+
+	/**
+	 * Whether the frames hold vertex positions.
+	 */
+	private final boolean hasPositions;
+
+	/**
+	 * The number of scalar fields in each frame.
+	 */
+	private final int fieldCount;
+
+	/**
+	 * The buffer each frame is assembled in, reused for every frame.
+	 */
+	private final ByteBuffer frame;
+
+	/**
+	 * Creates a file, replacing any existing file, and writes its header.
+	 * 
+	 * @param path
+	 *            The file to write.
+	 * @param vertexCount
+	 *            The number of vertices in each frame.
+	 * @param hasPositions
+	 *            Whether the frames will hold vertex positions.
+	 * @param fieldNames
+	 *            The names of the scalar fields the frames will hold.
+	 * @throws IOException
+	 *             If the file cannot be written.
+	 */
+	public TimeSeriesWriter(Path path, int vertexCount, boolean hasPositions,
+			String... fieldNames) throws IOException {
+		long floatCount = (long) vertexCount
+				* ((hasPositions ? 3 : 0) + fieldNames.length);
+		if (vertexCount < 0 || 8 + floatCount * 4 > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException(
+					"TimeSeriesWriter error: The frames must be between 0 and 2GB in size.");
+		}
+		this.vertexCount = vertexCount;
+		this.hasPositions = hasPositions;
+		fieldCount = fieldNames.length;
+		frame = ByteBuffer.allocate((int) (8 + floatCount * 4)).order(
+				ByteOrder.LITTLE_ENDIAN);
+
+		// Assemble the header, padded to a multiple of eight bytes
+		byte[][] names = new byte[fieldCount][];
+		int size = 20;
+		for (int i = 0; i < fieldCount; i++) {
+			names[i] = fieldNames[i].getBytes(StandardCharsets.UTF_8);
+			size += 4 + names[i].length;
+		}
+		ByteBuffer header = ByteBuffer.allocate((size + 7) & ~7).order(
+				ByteOrder.LITTLE_ENDIAN);
+		header.putInt(TimeSeriesFile.MAGIC);
+		header.putInt(TimeSeriesFile.VERSION);
+		header.putInt(vertexCount);
+		header.putInt(hasPositions ? TimeSeriesFile.HAS_POSITIONS : 0);
+		header.putInt(fieldCount);
+		for (byte[] name : names) {
+			header.putInt(name.length);
+			header.put(name);
+		}
+		header.position(0);
+
+		channel = FileChannel.open(path, StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+		try {
+			write(header);
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Appends a frame to the file.
+	 * 
+	 * @param time
+	 *            The frame's time. Frames should be written in order of time.
+	 * @param positions
+	 *            The vertex positions, as (x, y, z) triples. It is ignored if
+	 *            the file does not hold positions.
+	 * @param fields
+	 *            Each field's value at every vertex, in the order the fields
+	 *            were named.
+	 * @throws IOException
+	 *             If the frame cannot be written.
+	 */
+	public void writeFrame(double time, float[] positions, float[][] fields)
+			throws IOException {
+		if (fields.length != fieldCount
+				|| (hasPositions && positions.length != vertexCount * 3)) {
+			throw new IllegalArgumentException(
+					"TimeSeriesWriter error: The frame does not match the file's layout.");
+		}
+		frame.clear();
+		frame.putDouble(time);
+		if (hasPositions) {
+			frame.asFloatBuffer().put(positions);
+			frame.position(frame.position() + positions.length * 4);
+		}
+		for (float[] field : fields) {
+			if (field.length != vertexCount) {
+				throw new IllegalArgumentException(
+						"TimeSeriesWriter error: The frame does not match the file's layout.");
+			}
+			frame.asFloatBuffer().put(field);
+			frame.position(frame.position() + field.length * 4);
+		}
+		frame.flip();
+		write(frame);
+	}
+
+	/**
+	 * Writes the whole of a buffer at the end of the file.
+	 */
+	private void write(ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see java.io.Closeable#close()
+	 */
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+}
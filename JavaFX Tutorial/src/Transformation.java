@@ -19,6 +19,7 @@ import javax.xml.bind.annotation.XmlAccessorType;
 import javax.xml.bind.annotation.XmlElement;
 import javax.xml.bind.annotation.XmlList;
 import javax.xml.bind.annotation.XmlRootElement;
+import javax.xml.bind.annotation.XmlTransient;
 
 /**
  * <p>
@@ -29,6 +30,11 @@ import javax.xml.bind.annotation.XmlRootElement;
  * The matrix transformations are applied in the following order: skew, size,
  * scale, rotation, and translation
  * </p>
+ * <p>
+ * The composed matrix is cached, and only recomputed after one of the
+ * transformation variables has changed. To keep the cache valid, the getters
+ * return copies of the variables, which must be changed through the setters.
+ * </p>
  * 
  * @author Jay Jay Billings
  */
@@ -81,6 +87,25 @@ public class Transformation extends VizObject {
 	@XmlList
 	private double[] translation = new double[3];
 
+	/**
+	 * The cached transformation matrix, stored row by row.
+	 */
+	@XmlTransient
+	private final double[] matrix = new double[16];
+
+	/**
+	 * The inverse of the cached transformation matrix, stored row by row.
+	 */
+	@XmlTransient
+	private final double[] inverseMatrix = new double[16];
+
+	/**
+	 * Whether the transformation variables have changed since the matrix was
+	 * last computed.
+	 */
+	@XmlTransient
+	private boolean matrixDirty = true;
+
 	/**
 	 * <p>
 	 * Upon creation, the Transformation should set its skew values to 0, sizes
@@ -110,7 +135,7 @@ public class Transformation extends VizObject {
 	 *         </p>
 	 */
 	public double[] getSkew() {
-		return skew;
+		return skew.clone();
 	}
 
 	/**
@@ -136,7 +161,7 @@ public class Transformation extends VizObject {
 	 *         </p>
 	 */
 	public double[] getScale() {
-		return scale;
+		return scale.clone();
 	}
 
 	/**
@@ -149,7 +174,7 @@ public class Transformation extends VizObject {
 	 *         </p>
 	 */
 	public double[] getRotation() {
-		return rotation;
+		return rotation.clone();
 	}
 
 	/**
@@ -162,7 +187,7 @@ public class Transformation extends VizObject {
 	 *         </p>
 	 */
 	public double[] getTranslation() {
-		return translation;
+		return translation.clone();
 	}
 
 	/**
@@ -187,6 +212,7 @@ public class Transformation extends VizObject {
 		skew[0] = x;
 		skew[1] = y;
 		skew[2] = z;
+		matrixDirty = true;
 	}
 
 	/**
@@ -201,6 +227,7 @@ public class Transformation extends VizObject {
 	 */
 	public void setSize(double size) {
 		this.size = size;
+		matrixDirty = true;
 	}
 
 	/**
@@ -225,6 +252,7 @@ public class Transformation extends VizObject {
 		scale[0] = x;
 		scale[1] = y;
 		scale[2] = z;
+		matrixDirty = true;
 	}
 
 	/**
@@ -249,6 +277,7 @@ public class Transformation extends VizObject {
 		rotation[0] = xAxis;
 		rotation[1] = yAxis;
 		rotation[2] = zAxis;
+		matrixDirty = true;
 	}
 
 	/**
@@ -273,6 +302,7 @@ public class Transformation extends VizObject {
 		translation[0] = x;
 		translation[1] = y;
 		translation[2] = z;
+		matrixDirty = true;
 	}
 
 	/**
@@ -298,6 +328,7 @@ public class Transformation extends VizObject {
 		for (int i = 0; i < 3; i++) {
 			this.translation[i] += translation[i];
 		}
+		matrixDirty = true;
 
 	}
 
@@ -316,11 +347,157 @@ public class Transformation extends VizObject {
 	 *         </p>
 	 */
 	public double[] getMatrixArray() {
+		updateMatrix();
+		return matrix.clone();
+	}
+
+	/**
+	 * <p>
+	 * Returns the flat array of elements in the inverse of the matrix, laid
+	 * out in the same way as getMatrixArray(). It maps points from the
+	 * transformed space back into the original one.
+	 * </p>
+	 * 
+	 * @return <p>
+	 *         Flat list of elements in the inverse matrix, whose elements are
+	 *         infinite or NaN if the transformation cannot be inverted
+	 *         </p>
+	 */
+	public double[] getInverseMatrixArray() {
+		updateMatrix();
+		return inverseMatrix.clone();
+	}
+
+	/**
+	 * <p>
+	 * Transforms an array of points in place
+	 * </p>
+	 * 
+	 * @param points
+	 *            <p>
+	 *            The points, stored as consecutive (x, y, z) triples
+	 *            </p>
+	 */
+	public void transformPoints(float[] points) {
+		transformPoints(points, 0, points, 0, points.length / 3);
+	}
+
+	/**
+	 * <p>
+	 * Transforms a range of points from one array into another. The arrays
+	 * may be the same.
+	 * </p>
+	 * 
+	 * @param source
+	 *            <p>
+	 *            The points to transform, stored as consecutive (x, y, z)
+	 *            triples
+	 *            </p>
+	 * @param sourceOffset
+	 *            <p>
+	 *            The index in source of the first point's x coordinate
+	 *            </p>
+	 * @param destination
+	 *            <p>
+	 *            The array to hold the transformed points
+	 *            </p>
+	 * @param destinationOffset
+	 *            <p>
+	 *            The index in destination at which to write the first point
+	 *            </p>
+	 * @param count
+	 *            <p>
+	 *            The number of points to transform
+	 *            </p>
+	 */
+	public void transformPoints(float[] source, int sourceOffset,
+			float[] destination, int destinationOffset, int count) {
+		updateMatrix();
+		double m00 = matrix[0], m01 = matrix[1], m02 = matrix[2], m03 = matrix[3];
+		double m10 = matrix[4], m11 = matrix[5], m12 = matrix[6], m13 = matrix[7];
+		double m20 = matrix[8], m21 = matrix[9], m22 = matrix[10], m23 = matrix[11];
+
+		for (int i = 0; i < count; i++) {
+			int s = sourceOffset + i * 3;
+			int d = destinationOffset + i * 3;
+			double x = source[s];
+			double y = source[s + 1];
+			double z = source[s + 2];
+			destination[d] = (float) (m00 * x + m01 * y + m02 * z + m03);
+			destination[d + 1] = (float) (m10 * x + m11 * y + m12 * z + m13);
+			destination[d + 2] = (float) (m20 * x + m21 * y + m22 * z + m23);
+		}
+	}
+
+	/**
+	 * <p>
+	 * Recomputes the cached matrix if any transformation variable has changed
+	 * since it was last computed. The matrix is T * Rz * Ry * Rx * S * K,
+	 * where S combines the size with the scale and K is the skew. Skew shears
+	 * each axis by the next one, so that x gains skew[0] * y, y gains skew[1]
+	 * * z and z gains skew[2] * x.
+	 * </p>
+	 */
+	private void updateMatrix() {
+		if (!matrixDirty) {
+			return;
+		}
 
-		// TODO Implement transformation-to-matrix conversion
+		// Compose the rotations, first about x, then y, then z
+		double cx = Math.cos(rotation[0]), sx = Math.sin(rotation[0]);
+		double cy = Math.cos(rotation[1]), sy = Math.sin(rotation[1]);
+		double cz = Math.cos(rotation[2]), sz = Math.sin(rotation[2]);
+		double[] r = { cz * cy, cz * sy * sx - sz * cx, cz * sy * cx + sz * sx,
+				sz * cy, sz * sy * sx + cz * cx, sz * sy * cx - cz * sx, -sy,
+				cy * sx, cy * cx };
 
-		return null;
+		// Scale each column of the rotation
+		for (int i = 0; i < 3; i++) {
+			for (int j = 0; j < 3; j++) {
+				r[i * 3 + j] *= scale[j] * size;
+			}
+		}
+
+		// Multiply by the skew, whose rows are (1, kx, 0), (0, 1, ky) and
+		// (kz, 0, 1)
+		for (int i = 0; i < 3; i++) {
+			double a = r[i * 3], b = r[i * 3 + 1], c = r[i * 3 + 2];
+			matrix[i * 4] = a + c * skew[2];
+			matrix[i * 4 + 1] = a * skew[0] + b;
+			matrix[i * 4 + 2] = b * skew[1] + c;
+			matrix[i * 4 + 3] = translation[i];
+		}
+		matrix[12] = 0;
+		matrix[13] = 0;
+		matrix[14] = 0;
+		matrix[15] = 1;
+
+		// Invert the linear part by its adjugate, then undo the translation
+		double m00 = matrix[0], m01 = matrix[1], m02 = matrix[2];
+		double m10 = matrix[4], m11 = matrix[5], m12 = matrix[6];
+		double m20 = matrix[8], m21 = matrix[9], m22 = matrix[10];
+		double[] adjugate = { m11 * m22 - m12 * m21, m02 * m21 - m01 * m22,
+				m01 * m12 - m02 * m11, m12 * m20 - m10 * m22,
+				m00 * m22 - m02 * m20, m02 * m10 - m00 * m12,
+				m10 * m21 - m11 * m20, m01 * m20 - m00 * m21,
+				m00 * m11 - m01 * m10 };
+		double inverseDeterminant = 1 / (m00 * adjugate[0] + m01
+				* adjugate[3] + m02 * adjugate[6]);
+		for (int i = 0; i < 3; i++) {
+			double translationPart = 0;
+			for (int j = 0; j < 3; j++) {
+				double element = adjugate[i * 3 + j] * inverseDeterminant;
+				inverseMatrix[i * 4 + j] = element;
+				translationPart -= element * translation[j];
+			}
+			inverseMatrix[i * 4 + 3] = translationPart;
+		}
+		inverseMatrix[12] = 0;
+		inverseMatrix[13] = 0;
+		inverseMatrix[14] = 0;
+		inverseMatrix[15] = 1;
 
+		matrixDirty = false;
 	}
 
 	/**
@@ -422,6 +599,7 @@ public class Transformation extends VizObject {
 		this.scale = iceObject.scale.clone();
 		this.rotation = iceObject.rotation.clone();
 		this.translation = iceObject.translation.clone();
+		matrixDirty = true;
 
 	}
 
@@ -484,6 +662,7 @@ public class Transformation extends VizObject {
 		translation[0] += x;
 		translation[1] += y;
 		translation[2] += z;
+		matrixDirty = true;
 	}
 
 }
\ No newline at end of file
@@ -0,0 +1,388 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import javafx.collections.ObservableFloatArray;
+import javafx.collections.ObservableIntegerArray;
+import javafx.scene.shape.TriangleMesh;
+
+/**
+ * A cache on disk of the arrays a custom Mesh is converted into for a JavaFX
+ * TriangleMesh, so that the conversion, and the triangulation in particular,
+ * only has to be done the first time a mesh is seen.
+ * 
+ * Entries are keyed by a fingerprint of the mesh's content: a SHA-256 digest
+ * of its positions and entities, so any change to the mesh gives a new key,
+ * and the same mesh is found again from one run to the next. Each entry is a
+ * file named after its fingerprint. It holds a little endian header, with
+ * the fingerprint again so that a mismatched file is never used, followed by
+ * the points, texture coordinates and faces exactly as the TriangleMesh holds
+ * them. Loading maps the file and copies the arrays straight from the mapping
+ * into the TriangleMesh a block at a time.
+ * 
+ * Entries are written to a temporary file and moved into place, so an entry
+ * is either whole or absent, even if the application stops while writing.
+ * Entries that cannot be used, such as those written by another version or
+ * those with faces referring past their points or texture coordinates, are
+ * treated as missing and deleted. Entries are never evicted, and are trusted
+ * no further than these checks, so the cache's directory should be one only
+ * its user can write to.
+ * 
+ * @author Robert Smith
+ *
+ */
+public class TriangleMeshCache {
+
+	/**
+	 * The number at the start of every entry.
+	 */
+	private static final int MAGIC = 0x4843544D;
+
+	/**
+	 * The version of the entries, and of the conversion they hold. It is part
+	 * of every fingerprint, so changing it retires all existing entries.
+	 */
+	private static final int VERSION = 1;
+
+	/**
+	 * The length of a fingerprint, in hexadecimal digits.
+	 */
+	private static final int FINGERPRINT_LENGTH = 64;
+
+	/**
+	 * The size of an entry's header: the magic number, the version, the
+	 * length of each of the three arrays, a reserved int and the fingerprint.
+	 */
+	private static final int HEADER_SIZE = 24 + FINGERPRINT_LENGTH;
+
+	/**
+	 * The number of array elements hashed or copied at a time.
+	 */
+	private static final int BLOCK_SIZE = 16384;
+
+	/**
+	 * The extension of entry files.
+	 */
+	private static final String EXTENSION = ".tmc";
+
+	/**
+	 * The directory holding the entries.
+	 */
+	private final Path directory;
+
+	/**
+	 * The default constructor.
+	 * 
+	 * @param directory
+	 *            The directory to hold the entries. It is created when the
+	 *            first entry is stored.
+	 */
+	public TriangleMeshCache(Path directory) {
+		this.directory = directory;
+	}
+
+	/**
+	 * Computes the fingerprint of a custom mesh's content, its positions and
+	 * entities, under which its converted arrays are cached.
+	 * 
+	 * @param mesh
+	 *            A custom mesh.
+	 * @return The fingerprint, as hexadecimal digits.
+	 */
+	public static String fingerprint(Mesh mesh) {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			// Every Java platform is required to support SHA-256
+			throw new IllegalStateException(e);
+		}
+		ByteBuffer buffer = ByteBuffer.allocate(BLOCK_SIZE * 4).order(
+				ByteOrder.LITTLE_ENDIAN);
+		int vertexCount = mesh.getVertexCount();
+		int[] offsets = mesh.getEntityOffsets();
+		int[] indices = mesh.getEntityIndices();
+		buffer.putInt(VERSION).putInt(vertexCount).putInt(offsets.length)
+				.putInt(indices.length);
+		buffer.flip();
+		digest.update(buffer);
+
+		// Hash the positions a block at a time, which also dequantizes them
+		int blockVertices = BLOCK_SIZE / 3;
+		float[] block = new float[blockVertices * 3];
+		for (int first = 0; first < vertexCount; first += blockVertices) {
+			int count = Math.min(blockVertices, vertexCount - first);
+			mesh.copyPositions(first, count, block);
+			buffer.clear();
+			buffer.asFloatBuffer().put(block, 0, count * 3);
+			buffer.limit(count * 12);
+			digest.update(buffer);
+		}
+		update(digest, buffer, offsets);
+		update(digest, buffer, indices);
+
+		StringBuilder hex = new StringBuilder(FINGERPRINT_LENGTH);
+		for (byte value : digest.digest()) {
+			hex.append(Character.forDigit((value >> 4) & 0xf, 16));
+			hex.append(Character.forDigit(value & 0xf, 16));
+		}
+		return hex.toString();
+	}
+
+	/**
+	 * Adds an int array to a digest through a buffer.
+	 */
+	private static void update(MessageDigest digest, ByteBuffer buffer,
+			int[] values) {
+		for (int start = 0; start < values.length; start += BLOCK_SIZE) {
+			int count = Math.min(BLOCK_SIZE, values.length - start);
+			buffer.clear();
+			buffer.asIntBuffer().put(values, start, count);
+			buffer.limit(count * 4);
+			digest.update(buffer);
+		}
+	}
+
+	/**
+	 * Loads a cached entry into a TriangleMesh, replacing its points, texture
+	 * coordinates and faces.
+	 * 
+	 * @param fingerprint
+	 *            The fingerprint of the mesh, from fingerprint().
+	 * @param mesh
+	 *            The TriangleMesh to fill.
+	 * @return True if the entry was loaded, false if there is no usable
+	 *         entry, in which case the TriangleMesh is unchanged.
+	 * @throws IOException
+	 *             If the entry exists but cannot be read.
+	 */
+	public boolean load(String fingerprint, TriangleMesh mesh)
+			throws IOException {
+		Path file = getFile(fingerprint);
+		if (!Files.isRegularFile(file)) {
+			return false;
+		}
+
+		MappedByteBuffer mapping;
+		try (FileChannel channel = FileChannel.open(file,
+				StandardOpenOption.READ)) {
+			long size = channel.size();
+			if (size < HEADER_SIZE || size > Integer.MAX_VALUE) {
+				Files.deleteIfExists(file);
+				return false;
+			}
+			mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+		}
+		mapping.order(ByteOrder.LITTLE_ENDIAN);
+
+		// Check that the entry is whole and really for this mesh
+		int magic = mapping.getInt();
+		int version = mapping.getInt();
+		long pointCount = mapping.getInt();
+		long texCoordCount = mapping.getInt();
+		long faceCount = mapping.getInt();
+		mapping.getInt();
+		byte[] stored = new byte[FINGERPRINT_LENGTH];
+		mapping.get(stored);
+		boolean valid = magic == MAGIC && version == VERSION
+				&& fingerprint.equals(new String(stored,
+						StandardCharsets.US_ASCII));
+		valid &= pointCount >= 0 && pointCount % 3 == 0
+				&& texCoordCount >= 0 && texCoordCount % 2 == 0
+				&& faceCount >= 0 && faceCount % 6 == 0;
+		valid &= HEADER_SIZE + (pointCount + texCoordCount + faceCount) * 4 == mapping
+				.capacity();
+		if (valid) {
+			mapping.position(HEADER_SIZE
+					+ (int) (pointCount + texCoordCount) * 4);
+			valid = facesInRange(mapping.asIntBuffer(), (int) faceCount,
+					pointCount / 3, texCoordCount / 2);
+		}
+		if (!valid) {
+			Files.deleteIfExists(file);
+			return false;
+		}
+
+		mapping.position(HEADER_SIZE);
+		FloatBuffer floats = mapping.asFloatBuffer();
+		copy(floats, (int) pointCount, mesh.getPoints());
+		copy(floats, (int) texCoordCount, mesh.getTexCoords());
+		mapping.position(HEADER_SIZE
+				+ (int) (pointCount + texCoordCount) * 4);
+		copy(mapping.asIntBuffer(), (int) faceCount, mesh.getFaces());
+		return true;
+	}
+
+	/**
+	 * Stores a TriangleMesh's points, texture coordinates and faces as the
+	 * entry for a fingerprint, replacing any existing entry.
+	 * 
+	 * @param fingerprint
+	 *            The fingerprint of the mesh the TriangleMesh was converted
+	 *            from, from fingerprint().
+	 * @param mesh
+	 *            The converted TriangleMesh.
+	 * @throws IOException
+	 *             If the entry cannot be written.
+	 */
+	public void store(String fingerprint, TriangleMesh mesh)
+			throws IOException {
+		ObservableFloatArray points = mesh.getPoints();
+		ObservableFloatArray texCoords = mesh.getTexCoords();
+		ObservableIntegerArray faces = mesh.getFaces();
+		long size = HEADER_SIZE
+				+ ((long) points.size() + texCoords.size() + faces.size()) * 4;
+		if (size > Integer.MAX_VALUE) {
+			throw new IOException(
+					"TriangleMeshCache error: The mesh is too large to cache.");
+		}
+
+		Files.createDirectories(directory);
+		Path temporary = Files.createTempFile(directory, fingerprint, ".tmp");
+		try {
+			try (FileChannel channel = FileChannel.open(temporary,
+					StandardOpenOption.WRITE)) {
+				ByteBuffer buffer = ByteBuffer.allocate(BLOCK_SIZE * 4).order(
+						ByteOrder.LITTLE_ENDIAN);
+				buffer.putInt(MAGIC).putInt(VERSION).putInt(points.size())
+						.putInt(texCoords.size()).putInt(faces.size())
+						.putInt(0);
+				buffer.put(fingerprint.getBytes(StandardCharsets.US_ASCII));
+				buffer.flip();
+				write(channel, buffer);
+				write(channel, buffer, points);
+				write(channel, buffer, texCoords);
+				write(channel, buffer, faces);
+			}
+			Files.move(temporary, getFile(fingerprint),
+					StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(temporary);
+		}
+	}
+
+	/**
+	 * Gets the file holding the entry for a fingerprint.
+	 */
+	private Path getFile(String fingerprint) {
+		if (fingerprint.length() != FINGERPRINT_LENGTH) {
+			throw new IllegalArgumentException(
+					"TriangleMeshCache error: The fingerprint is malformed.");
+		}
+		return directory.resolve(fingerprint + EXTENSION);
+	}
+
+	/**
+	 * Checks that every face of an entry refers only to points and texture
+	 * coordinates the entry holds, reading the faces a block at a time.
+	 * 
+	 * @param faces
+	 *            The faces, as consecutive (point, texture coordinate) pairs.
+	 * @param count
+	 *            The number of ints in the faces.
+	 * @param points
+	 *            The number of points in the entry.
+	 * @param texCoords
+	 *            The number of texture coordinates in the entry.
+	 * @return True if every index is in range, false otherwise.
+	 */
+	private static boolean facesInRange(IntBuffer faces, int count,
+			long points, long texCoords) {
+		int[] block = new int[Math.min(BLOCK_SIZE, count)];
+		for (int start = 0; start < count; start += BLOCK_SIZE) {
+			int length = Math.min(BLOCK_SIZE, count - start);
+			faces.get(block, 0, length);
+			for (int i = 0; i < length; i += 2) {
+				if (block[i] < 0 || block[i] >= points || block[i + 1] < 0
+						|| block[i + 1] >= texCoords) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Replaces the contents of a float array with the next floats of a
+	 * buffer, a block at a time.
+	 */
+	private static void copy(FloatBuffer source, int count,
+			ObservableFloatArray target) {
+		float[] block = new float[Math.min(BLOCK_SIZE, count)];
+		target.resize(count);
+		for (int start = 0; start < count; start += BLOCK_SIZE) {
+			int length = Math.min(BLOCK_SIZE, count - start);
+			source.get(block, 0, length);
+			target.set(start, block, 0, length);
+		}
+	}
+
+	/**
+	 * Replaces the contents of an int array with the next ints of a buffer,
+	 * a block at a time.
+	 */
+	private static void copy(IntBuffer source, int count,
+			ObservableIntegerArray target) {
+		int[] block = new int[Math.min(BLOCK_SIZE, count)];
+		target.resize(count);
+		for (int start = 0; start < count; start += BLOCK_SIZE) {
+			int length = Math.min(BLOCK_SIZE, count - start);
+			source.get(block, 0, length);
+			target.set(start, block, 0, length);
+		}
+	}
+
+	/**
+	 * Writes a float array through a buffer, a block at a time.
+	 */
+	private static void write(FileChannel channel, ByteBuffer buffer,
+			ObservableFloatArray values) throws IOException {
+		float[] block = new float[BLOCK_SIZE];
+		for (int start = 0; start < values.size(); start += BLOCK_SIZE) {
+			int length = Math.min(BLOCK_SIZE, values.size() - start);
+			values.copyTo(start, block, 0, length);
+			buffer.clear();
+			buffer.asFloatBuffer().put(block, 0, length);
+			buffer.limit(length * 4);
+			write(channel, buffer);
+		}
+	}
+
+	/**
+	 * Writes an int array through a buffer, a block at a time.
+	 */
+	private static void write(FileChannel channel, ByteBuffer buffer,
+			ObservableIntegerArray values) throws IOException {
+		int[] block = new int[BLOCK_SIZE];
+		for (int start = 0; start < values.size(); start += BLOCK_SIZE) {
+			int length = Math.min(BLOCK_SIZE, values.size() - start);
+			values.copyTo(start, block, 0, length);
+			buffer.clear();
+			buffer.asIntBuffer().put(block, 0, length);
+			buffer.limit(length * 4);
+			write(channel, buffer);
+		}
+	}
+
+	/**
+	 * Writes the whole of a buffer at the end of the file.
+	 */
+	private static void write(FileChannel channel, ByteBuffer buffer)
+			throws IOException {
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+	}
+}
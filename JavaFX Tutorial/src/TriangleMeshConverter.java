@@ -0,0 +1,193 @@
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntBinaryOperator;
+
+/**
+ * Converts the faces of a custom Mesh into the face array expected by a JavaFX
+ * TriangleMesh, where each triangle is stored as three (point index, texture
+ * coordinate index) pairs.
+ * 
+ * The conversion never boxes values or grows lists. It first counts the
+ * triangles each face will produce and turns the counts into output offsets
+ * with a parallel prefix sum, so that the face array can be allocated once at
+ * its final size. The faces are then triangulated in parallel on a
+ * ForkJoinPool, each task writing its triangles straight into its own part of
+ * the array.
+ * 
+ * The mesh's packed positions are already in the layout TriangleMesh uses for
+ * its points, so they need no conversion.
+ * 
+ * @author Robert Smith
+ *
+ */
+public class TriangleMeshConverter {
+
+	/**
+	 * The number of faces below which a task triangulates its faces itself
+	 * rather than splitting.
+	 */
+	private static final int FACES_PER_TASK = 1024;
+
+	/**
+	 * The pool on which faces are triangulated.
+	 */
+	private final ForkJoinPool pool;
+
+	/**
+	 * Creates a converter which uses the common ForkJoinPool.
+	 */
+	public TriangleMeshConverter() {
+		this(ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Creates a converter which uses the given pool.
+	 * 
+	 * @param pool
+	 *            The pool on which to triangulate faces.
+	 */
+	public TriangleMeshConverter(ForkJoinPool pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * Triangulates the mesh's entities into a TriangleMesh face array. Every
+	 * face refers to texture coordinate 0.
+	 * 
+	 * @param mesh
+	 *            A custom mesh.
+	 * @return The faces, as six ints per triangle.
+	 */
+	public int[] convertFaces(Mesh mesh) {
+
+		// Count the triangles each entity will produce, then turn the counts
+		// into the index of each entity's first triangle.
+		int[] offsets = mesh.getEntityOffsets();
+		int entityCount = mesh.getEntityCount();
+		int[] triangleStart = new int[entityCount + 1];
+		for (int i = 0; i < entityCount; i++) {
+			triangleStart[i + 1] = Math.max(0, offsets[i + 1] - offsets[i] - 2);
+		}
+		Arrays.parallelPrefix(triangleStart, new IntBinaryOperator() {
+			@Override
+			public int applyAsInt(int left, int right) {
+				return left + right;
+			}
+		});
+
+		// Fill in the triangles
+		int[] faces = new int[triangleStart[entityCount] * 6];
+		pool.invoke(new TriangulateTask(mesh.getPositions(), offsets,
+				mesh.getEntityIndices(), triangleStart, faces, 0, entityCount));
+
+		return faces;
+	}
+
+	/**
+	 * Points each triangle corner at the texture coordinate with the same
+	 * index as its point, so that the texture coordinates can be used as per
+	 * vertex attributes, such as a position along a colormap.
+	 * 
+	 * @param faces
+	 *            A TriangleMesh face array, which is changed in place.
+	 * @return The face array.
+	 */
+	public static int[] indexTexCoordsByPoint(int[] faces) {
+		for (int i = 0; i < faces.length; i += 2) {
+			faces[i + 1] = faces[i];
+		}
+		return faces;
+	}
+
+	/**
+	 * A task which triangulates a range of entities, splitting the range in
+	 * half until it is small enough to handle directly.
+	 */
+	private static class TriangulateTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final float[] positions;
+		private final int[] offsets;
+		private final int[] indices;
+		private final int[] triangleStart;
+		private final int[] faces;
+
+		/**
+		 * The first entity in the range.
+		 */
+		private final int first;
+
+		/**
+		 * One past the last entity in the range.
+		 */
+		private final int last;
+
+		/**
+		 * The default constructor.
+		 * 
+		 * @param positions
+		 *            The mesh's packed positions.
+		 * @param offsets
+		 *            The mesh's entity offsets.
+		 * @param indices
+		 *            The mesh's entity indices.
+		 * @param triangleStart
+		 *            The index of each entity's first triangle.
+		 * @param faces
+		 *            The face array to fill.
+		 * @param first
+		 *            The first entity in the range.
+		 * @param last
+		 *            One past the last entity in the range.
+		 */
+		public TriangulateTask(float[] positions, int[] offsets,
+				int[] indices, int[] triangleStart, int[] faces, int first,
+				int last) {
+			this.positions = positions;
+			this.offsets = offsets;
+			this.indices = indices;
+			this.triangleStart = triangleStart;
+			this.faces = faces;
+			this.first = first;
+			this.last = last;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * @see java.util.concurrent.RecursiveAction#compute()
+		 */
+		@Override
+		protected void compute() {
+
+			// Split large ranges in half
+			if (last - first > FACES_PER_TASK) {
+				int middle = (first + last) >>> 1;
+				invokeAll(new TriangulateTask(positions, offsets, indices,
+						triangleStart, faces, first, middle),
+						new TriangulateTask(positions, offsets, indices,
+								triangleStart, faces, middle, last));
+				return;
+			}
+
+			PolygonTriangulator triangulator = new PolygonTriangulator();
+			int[] triangles = new int[3];
+			for (int entity = first; entity < last; entity++) {
+				int count = triangleStart[entity + 1] - triangleStart[entity];
+				if (triangles.length < count * 3) {
+					triangles = new int[count * 3];
+				}
+				triangulator.triangulate(positions, indices, offsets[entity],
+						offsets[entity + 1], triangles, 0);
+
+				// Interleave the point indices with texture coordinate 0
+				int o = triangleStart[entity] * 6;
+				for (int i = 0; i < count * 3; i++) {
+					faces[o++] = triangles[i];
+					faces[o++] = 0;
+				}
+			}
+		}
+	}
+}
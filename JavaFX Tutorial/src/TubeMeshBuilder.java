@@ -0,0 +1,210 @@
+import java.util.ArrayList;
+import java.util.List;
+
+import javafx.scene.shape.TriangleMesh;
+
+/**
+ * Builds thin tubes along a set of edges as merged TriangleMeshes, rather than
+ * as one Cylinder node per edge. Each tube is an open prism with a fixed
+ * number of sides, oriented along its edge when it is generated, so the scene
+ * needs no per edge transforms.
+ * 
+ * To keep individual meshes a manageable size, the tubes are split into chunks
+ * of at most a fixed number of edges, each of which becomes its own
+ * TriangleMesh.
+ * 
+ * @author Robert Smith
+ *
+ */
+public class TubeMeshBuilder {
+
+	/**
+	 * The default maximum number of edges in a single mesh.
+	 */
+	public static final int DEFAULT_EDGES_PER_MESH = 16384;
+
+	/**
+	 * The tubes' radius.
+	 */
+	private final float radius;
+
+	/**
+	 * The number of sides around each tube.
+	 */
+	private final int sides;
+
+	/**
+	 * The maximum number of edges in a single mesh.
+	 */
+	private final int edgesPerMesh;
+
+	/**
+	 * The cosine of the angle of each side around the tube.
+	 */
+	private final float[] cosines;
+
+	/**
+	 * The sine of the angle of each side around the tube.
+	 */
+	private final float[] sines;
+
+	/**
+	 * The default constructor.
+	 * 
+	 * @param radius
+	 *            The tubes' radius.
+	 * @param sides
+	 *            The number of sides around each tube. It must be at least 3.
+	 * @param edgesPerMesh
+	 *            The maximum number of edges in a single mesh.
+	 */
+	public TubeMeshBuilder(float radius, int sides, int edgesPerMesh) {
+		if (sides < 3 || edgesPerMesh < 1) {
+			throw new IllegalArgumentException(
+					"TubeMeshBuilder error: Tubes need at least 3 sides and meshes at least 1 edge.");
+		}
+		this.radius = radius;
+		this.sides = sides;
+		this.edgesPerMesh = edgesPerMesh;
+
+		// Precompute the angles around the tube
+		cosines = new float[sides];
+		sines = new float[sides];
+		for (int i = 0; i < sides; i++) {
+			double angle = 2 * Math.PI * i / sides;
+			cosines[i] = (float) Math.cos(angle);
+			sines[i] = (float) Math.sin(angle);
+		}
+	}
+
+	/**
+	 * Builds tubes along the given edges.
+	 * 
+	 * @param positions
+	 *            The vertex positions as consecutive (x, y, z) triples.
+	 * @param edges
+	 *            The edges as consecutive (start, end) pairs of vertex indices.
+	 * @return The tube meshes, with at most edgesPerMesh edges in each.
+	 */
+	public List<TriangleMesh> build(float[] positions, int[] edges) {
+		int edgeCount = edges.length / 2;
+		List<TriangleMesh> meshes = new ArrayList<TriangleMesh>();
+		for (int first = 0; first < edgeCount; first += edgesPerMesh) {
+			int count = Math.min(edgesPerMesh, edgeCount - first);
+			meshes.add(buildChunk(positions, edges, first, count));
+		}
+		return meshes;
+	}
+
+	/**
+	 * Builds a single mesh holding the tubes for a range of edges.
+	 * 
+	 * @param positions
+	 *            The vertex positions.
+	 * @param edges
+	 *            The edges as pairs of vertex indices.
+	 * @param first
+	 *            The first edge in the range.
+	 * @param count
+	 *            The number of edges in the range.
+	 * @return The mesh.
+	 */
+	private TriangleMesh buildChunk(float[] positions, int[] edges, int first,
+			int count) {
+
+		// Each tube has a ring of points at each end and two triangles per side
+		float[] points = new float[count * sides * 2 * 3];
+		int[] faces = new int[count * sides * 2 * 6];
+		int p = 0;
+		int f = 0;
+
+		for (int edge = first; edge < first + count; edge++) {
+			int s = edges[edge * 2] * 3;
+			int e = edges[edge * 2 + 1] * 3;
+
+			// Get the edge's direction
+			float dx = positions[e] - positions[s];
+			float dy = positions[e + 1] - positions[s + 1];
+			float dz = positions[e + 2] - positions[s + 2];
+			float length = (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
+			if (length > 0) {
+				dx /= length;
+				dy /= length;
+				dz /= length;
+			} else {
+				dy = 1;
+			}
+
+			// Cross the direction with the axis it is least aligned with to
+			// get a perpendicular, u, then complete the frame with v = d x u
+			float ax = Math.abs(dx), ay = Math.abs(dy), az = Math.abs(dz);
+			float ux, uy, uz;
+			if (ax <= ay && ax <= az) {
+				ux = 0;
+				uy = dz;
+				uz = -dy;
+			} else if (ay <= az) {
+				ux = -dz;
+				uy = 0;
+				uz = dx;
+			} else {
+				ux = dy;
+				uy = -dx;
+				uz = 0;
+			}
+			float uLength = (float) Math.sqrt(ux * ux + uy * uy + uz * uz);
+			ux /= uLength;
+			uy /= uLength;
+			uz /= uLength;
+			float vx = dy * uz - dz * uy;
+			float vy = dz * ux - dx * uz;
+			float vz = dx * uy - dy * ux;
+
+			// Place the rings at each end of the edge
+			int base = p / 3;
+			for (int ring = 0; ring < 2; ring++) {
+				int end = (ring == 0 ? s : e);
+				for (int i = 0; i < sides; i++) {
+					float ox = radius * (cosines[i] * ux + sines[i] * vx);
+					float oy = radius * (cosines[i] * uy + sines[i] * vy);
+					float oz = radius * (cosines[i] * uz + sines[i] * vz);
+					points[p++] = positions[end] + ox;
+					points[p++] = positions[end + 1] + oy;
+					points[p++] = positions[end + 2] + oz;
+				}
+			}
+
+			// Connect the rings with two outward facing triangles per side
+			for (int i = 0; i < sides; i++) {
+				int s0 = base + i;
+				int s1 = base + (i + 1) % sides;
+				int e0 = s0 + sides;
+				int e1 = s1 + sides;
+				f = addTriangle(faces, f, s0, s1, e0);
+				f = addTriangle(faces, f, s1, e1, e0);
+			}
+		}
+
+		TriangleMesh mesh = new TriangleMesh();
+		mesh.getPoints().setAll(points);
+		mesh.getTexCoords().setAll(0, 0);
+		mesh.getFaces().setAll(faces);
+		return mesh;
+	}
+
+	/**
+	 * Writes a triangle into a face array, using texture coordinate 0 for each
+	 * corner.
+	 * 
+	 * @return The position after the triangle.
+	 */
+	private static int addTriangle(int[] faces, int f, int a, int b, int c) {
+		faces[f++] = a;
+		faces[f++] = 0;
+		faces[f++] = b;
+		faces[f++] = 0;
+		faces[f++] = c;
+		faces[f++] = 0;
+		return f;
+	}
+}
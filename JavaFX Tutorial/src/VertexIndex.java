@@ -0,0 +1,103 @@
+import java.util.IdentityHashMap;
+import java.util.List;
+
+/**
+ * An index from Vertex objects to their positions in a list of vertices. It is
+ * built once from the list, so that each lookup costs a hash probe instead of
+ * a scan of the list.
+ * 
+ * Vertices are first looked up by reference, which finds the vertex's own
+ * slot, and is how the polygons of a component normally refer to the
+ * component's vertices. A vertex which is not in the list itself, such as a
+ * copy of one which is, is looked up by ID instead, and matched with
+ * equals() against only those vertices in the list which share its ID.
+ * 
+ * @author Robert Smith
+ *
+ */
+public class VertexIndex {
+
+	/**
+	 * The indexed vertices, in list order.
+	 */
+	private final Vertex[] vertices;
+
+	/**
+	 * A map from each vertex in the list to the first slot holding it.
+	 */
+	private final IdentityHashMap<Vertex, Integer> instances;
+
+	/**
+	 * A map from each vertex ID to the first slot holding a vertex with that
+	 * ID.
+	 */
+	private final LongIntHashMap ids;
+
+	/**
+	 * For each slot, the next slot holding a vertex with the same ID, or -1 if
+	 * there is none.
+	 */
+	private final int[] nextWithId;
+
+	/**
+	 * The default constructor.
+	 * 
+	 * @param vertices
+	 *            The vertices to index.
+	 */
+	public VertexIndex(List<Vertex> vertices) {
+		this.vertices = vertices.toArray(new Vertex[vertices.size()]);
+		instances = new IdentityHashMap<Vertex, Integer>(this.vertices.length);
+		ids = new LongIntHashMap(this.vertices.length, -1);
+		nextWithId = new int[this.vertices.length];
+
+		// Chain the slots sharing each ID in list order, remembering the last
+		// slot of each chain while it is built
+		LongIntHashMap lastWithId = new LongIntHashMap(this.vertices.length, -1);
+		for (int i = 0; i < this.vertices.length; i++) {
+			nextWithId[i] = -1;
+			Vertex vertex = this.vertices[i];
+			if (vertex == null) {
+				continue;
+			}
+			if (!instances.containsKey(vertex)) {
+				instances.put(vertex, i);
+			}
+			long id = vertex.getId();
+			int last = lastWithId.get(id);
+			if (last < 0) {
+				ids.put(id, i);
+			} else {
+				nextWithId[last] = i;
+			}
+			lastWithId.put(id, i);
+		}
+	}
+
+	/**
+	 * Gets the slot of a vertex in the indexed list.
+	 * 
+	 * @param vertex
+	 *            The vertex to look up.
+	 * @return The first slot holding the vertex itself if it is in the list,
+	 *         otherwise the first slot holding a vertex equal to it, or -1 if
+	 *         there is none.
+	 */
+	public int indexOf(Vertex vertex) {
+		if (vertex == null) {
+			return -1;
+		}
+		Integer slot = instances.get(vertex);
+		if (slot != null) {
+			return slot;
+		}
+
+		// Compare a foreign vertex with those sharing its ID
+		for (int i = ids.get(vertex.getId()); i >= 0; i = nextWithId[i]) {
+			if (vertex.equals(vertices[i])) {
+				return i;
+			}
+		}
+		return -1;
+	}
+}
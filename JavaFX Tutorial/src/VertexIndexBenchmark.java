@@ -0,0 +1,109 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Times the lookups a component makes while converting its polygons into
+ * entities, with a VertexIndex and with List.indexOf(), for strips of
+ * triangles of increasing size. Each triangle refers to three of the
+ * strip's vertices, so there are three lookups per vertex. The vertices keep
+ * the default ID, as they do when IDs are never set, which is the case a
+ * lookup by ID alone cannot tell apart.
+ * 
+ * The index should take time in proportion to the number of vertices, and
+ * the list time in proportion to its square. The list is only timed up to a
+ * size where it finishes in a few seconds.
+ * 
+ * @author Robert Smith
+ *
+ */
+public class VertexIndexBenchmark {
+
+	/**
+	 * The numbers of vertices to time.
+	 */
+	private static final int[] SIZES = { 1000, 4000, 16000, 64000, 256000,
+			1024000 };
+
+	/**
+	 * The largest number of vertices to time List.indexOf() with.
+	 */
+	private static final int LIST_LIMIT = 16000;
+
+	/**
+	 * This class only holds static operations.
+	 */
+	private VertexIndexBenchmark() {
+	}
+
+	/**
+	 * Runs the benchmark, printing the time taken at each size.
+	 * 
+	 * @param args
+	 *            Unused.
+	 */
+	public static void main(String[] args) {
+
+		// Warm up both lookups before timing them
+		time(createStrip(LIST_LIMIT), true);
+		time(createStrip(LIST_LIMIT), false);
+
+		System.out.println("vertices\tindex (ms)\tlist (ms)");
+		for (int size : SIZES) {
+			List<Vertex> strip = createStrip(size);
+			double index = time(strip, true);
+			String list = (size <= LIST_LIMIT) ? String.format("%.1f",
+					time(strip, false)) : "-";
+			System.out.println(String.format("%d\t%.1f\t%s", size, index,
+					list));
+		}
+	}
+
+	/**
+	 * Creates the vertices of a strip of triangles, with their default IDs.
+	 * 
+	 * @param size
+	 *            The number of vertices.
+	 * @return The vertices.
+	 */
+	private static List<Vertex> createStrip(int size) {
+		List<Vertex> vertices = new ArrayList<Vertex>(size);
+		for (int i = 0; i < size; i++) {
+			vertices.add(new Vertex(i / 2, i % 2, 0));
+		}
+		return vertices;
+	}
+
+	/**
+	 * Looks up the corners of every triangle in a strip.
+	 * 
+	 * @param strip
+	 *            The strip's vertices.
+	 * @param indexed
+	 *            True to look them up with a VertexIndex, including the time
+	 *            taken to build it, or false to use List.indexOf().
+	 * @return The time taken, in milliseconds.
+	 */
+	private static double time(List<Vertex> strip, boolean indexed) {
+		long start = System.nanoTime();
+		VertexIndex index = indexed ? new VertexIndex(strip) : null;
+		long sum = 0;
+		for (int i = 0; i + 2 < strip.size(); i++) {
+			for (int corner = i; corner < i + 3; corner++) {
+				Vertex vertex = strip.get(corner);
+				sum += indexed ? index.indexOf(vertex) : strip.indexOf(vertex);
+			}
+		}
+		double elapsed = (System.nanoTime() - start) / 1e6;
+
+		// Check every corner was found in its own slot
+		long expected = 0;
+		for (int i = 0; i + 2 < strip.size(); i++) {
+			expected += 3L * i + 3;
+		}
+		if (sum != expected) {
+			throw new IllegalStateException(
+					"VertexIndexBenchmark error: A vertex was found in the wrong slot.");
+		}
+		return elapsed;
+	}
+}
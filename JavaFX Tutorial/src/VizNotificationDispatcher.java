@@ -0,0 +1,281 @@
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Delivers VizObject change notifications to their listeners on an Executor.
+ * 
+ * Notifications are coalesced per source. While a source already has a
+ * delivery waiting to run, further changes to it do not queue another one, as
+ * the waiting delivery will show its listeners the latest state anyway. Once a
+ * delivery starts, the next change queues a new delivery, so no change is ever
+ * missed.
+ * 
+ * By default notifications run on a shared pool with one daemon thread per
+ * processor and a bounded queue. If the queue fills up, the notifying thread
+ * delivers the notification itself, which slows producers down instead of
+ * creating more threads. Any other Executor, such as a virtual thread per task
+ * executor on JDKs which provide one, can be supplied instead. Whenever the
+ * executor will not take a delivery, including after shutdown(), the
+ * notifying thread delivers it itself, so notifications are never dropped.
+ * 
+ * @author Robert Smith
+ *
+ */
+public class VizNotificationDispatcher {
+
+	/**
+	 * The maximum number of deliveries waiting in the default pool's queue.
+	 */
+	private static final int DEFAULT_QUEUE_CAPACITY = 4096;
+
+	/**
+	 * The dispatcher used by every VizObject.
+	 */
+	private static volatile VizNotificationDispatcher defaultDispatcher;
+
+	/**
+	 * The executor on which deliveries run.
+	 */
+	private final Executor executor;
+
+	/**
+	 * The number of deliveries queued but not yet started.
+	 */
+	private final AtomicInteger queueDepth = new AtomicInteger();
+
+	/**
+	 * The number of deliveries which have started.
+	 */
+	private final AtomicLong dispatchCount = new AtomicLong();
+
+	/**
+	 * The number of notifications folded into an already queued delivery.
+	 */
+	private final AtomicLong coalescedCount = new AtomicLong();
+
+	/**
+	 * The total time, in nanoseconds, between deliveries being queued and
+	 * starting.
+	 */
+	private final AtomicLong totalLatency = new AtomicLong();
+
+	/**
+	 * The longest time, in nanoseconds, between a delivery being queued and
+	 * starting.
+	 */
+	private final AtomicLong maxLatency = new AtomicLong();
+
+	/**
+	 * Creates a dispatcher with its own bounded pool of daemon threads.
+	 */
+	public VizNotificationDispatcher() {
+		this(createDefaultExecutor());
+	}
+
+	/**
+	 * Creates a dispatcher which delivers notifications on the given executor.
+	 * 
+	 * @param executor
+	 *            The executor on which to run deliveries.
+	 */
+	public VizNotificationDispatcher(Executor executor) {
+		if (executor == null) {
+			throw new IllegalArgumentException(
+					"VizNotificationDispatcher error: The executor must not be null.");
+		}
+		this.executor = executor;
+	}
+
+	/**
+	 * Gets the dispatcher used by every VizObject, creating it if necessary.
+	 * 
+	 * @return The default dispatcher.
+	 */
+	public static VizNotificationDispatcher getDefault() {
+		VizNotificationDispatcher dispatcher = defaultDispatcher;
+		if (dispatcher == null) {
+			synchronized (VizNotificationDispatcher.class) {
+				dispatcher = defaultDispatcher;
+				if (dispatcher == null) {
+					dispatcher = new VizNotificationDispatcher();
+					defaultDispatcher = dispatcher;
+				}
+			}
+		}
+		return dispatcher;
+	}
+
+	/**
+	 * Replaces the dispatcher used by every VizObject. Deliveries already
+	 * queued on the previous dispatcher still run there.
+	 * 
+	 * @param dispatcher
+	 *            The new default dispatcher.
+	 */
+	public static void setDefault(VizNotificationDispatcher dispatcher) {
+		if (dispatcher == null) {
+			throw new IllegalArgumentException(
+					"VizNotificationDispatcher error: The default dispatcher must not be null.");
+		}
+		defaultDispatcher = dispatcher;
+	}
+
+	/**
+	 * Queues delivery of a change notification from the source to its
+	 * listeners, unless a delivery for that source is already waiting.
+	 * 
+	 * @param source
+	 *            The object whose state has changed.
+	 */
+	public void dispatch(final VizObject source) {
+
+		// Fold this notification into the waiting delivery, if there is one
+		if (!source.notificationPending.compareAndSet(false, true)) {
+			coalescedCount.incrementAndGet();
+			return;
+		}
+
+		final long queued = System.nanoTime();
+		Runnable delivery = new Runnable() {
+			@Override
+			public void run() {
+				queueDepth.decrementAndGet();
+				recordLatency(System.nanoTime() - queued);
+
+				// Clear the flag before delivering, so that changes made from
+				// here on queue a new delivery
+				source.notificationPending.set(false);
+				source.deliverNotifications();
+			}
+		};
+		queueDepth.incrementAndGet();
+		try {
+			executor.execute(delivery);
+		} catch (RejectedExecutionException e) {
+
+			// Deliver here rather than leave the source flagged as pending,
+			// which would stop it from ever notifying again
+			delivery.run();
+		}
+
+		return;
+	}
+
+	/**
+	 * Gets the number of deliveries queued but not yet started.
+	 * 
+	 * @return The current queue depth.
+	 */
+	public int getQueueDepth() {
+		return queueDepth.get();
+	}
+
+	/**
+	 * Gets the number of deliveries which have started.
+	 * 
+	 * @return The number of deliveries.
+	 */
+	public long getDispatchCount() {
+		return dispatchCount.get();
+	}
+
+	/**
+	 * Gets the number of notifications which were folded into an already
+	 * queued delivery instead of queuing their own.
+	 * 
+	 * @return The number of coalesced notifications.
+	 */
+	public long getCoalescedCount() {
+		return coalescedCount.get();
+	}
+
+	/**
+	 * Gets the mean time between a delivery being queued and starting.
+	 * 
+	 * @return The average dispatch latency in nanoseconds.
+	 */
+	public double getAverageLatency() {
+		long count = dispatchCount.get();
+		return (count > 0 ? (double) totalLatency.get() / count : 0);
+	}
+
+	/**
+	 * Gets the longest time between a delivery being queued and starting.
+	 * 
+	 * @return The maximum dispatch latency in nanoseconds.
+	 */
+	public long getMaxLatency() {
+		return maxLatency.get();
+	}
+
+	/**
+	 * Stops the dispatcher's executor from accepting more work, if it is an
+	 * ExecutorService. Deliveries which are already queued still run, and
+	 * later notifications are delivered by the notifying thread.
+	 */
+	public void shutdown() {
+		if (executor instanceof ExecutorService) {
+			((ExecutorService) executor).shutdown();
+		}
+	}
+
+	/**
+	 * Adds a single delivery's latency to the metrics.
+	 * 
+	 * @param latency
+	 *            The time in nanoseconds between the delivery being queued and
+	 *            starting.
+	 */
+	private void recordLatency(long latency) {
+		dispatchCount.incrementAndGet();
+		totalLatency.addAndGet(latency);
+		long max = maxLatency.get();
+		while (latency > max && !maxLatency.compareAndSet(max, latency)) {
+			max = maxLatency.get();
+		}
+	}
+
+	/**
+	 * Creates the default bounded pool of daemon threads.
+	 * 
+	 * @return The new executor.
+	 */
+	private static ExecutorService createDefaultExecutor() {
+		int threads = Runtime.getRuntime().availableProcessors();
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads,
+				30, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(DEFAULT_QUEUE_CAPACITY),
+				new ThreadFactory() {
+					private final AtomicInteger count = new AtomicInteger();
+
+					@Override
+					public Thread newThread(Runnable runnable) {
+						Thread thread = new Thread(runnable,
+								"VizNotifier-" + count.incrementAndGet());
+						thread.setDaemon(true);
+						return thread;
+					}
+				}, new RejectedExecutionHandler() {
+					@Override
+					public void rejectedExecution(Runnable runnable,
+							ThreadPoolExecutor executor) {
+
+						// Unlike CallerRunsPolicy, also run deliveries
+						// rejected after shutdown instead of discarding them
+						runnable.run();
+					}
+				});
+
+		// Let idle threads exit between bursts of notifications
+		executor.allowCoreThreadTimeOut(true);
+		return executor;
+	}
+}
@@ -13,6 +13,7 @@
 
 
 import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.xml.bind.annotation.XmlAttribute;
 import javax.xml.bind.annotation.XmlRootElement;
@@ -92,6 +93,16 @@ public class VizObject implements IVizObject, IVizUpdateable {
 	@XmlTransient
 	protected ArrayList<IVizUpdateableListener> listeners;
 
+	/**
+	 * <p>
+	 * Whether or not a notification of a change to the ICEObject is waiting to
+	 * be delivered to the listeners.
+	 * </p>
+	 * 
+	 */
+	@XmlTransient
+	final AtomicBoolean notificationPending = new AtomicBoolean(false);
+
 	/**
 	 * <p>
 	 * The Constructor
@@ -225,20 +236,29 @@ public class VizObject implements IVizObject, IVizUpdateable {
 
 		// Only process the update if there are listeners
 		if (listeners != null && !listeners.isEmpty()) {
-			// Create a thread on which to notify the listeners.
-			Thread notifierThread = new Thread() {
-				@Override
-				public void run() {
-					// Loop over all listeners and update them
-					for (int i = 0; i < listeners.size(); i++) {
-						listeners.get(i).update(VizObject.this);
-					}
-					return;
-				}
-			};
-
-			// Launch the thread and do the notifications
-			notifierThread.start();
+			// Hold the notification back if a batch is open on this thread.
+			// Otherwise, hand it to the dispatcher, which coalesces it with any
+			// delivery for this object that has not started yet.
+			if (!VizUpdateBatch.defer(this)) {
+				VizNotificationDispatcher.getDefault().dispatch(this);
+			}
+		}
+
+		return;
+	}
+
+	/**
+	 * <p>
+	 * This operation delivers a change notification to each of the listeners
+	 * of the ICEObject. It is called by the VizNotificationDispatcher.
+	 * </p>
+	 * 
+	 */
+	void deliverNotifications() {
+
+		// Loop over all listeners and update them
+		for (int i = 0; i < listeners.size(); i++) {
+			listeners.get(i).update(this);
 		}
 
 		return;
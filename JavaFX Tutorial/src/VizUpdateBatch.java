@@ -0,0 +1,143 @@
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+
+/**
+ * A scope in which change notifications from VizObjects are held back and
+ * then delivered together. While a batch is open on a thread, every VizObject
+ * changed on that thread is recorded instead of notifying its listeners. When
+ * the batch is committed, each recorded object notifies its listeners exactly
+ * once, no matter how many times it changed.
+ * 
+ * This allows, for example, all the vertices of a component to be moved for a
+ * new simulation frame at the cost of one notification per vertex, rather than
+ * one per setter call, each of which would cascade through the vertex's edges
+ * and polygons.
+ * 
+ * Batches are opened with begin() and must be committed on the same thread,
+ * either by calling commit() or by closing the batch in a try-with-resources
+ * statement:
+ * 
+ * <pre>
+ * try (VizUpdateBatch batch = VizUpdateBatch.begin()) {
+ * 	vertex.setLocation(1f, 2f, 3f);
+ * 	...
+ * }
+ * </pre>
+ * 
+ * Batches may be nested. Only the outermost commit delivers the notifications.
+ * 
+ * @author Robert Smith
+ *
+ */
+public class VizUpdateBatch implements AutoCloseable {
+
+	/**
+	 * The batch open on each thread, if any.
+	 */
+	private static final ThreadLocal<VizUpdateBatch> currentBatch = new ThreadLocal<VizUpdateBatch>();
+
+	/**
+	 * The objects which have changed during the batch, in the order they
+	 * first changed.
+	 */
+	private final ArrayList<VizObject> changed;
+
+	/**
+	 * The set of objects in changed, compared by reference.
+	 */
+	private final IdentityHashMap<VizObject, Boolean> recorded;
+
+	/**
+	 * The number of times the batch has been begun but not yet committed.
+	 */
+	private int depth;
+
+	/**
+	 * The default constructor. Batches are created through begin().
+	 */
+	private VizUpdateBatch() {
+		changed = new ArrayList<VizObject>();
+		recorded = new IdentityHashMap<VizObject, Boolean>();
+		depth = 0;
+	}
+
+	/**
+	 * Opens a batch on the current thread, or enters another level of the
+	 * batch already open on it.
+	 * 
+	 * @return The current thread's batch.
+	 */
+	public static VizUpdateBatch begin() {
+		VizUpdateBatch batch = currentBatch.get();
+		if (batch == null) {
+			batch = new VizUpdateBatch();
+			currentBatch.set(batch);
+		}
+		batch.depth++;
+		return batch;
+	}
+
+	/**
+	 * Checks whether a batch is open on the current thread.
+	 * 
+	 * @return True if notifications on this thread are being held back, false
+	 *         otherwise.
+	 */
+	public static boolean isActive() {
+		return currentBatch.get() != null;
+	}
+
+	/**
+	 * Records a change to an object if a batch is open on the current thread.
+	 * 
+	 * @param source
+	 *            The object which has changed.
+	 * @return True if the notification was held back by a batch, false if it
+	 *         should be delivered now.
+	 */
+	static boolean defer(VizObject source) {
+		VizUpdateBatch batch = currentBatch.get();
+		if (batch == null) {
+			return false;
+		}
+		if (batch.recorded.put(source, Boolean.TRUE) == null) {
+			batch.changed.add(source);
+		}
+		return true;
+	}
+
+	/**
+	 * Leaves one level of the batch. When the outermost level is left, the
+	 * batch is closed and every object which changed during it notifies its
+	 * listeners once.
+	 */
+	public void commit() {
+		if (currentBatch.get() != this || depth == 0) {
+			throw new IllegalStateException(
+					"VizUpdateBatch error: The batch is not open on this thread.");
+		}
+		if (--depth > 0) {
+			return;
+		}
+
+		// Close the batch before notifying, so that the notifications are not
+		// recorded again
+		currentBatch.remove();
+		for (VizObject source : changed) {
+			source.notifyListeners();
+		}
+		changed.clear();
+		recorded.clear();
+
+		return;
+	}
+
+	/**
+	 * Commits the batch, so that it can be used in a try-with-resources
+	 * statement.
+	 */
+	@Override
+	public void close() {
+		commit();
+	}
+}
@@ -79,6 +79,10 @@ public class VolumetricPlantComponent extends VizObject implements
 	public VolumetricPlantComponent(List<Vertex> vertices,
 			List<Polygon> entities) {
 		this();
+
+		// Index the vertex list once so that each lookup is constant time.
+		VertexIndex index = new VertexIndex(vertices);
+
 		ArrayList<List<Integer>> indexedEntities = new ArrayList<List<Integer>>();
 		for (Polygon entity : entities) {
 			ArrayList<Edge> tempEdges = entity.getEdges();
@@ -86,8 +90,9 @@ public class VolumetricPlantComponent extends VizObject implements
 				ArrayList<Integer> newEntity = new ArrayList<Integer>();
 				Vertex[] tempVertices = edge.getVertices();
 				for (Vertex vertex : tempVertices) {
-					if (vertices.contains(vertex)) {
-						newEntity.add(vertices.indexOf(vertex));
+					int slot = index.indexOf(vertex);
+					if (slot >= 0) {
+						newEntity.add(slot);
 					}
 				}
 				indexedEntities.add(newEntity);